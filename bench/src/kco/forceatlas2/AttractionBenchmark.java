@@ -0,0 +1,90 @@
+package kco.forceatlas2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attraction of all edges on the array engine, serial, for each {@link ForceFactory} attraction force and each
+ * {@link ForceAtlas2.AttractionMode}: edges with striped locks, edges into a force buffer then summed, or the in and
+ * out edges of each node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttractionBenchmark {
+
+    @Param({"10000", "100000"})
+    int nodes;
+
+    @Param({"2", "3"})
+    int dimensions;
+
+    @Param({"false", "true"})
+    boolean linLog;
+
+    @Param({"false", "true"})
+    boolean distributed;
+
+    @Param({"false", "true"})
+    boolean adjustSizes;
+
+    private NodeArrays a;
+    private EdgeArrays edges;
+    private ForceBuffer[] buffers;
+    private ForceFactory.AttractionForce attraction;
+
+    @Setup
+    public void setUp() {
+        BenchmarkGraph graph = BenchmarkGraph.random(nodes, dimensions == 3);
+        a = graph.nodes;
+        edges = graph.edges;
+        edges.updateWeights(false, null, 1, a.singlePrecision);
+        edges.buildIncoming();
+        buffers = new ForceBuffer[]{new ForceBuffer(a.size, a.is3d)};
+        // Same compensation as ForceAtlas2 for distributed attraction: the mean mass
+        double coefficient = 1;
+        if (distributed) {
+            coefficient = 0;
+            for (int n = 0; n < a.size; n++) {
+                coefficient += a.mass(n);
+            }
+            coefficient /= a.size;
+        }
+        attraction = ForceFactory.builder.buildAttraction(linLog, distributed, adjustSizes, coefficient);
+    }
+
+    @Benchmark
+    public NodeArrays synchronizedAttraction() {
+        attraction.apply(a, edges, 0, edges.size);
+        return a;
+    }
+
+    @Benchmark
+    public NodeArrays buffered() {
+        attraction.apply(a, edges, 0, edges.size, buffers[0]);
+        ForceBuffer.reduce(buffers, a, 0, a.size);
+        return a;
+    }
+
+    @Benchmark
+    public NodeArrays ownerComputes() {
+        for (int n = 0; n < a.size; n++) {
+            attraction.apply(a, edges, n);
+        }
+        return a;
+    }
+}
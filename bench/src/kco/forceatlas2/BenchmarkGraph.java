@@ -0,0 +1,82 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.Node;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Seeded random graphs of the benchmarks, drawn as in {@link PrecisionBenchmark#randomGraph}: {@link #EDGES_PER_NODE}
+ * random edges from each node, and random positions in a 1000 wide square (cube in 3d), as in {@link Main}. The array
+ * and Gephi graphs of a size are drawn from the same numbers, so both engines lay out the same graph, up to parallel
+ * edges, which a Gephi graph keeps once.
+ */
+final class BenchmarkGraph {
+
+    static final int EDGES_PER_NODE = 5;
+    static final long SEED = 42;
+
+    final NodeArrays nodes;
+    final EdgeArrays edges;
+
+    private BenchmarkGraph(NodeArrays nodes, EdgeArrays edges) {
+        this.nodes = nodes;
+        this.edges = edges;
+    }
+
+    /**
+     * Graph for the array engine, with masses 1 + degree.
+     */
+    static BenchmarkGraph random(int nodeCount, boolean is3d) {
+        Random random = new Random(SEED);
+        float[] x = new float[nodeCount];
+        float[] y = new float[nodeCount];
+        float[] z = new float[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            x[i] = (float) ((0.01 + random.nextDouble()) * 1000) - 500;
+            y[i] = (float) ((0.01 + random.nextDouble()) * 1000) - 500;
+            z[i] = is3d ? (float) ((0.01 + random.nextDouble()) * 1000) - 500 : 0;
+        }
+        int[] source = new int[nodeCount * EDGES_PER_NODE];
+        int[] target = new int[nodeCount * EDGES_PER_NODE];
+        int edgeCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            for (int k = 0; k < EDGES_PER_NODE; k++) {
+                int j = random.nextInt(nodeCount);
+                if (j != i) {
+                    source[edgeCount] = i;
+                    target[edgeCount] = j;
+                    edgeCount++;
+                }
+            }
+        }
+        EdgeArrays edges = EdgeArrays.fromArrays(nodeCount, Arrays.copyOf(source, edgeCount), Arrays.copyOf(target, edgeCount), null);
+        NodeArrays nodes = NodeArrays.fromEdges(edges, is3d, false, false, null);
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.setX(i, x[i]);
+            nodes.setY(i, y[i]);
+            if (is3d) {
+                nodes.setZ(i, z[i]);
+            }
+        }
+        return new BenchmarkGraph(nodes, edges);
+    }
+
+    static GraphModel randomGraphModel(int nodeCount, boolean is3d) {
+        return PrecisionBenchmark.randomGraph(nodeCount, EDGES_PER_NODE, is3d, SEED);
+    }
+
+    /**
+     * Nodes of a Gephi graph with their layout data, masses included, as set up by {@link ForceAtlas2#initAlgo()}
+     * for {@link Region} trees.
+     */
+    static Node[] layoutNodes(int nodeCount, boolean is3d) {
+        GraphModel graphModel = randomGraphModel(nodeCount, is3d);
+        ForceAtlas2 layout = new ForceAtlas2(null, is3d, false);
+        layout.setGraphModel(graphModel);
+        layout.initAlgo();
+        layout.endAlgo();
+        return graphModel.getGraphVisible().getNodes().toArray();
+    }
+}
@@ -0,0 +1,72 @@
+package kco.forceatlas2;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link ForceAtlas2#goAlgo()} iterations with the default settings of {@link Main}, tree, repulsion, attraction,
+ * speed and task split included, on the array engine as for graphs loaded without Gephi, or on Gephi nodes. The
+ * layout goes on from one iteration to the next, so that measured iterations are those of a running layout.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GoAlgoBenchmark {
+
+    @Param({"10000", "100000"})
+    int nodes;
+
+    @Param({"2", "3"})
+    int dimensions;
+
+    @Param({"array", "gephi"})
+    String engine;
+
+    // 0 for all processors
+    @Param({"0"})
+    int threads;
+
+    private ForceAtlas2 layout;
+
+    @Setup
+    public void setUp() {
+        boolean is3d = dimensions == 3;
+        layout = new ForceAtlas2(null, is3d, false);
+        if (engine.equals("array")) {
+            BenchmarkGraph graph = BenchmarkGraph.random(nodes, is3d);
+            layout.setGraphArrays(graph.nodes, graph.edges);
+        } else {
+            layout.setGraphModel(BenchmarkGraph.randomGraphModel(nodes, is3d));
+        }
+        if (threads > 0) {
+            layout.setThreadsCount(threads);
+        }
+        layout.initAlgo();
+    }
+
+    @Benchmark
+    public double goAlgo() {
+        layout.goAlgo();
+        return layout.getDistance();
+    }
+
+    @TearDown
+    public void tearDown() {
+        layout.endAlgo();
+    }
+}
@@ -0,0 +1,289 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.GraphFactory;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.Node;
+import org.gephi.graph.api.UndirectedGraph;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the array engine in double and single precision on a seeded random graph: iterations per second of each
+ * mode, and how far the single precision layout drifts from the double one.
+ * <p>
+ * Drift is the root mean square distance between the positions of a node in both layouts, relative to the root mean
+ * square distance of nodes to their barycenter in the double layout. Quality is the mean edge length relative to the
+ * mean distance between random pairs of nodes, lower meaning tighter edges, reported for both modes.
+ * <p>
+ * The graph is a Gephi graph by default, or {@link EdgeArrays} and {@link NodeArrays} with the arrays option, laid
+ * out without Gephi as by --arrayEngine on an edge list, which fits millions of nodes in a few GB of heap. Both draw
+ * the same numbers, so they lay out the same graph, up to parallel edges, which a Gephi graph keeps once.
+ * <p>
+ * Usage: PrecisionBenchmark [nodes] [edges per node] [iterations] [2d|3d] [seed] [threads] [gephi|arrays]
+ */
+public class PrecisionBenchmark {
+
+    private PrecisionBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int edgesPerNode = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        boolean is3d = args.length > 3 && args[3].equalsIgnoreCase("3d");
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        int threadCount = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        boolean arrays = args.length > 6 && args[6].equalsIgnoreCase("arrays");
+
+        if (arrays) {
+            runArrays(nodeCount, edgesPerNode, is3d, iterations, threadCount, seed);
+        } else {
+            GraphModel graphModel = randomGraph(nodeCount, edgesPerNode, is3d, seed);
+            run(graphModel, is3d, iterations, threadCount, seed);
+        }
+    }
+
+    /**
+     * Runs both modes from the same initial positions, each twice so that the second, timed, run is compiled, and
+     * prints the comparison. Double precision runs first, as the JIT compiles the force sums shared by both modes less
+     * tightly once single precision has run, which slows double precision down by up to half.
+     */
+    public static void run(GraphModel graphModel, boolean is3d, int iterations, int threadCount, long seed) {
+        Node[] nodes = graphModel.getGraphVisible().getNodes().toArray();
+        float[] initial = positions(nodes);
+        long[] time = new long[1];
+
+        layout(graphModel, nodes, initial, is3d, iterations, threadCount, false, time);
+        float[] doubleLayout = layout(graphModel, nodes, initial, is3d, iterations, threadCount, false, time);
+        long doubleTime = time[0];
+        layout(graphModel, nodes, initial, is3d, iterations, threadCount, true, time);
+        float[] singleLayout = layout(graphModel, nodes, initial, is3d, iterations, threadCount, true, time);
+        long singleTime = time[0];
+
+        Edge[] edges = graphModel.getGraphVisible().getEdges().toArray();
+        int[] ordinals = new int[maxStoreId(nodes) + 1];
+        for (int i = 0; i < nodes.length; i++) {
+            ordinals[nodes[i].getStoreId()] = i;
+        }
+        int[] source = new int[edges.length];
+        int[] target = new int[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            source[i] = ordinals[edges[i].getSource().getStoreId()];
+            target[i] = ordinals[edges[i].getTarget().getStoreId()];
+        }
+        print(source, target, iterations, doubleLayout, doubleTime, singleLayout, singleTime, seed);
+    }
+
+    /**
+     * Same as {@link #run}, on the arrays of the random graph.
+     */
+    public static void runArrays(int nodeCount, int edgesPerNode, boolean is3d, int iterations, int threadCount, long seed) {
+        float[] initial = new float[3 * nodeCount];
+        int[][] edges = randomEdges(nodeCount, edgesPerNode, is3d, seed, initial);
+        int[] source = edges[0];
+        int[] target = edges[1];
+        long[] time = new long[1];
+
+        layoutArrays(source, target, initial, is3d, iterations, threadCount, false, time);
+        float[] doubleLayout = layoutArrays(source, target, initial, is3d, iterations, threadCount, false, time);
+        long doubleTime = time[0];
+        layoutArrays(source, target, initial, is3d, iterations, threadCount, true, time);
+        float[] singleLayout = layoutArrays(source, target, initial, is3d, iterations, threadCount, true, time);
+        long singleTime = time[0];
+
+        print(source, target, iterations, doubleLayout, doubleTime, singleLayout, singleTime, seed);
+    }
+
+    private static void print(int[] source, int[] target, int iterations, float[] doubleLayout, long doubleTime, float[] singleLayout, long singleTime, long seed) {
+        double doubleQuality = quality(doubleLayout, source, target, seed);
+        double singleQuality = quality(singleLayout, source, target, seed);
+
+        System.out.println("nodes\t" + doubleLayout.length / 3);
+        System.out.println("edges\t" + source.length);
+        System.out.println("iterations\t" + iterations);
+        System.out.println("double iterations/s\t" + iterations * 1e9 / doubleTime);
+        System.out.println("single iterations/s\t" + iterations * 1e9 / singleTime);
+        System.out.println("throughput gain\t" + (double) doubleTime / singleTime);
+        System.out.println("drift\t" + drift(doubleLayout, singleLayout));
+        System.out.println("double quality\t" + doubleQuality);
+        System.out.println("single quality\t" + singleQuality);
+        System.out.println("quality change\t" + (singleQuality - doubleQuality) / doubleQuality);
+    }
+
+    private static float[] layout(GraphModel graphModel, Node[] nodes, float[] initial, boolean is3d, int iterations, int threadCount, boolean singlePrecision, long[] time) {
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setX(initial[3 * i]);
+            nodes[i].setY(initial[3 * i + 1]);
+            nodes[i].setZ(initial[3 * i + 2]);
+            nodes[i].setLayoutData(null);
+        }
+        ForceAtlas2 layout = new ForceAtlas2(null, is3d, false);
+        layout.setGraphModel(graphModel);
+        layout.setThreadsCount(threadCount);
+        layout.setArrayEngine(true);
+        // Buffered attraction sums forces in a fixed order, so that runs are reproducible
+        layout.setAttractionMode(ForceAtlas2.AttractionMode.BUFFERED);
+        layout.setSinglePrecision(singlePrecision);
+        long start = System.nanoTime();
+        layout.initAlgo();
+        for (int i = 0; i < iterations; i++) {
+            layout.goAlgo();
+        }
+        layout.endAlgo();
+        time[0] = System.nanoTime() - start;
+        return positions(nodes);
+    }
+
+    private static float[] layoutArrays(int[] source, int[] target, float[] initial, boolean is3d, int iterations, int threadCount, boolean singlePrecision, long[] time) {
+        int nodeCount = initial.length / 3;
+        // The layout renumbers the arrays, so each run builds its own
+        EdgeArrays edges = EdgeArrays.fromArrays(nodeCount, source, target, null);
+        NodeArrays nodes = NodeArrays.fromEdges(edges, is3d, singlePrecision, false, null);
+        for (int i = 0; i < nodeCount; i++) {
+            nodes.setX(i, initial[3 * i]);
+            nodes.setY(i, initial[3 * i + 1]);
+            if (is3d) {
+                nodes.setZ(i, initial[3 * i + 2]);
+            }
+        }
+        ForceAtlas2 layout = new ForceAtlas2(null, is3d, false);
+        layout.setGraphArrays(nodes, edges);
+        layout.setThreadsCount(threadCount);
+        layout.setAttractionMode(ForceAtlas2.AttractionMode.BUFFERED);
+        layout.setSinglePrecision(singlePrecision);
+        long start = System.nanoTime();
+        layout.initAlgo();
+        for (int i = 0; i < iterations; i++) {
+            layout.goAlgo();
+        }
+        layout.endAlgo();
+        time[0] = System.nanoTime() - start;
+        float[] positions = new float[3 * nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            positions[3 * i] = nodes.x(i);
+            positions[3 * i + 1] = nodes.y(i);
+            positions[3 * i + 2] = is3d ? nodes.z(i) : 0;
+        }
+        return positions;
+    }
+
+    private static float[] positions(Node[] nodes) {
+        float[] positions = new float[3 * nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            positions[3 * i] = nodes[i].x();
+            positions[3 * i + 1] = nodes[i].y();
+            positions[3 * i + 2] = nodes[i].z();
+        }
+        return positions;
+    }
+
+    private static int maxStoreId(Node[] nodes) {
+        int max = -1;
+        for (Node n : nodes) {
+            max = Math.max(max, n.getStoreId());
+        }
+        return max;
+    }
+
+    private static double distance(float[] p, int i, float[] q, int j) {
+        double xDist = p[3 * i] - q[3 * j];
+        double yDist = p[3 * i + 1] - q[3 * j + 1];
+        double zDist = p[3 * i + 2] - q[3 * j + 2];
+        return Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+    }
+
+    static double drift(float[] reference, float[] other) {
+        int n = reference.length / 3;
+        double cx = 0;
+        double cy = 0;
+        double cz = 0;
+        for (int i = 0; i < n; i++) {
+            cx += reference[3 * i];
+            cy += reference[3 * i + 1];
+            cz += reference[3 * i + 2];
+        }
+        float[] center = {(float) (cx / n), (float) (cy / n), (float) (cz / n)};
+        double spread = 0;
+        double drift = 0;
+        for (int i = 0; i < n; i++) {
+            double d = distance(reference, i, center, 0);
+            spread += d * d;
+            d = distance(reference, i, other, i);
+            drift += d * d;
+        }
+        return Math.sqrt(drift / n) / Math.sqrt(spread / n);
+    }
+
+    static double quality(float[] positions, int[] source, int[] target, long seed) {
+        int n = positions.length / 3;
+        double edgeLength = 0;
+        for (int i = 0; i < source.length; i++) {
+            edgeLength += distance(positions, source[i], positions, target[i]);
+        }
+        Random random = new Random(seed);
+        int pairs = Math.max(1, source.length);
+        double pairDistance = 0;
+        for (int k = 0; k < pairs; k++) {
+            pairDistance += distance(positions, random.nextInt(n), positions, random.nextInt(n));
+        }
+        return (edgeLength / Math.max(1, source.length)) / (pairDistance / pairs);
+    }
+
+    /**
+     * Undirected graph with edgesPerNode random edges from each node, and random positions in a 1000 wide square
+     * (cube in 3d), as in {@link Main}.
+     */
+    static GraphModel randomGraph(int nodeCount, int edgesPerNode, boolean is3d, long seed) {
+        Random random = new Random(seed);
+        GraphModel graphModel = GraphModel.Factory.newInstance();
+        GraphFactory factory = graphModel.factory();
+        UndirectedGraph graph = graphModel.getUndirectedGraph();
+        Node[] nodes = new Node[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            Node n = factory.newNode(String.valueOf(i));
+            n.setX((float) ((0.01 + random.nextDouble()) * 1000) - 500);
+            n.setY((float) ((0.01 + random.nextDouble()) * 1000) - 500);
+            n.setZ(is3d ? (float) ((0.01 + random.nextDouble()) * 1000) - 500 : 0);
+            graph.addNode(n);
+            nodes[i] = n;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            for (int k = 0; k < edgesPerNode; k++) {
+                int j = random.nextInt(nodeCount);
+                if (j != i) {
+                    graph.addEdge(factory.newEdge(nodes[i], nodes[j], 0, 1, false));
+                }
+            }
+        }
+        return graphModel;
+    }
+
+    /**
+     * Edges of {@link #randomGraph} as source and target ordinals, parallel edges included, and its positions drawn
+     * into positions, 3 per node.
+     */
+    static int[][] randomEdges(int nodeCount, int edgesPerNode, boolean is3d, long seed, float[] positions) {
+        Random random = new Random(seed);
+        for (int i = 0; i < nodeCount; i++) {
+            positions[3 * i] = (float) ((0.01 + random.nextDouble()) * 1000) - 500;
+            positions[3 * i + 1] = (float) ((0.01 + random.nextDouble()) * 1000) - 500;
+            positions[3 * i + 2] = is3d ? (float) ((0.01 + random.nextDouble()) * 1000) - 500 : 0;
+        }
+        int[] source = new int[nodeCount * edgesPerNode];
+        int[] target = new int[nodeCount * edgesPerNode];
+        int edgeCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            for (int k = 0; k < edgesPerNode; k++) {
+                int j = random.nextInt(nodeCount);
+                if (j != i) {
+                    source[edgeCount] = i;
+                    target[edgeCount] = j;
+                    edgeCount++;
+                }
+            }
+        }
+        return new int[][]{Arrays.copyOf(source, edgeCount), Arrays.copyOf(target, edgeCount)};
+    }
+}
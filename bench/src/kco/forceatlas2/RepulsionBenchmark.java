@@ -0,0 +1,91 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Barnes Hut repulsion of one node, the walk of the tree and the force evaluations, on the array engine or on Gephi
+ * nodes. Each invocation does a fixed seeded sample of {@value #SAMPLE} nodes, so that the time is per node and the
+ * same nodes are measured in both engines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepulsionBenchmark {
+
+    private static final int SAMPLE = 1024;
+
+    @Param({"10000", "100000"})
+    int nodes;
+
+    @Param({"2", "3"})
+    int dimensions;
+
+    @Param({"array", "gephi"})
+    String engine;
+
+    @Param({"1.2"})
+    double theta;
+
+    private final int[] sample = new int[SAMPLE];
+    private ForceFactory.RepulsionForce repulsion;
+    private BarnesHutTree tree;
+    private Node[] gephiNodes;
+    private Region region;
+
+    @Setup
+    public void setUp() {
+        boolean is3d = dimensions == 3;
+        Random random = new Random(BenchmarkGraph.SEED);
+        for (int i = 0; i < SAMPLE; i++) {
+            sample[i] = random.nextInt(nodes);
+        }
+        // Scaling ratio of ForceAtlas2 for 100 nodes and more
+        repulsion = ForceFactory.builder.buildRepulsion(false, 2.0);
+        if (engine.equals("array")) {
+            tree = new BarnesHutTree(BenchmarkGraph.random(nodes, is3d).nodes);
+            tree.reset();
+            tree.buildSubRegions(0, true);
+        } else {
+            gephiNodes = BenchmarkGraph.layoutNodes(nodes, is3d);
+            region = new Region(gephiNodes, is3d);
+            region.buildSubRegions(true);
+        }
+    }
+
+    /**
+     * @return number of force evaluations
+     */
+    @Benchmark
+    @OperationsPerInvocation(SAMPLE)
+    public int repulsion() {
+        int count = 0;
+        if (tree != null) {
+            for (int n : sample) {
+                count += tree.applyForce(n, repulsion, theta);
+            }
+        } else {
+            for (int n : sample) {
+                count += region.applyForce(gephiNodes[n], repulsion, theta);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,78 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serial Barnes Hut tree build and refit over all nodes, on the flat {@link BarnesHutTree} of the array engine or
+ * the {@link Region} tree of Gephi nodes. An array build partitions the node permutation left by the previous one,
+ * as in a layout, while a Gephi build allocates a new tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeBenchmark {
+
+    @Param({"10000", "100000"})
+    int nodes;
+
+    @Param({"2", "3"})
+    int dimensions;
+
+    @Param({"array", "gephi"})
+    String engine;
+
+    private boolean is3d;
+    private BarnesHutTree tree;
+    private Node[] gephiNodes;
+    private Region region;
+
+    @Setup
+    public void setUp() {
+        is3d = dimensions == 3;
+        if (engine.equals("array")) {
+            tree = new BarnesHutTree(BenchmarkGraph.random(nodes, is3d).nodes);
+            build();
+        } else {
+            gephiNodes = BenchmarkGraph.layoutNodes(nodes, is3d);
+            region = (Region) build();
+        }
+    }
+
+    @Benchmark
+    public Object build() {
+        if (tree != null) {
+            tree.reset();
+            tree.buildSubRegions(0, true);
+            return tree;
+        }
+        Region r = new Region(gephiNodes, is3d);
+        r.buildSubRegions(true);
+        return r;
+    }
+
+    @Benchmark
+    public Object refit() {
+        if (tree != null) {
+            tree.refit(0, true);
+            return tree;
+        }
+        region.refit(true);
+        return region;
+    }
+}
@@ -0,0 +1,88 @@
+package kco.forceatlas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Allocates the off heap buffers of the array engine in native byte order, either direct or mapped one after the
+ * other from a scratch file, deleted on exit. {@link NodeArrays} map the scratch file given with --offHeapFile, and
+ * edges, the Barnes Hut tree and force buffers map files next to it, named with a suffix.
+ */
+class Allocator {
+
+    private final RandomAccessFile file;
+    private long position;
+
+    /**
+     * @param file scratch file, or null for direct buffers
+     * @throws UncheckedIOException if the file cannot be opened
+     */
+    Allocator(File file) {
+        try {
+            if (file != null) {
+                file.deleteOnExit();
+                this.file = new RandomAccessFile(file, "rw");
+                this.file.setLength(0);
+            } else {
+                this.file = null;
+            }
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Allocator mapping the file named as the given one with the suffix appended, or direct buffers if file is null.
+     */
+    Allocator(File file, String suffix) {
+        this(file != null ? new File(file.getPath() + suffix) : null);
+    }
+
+    FloatBuffer floats(int count) {
+        return allocate(4L * count).asFloatBuffer();
+    }
+
+    DoubleBuffer doubles(int count) {
+        return allocate(8L * count).asDoubleBuffer();
+    }
+
+    IntBuffer ints(int count) {
+        return allocate(4L * count).asIntBuffer();
+    }
+
+    ByteBuffer allocate(long bytes) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Off heap buffer larger than 2GB: " + bytes + " bytes");
+        }
+        if (file == null) {
+            return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+        }
+        try {
+            // Mapping extends the file, which reads as zeros
+            ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, position, bytes);
+            position += bytes;
+            return buffer.order(ByteOrder.nativeOrder());
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    // Mappings stay valid once the file is closed
+    void close() {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException x) {
+                x.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package kco.forceatlas2;
+
+/**
+ * A graph loaded without Gephi, by {@link EdgeListLoader} or {@link MatrixLoader}: node IDs, and edges between their
+ * ordinals in the dictionary.
+ */
+public class ArrayGraph {
+
+    private final IdDictionary ids;
+    private final EdgeArrays edges;
+
+    public ArrayGraph(IdDictionary ids, EdgeArrays edges) {
+        this.ids = ids;
+        this.edges = edges;
+    }
+
+    public IdDictionary getIds() {
+        return ids;
+    }
+
+    public EdgeArrays getEdges() {
+        return edges;
+    }
+
+    public int getNodeCount() {
+        return ids.size();
+    }
+}
@@ -0,0 +1,84 @@
+package kco.forceatlas2;
+
+/**
+ * Repulsion and gravity for a range of node ordinals, the array engine counterpart of {@link NodesThread}.
+ * When given edges and an attraction force, also computes the attraction of each node's edges right after its
+ * repulsion (owner-computes attraction), so that no other thread writes to the nodes of this range.
+ * When given cost zones, records the number of force evaluations of each node.
+ */
+public class ArrayNodesThread implements Runnable {
+
+    private NodeArrays a;
+    private int from;
+    private int to;
+    private BarnesHutTree rootRegion;
+    private boolean barnesHutOptimize;
+    private ForceFactory.RepulsionForce Repulsion;
+    private double barnesHutTheta;
+    private double gravity;
+    private ForceFactory.RepulsionForce GravityForce;
+    private double scaling;
+    private EdgeArrays edges;
+    private ForceFactory.AttractionForce Attraction;
+    private CostZones costZones;
+
+    public ArrayNodesThread(NodeArrays a, int from, int to, boolean barnesHutOptimize, double barnesHutTheta, double gravity, ForceFactory.RepulsionForce GravityForce, double scaling, BarnesHutTree rootRegion, ForceFactory.RepulsionForce Repulsion) {
+        this.a = a;
+        this.from = from;
+        this.to = to;
+        this.rootRegion = rootRegion;
+        this.barnesHutOptimize = barnesHutOptimize;
+        this.Repulsion = Repulsion;
+        this.barnesHutTheta = barnesHutTheta;
+        this.gravity = gravity;
+        this.GravityForce = GravityForce;
+        this.scaling = scaling;
+    }
+
+    public ArrayNodesThread(NodeArrays a, int from, int to, boolean barnesHutOptimize, double barnesHutTheta, double gravity, ForceFactory.RepulsionForce GravityForce, double scaling, BarnesHutTree rootRegion, ForceFactory.RepulsionForce Repulsion, EdgeArrays edges, ForceFactory.AttractionForce Attraction, CostZones costZones) {
+        this(a, from, to, barnesHutOptimize, barnesHutTheta, gravity, GravityForce, scaling, rootRegion, Repulsion);
+        this.edges = edges;
+        this.Attraction = Attraction;
+        this.costZones = costZones;
+    }
+
+    @Override
+    public void run() {
+        // Repulsion
+        if (barnesHutOptimize) {
+            for (int n = from; n < to; n++) {
+                int cost = rootRegion.applyForce(n, Repulsion, barnesHutTheta);
+                if (Attraction != null) {
+                    Attraction.apply(a, edges, n);
+                    cost += degree(n);
+                }
+                if (costZones != null) {
+                    costZones.set(n, cost + 1);
+                }
+            }
+        } else {
+            // Each node sums the repulsion of all others, so that only nodes of this range are written
+            for (int n1 = from; n1 < to; n1++) {
+                for (int n2 = 0; n2 < a.size; n2++) {
+                    if (n2 != n1) {
+                        Repulsion.apply(a, n1, n2);
+                    }
+                }
+                if (Attraction != null) {
+                    Attraction.apply(a, edges, n1);
+                }
+                if (costZones != null) {
+                    costZones.set(n1, a.size + (Attraction != null ? degree(n1) : 0));
+                }
+            }
+        }
+        // Gravity
+        for (int n = from; n < to; n++) {
+            GravityForce.apply(a, n, gravity / scaling);
+        }
+    }
+
+    private int degree(int n) {
+        return edges.offset(n + 1) - edges.offset(n) + edges.inOffset(n + 1) - edges.inOffset(n);
+    }
+}
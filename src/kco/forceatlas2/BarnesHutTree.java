@@ -0,0 +1,653 @@
+package kco.forceatlas2;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Barnes Hut optimization over node arrays, stored as a flat tree in parallel primitive arrays.
+ * <p>
+ * Each cell covers the nodes {@code order[start[c]]} to {@code order[end[c] - 1]}, where {@code order} is a
+ * permutation of node ordinals, partitioned in place when cells are split. Cells are laid out in pre-order: the
+ * first child of cell c is c + 1, and {@code next[c]} is the cell to visit once the subtree of c is done. A cell
+ * with k nodes reserves a block of 2k - 1 cells for its subtree, which is enough since every split cell has at least
+ * two children, so subtrees can be built in parallel and the whole tree takes O(n) memory, allocated once.
+ * Subdivision follows {@link Region}: quadrants (octants in 3d) around the mass center, and one child per node when
+ * all nodes fall in the same quadrant.
+ * <p>
+ * Cell mass, mass center and size are stored as floats when the node arrays are in single precision, halving the
+ * memory read by tree walks, and are always computed in doubles.
+ * <p>
+ * The tree of off heap node arrays is off heap too, in buffers of an {@link Allocator} mapped next to their scratch
+ * file if any, and the heap arrays are null.
+ */
+public class BarnesHutTree {
+
+    private final NodeArrays a;
+    private final int[] order;
+    private final int[] buffer;
+    private final byte[] childOf;
+    private final int[] start;
+    private final int[] end;
+    private final int[] next;
+    private final boolean singlePrecision;
+    private final double[] mass;
+    private final double[] massCenterX;
+    private final double[] massCenterY;
+    private final double[] massCenterZ;
+    private final double[] size;
+    private final float[] mass32;
+    private final float[] massCenterX32;
+    private final float[] massCenterY32;
+    private final float[] massCenterZ32;
+    private final float[] size32;
+    private final boolean offHeap;
+    private final IntBuffer orderBuffer;
+    private final IntBuffer bufferBuffer;
+    private final ByteBuffer childOfBuffer;
+    private final IntBuffer startBuffer;
+    private final IntBuffer endBuffer;
+    private final IntBuffer nextBuffer;
+    private final DoubleBuffer massBuffer;
+    private final DoubleBuffer massCenterXBuffer;
+    private final DoubleBuffer massCenterYBuffer;
+    private final DoubleBuffer massCenterZBuffer;
+    private final DoubleBuffer sizeBuffer;
+    private final FloatBuffer mass32Buffer;
+    private final FloatBuffer massCenterX32Buffer;
+    private final FloatBuffer massCenterY32Buffer;
+    private final FloatBuffer massCenterZ32Buffer;
+    private final FloatBuffer size32Buffer;
+
+    public BarnesHutTree(NodeArrays a) {
+        this.a = a;
+        int n = a.size;
+        int cells = Math.max(1, 2 * n - 1);
+        singlePrecision = a.singlePrecision;
+        offHeap = a.offHeap;
+        boolean heap = !offHeap;
+        boolean heap64 = heap && !singlePrecision;
+        boolean heap32 = heap && singlePrecision;
+        order = heap ? new int[n] : null;
+        buffer = heap ? new int[n] : null;
+        childOf = heap ? new byte[n] : null;
+        start = heap ? new int[cells] : null;
+        end = heap ? new int[cells] : null;
+        next = heap ? new int[cells] : null;
+        mass = heap64 ? new double[cells] : null;
+        massCenterX = heap64 ? new double[cells] : null;
+        massCenterY = heap64 ? new double[cells] : null;
+        massCenterZ = heap64 ? new double[cells] : null;
+        size = heap64 ? new double[cells] : null;
+        mass32 = heap32 ? new float[cells] : null;
+        massCenterX32 = heap32 ? new float[cells] : null;
+        massCenterY32 = heap32 ? new float[cells] : null;
+        massCenterZ32 = heap32 ? new float[cells] : null;
+        size32 = heap32 ? new float[cells] : null;
+        if (offHeap) {
+            Allocator allocator = new Allocator(a.file, ".tree");
+            try {
+                orderBuffer = allocator.ints(n);
+                bufferBuffer = allocator.ints(n);
+                childOfBuffer = allocator.allocate(n);
+                startBuffer = allocator.ints(cells);
+                endBuffer = allocator.ints(cells);
+                nextBuffer = allocator.ints(cells);
+                massBuffer = !singlePrecision ? allocator.doubles(cells) : null;
+                massCenterXBuffer = !singlePrecision ? allocator.doubles(cells) : null;
+                massCenterYBuffer = !singlePrecision ? allocator.doubles(cells) : null;
+                massCenterZBuffer = !singlePrecision ? allocator.doubles(cells) : null;
+                sizeBuffer = !singlePrecision ? allocator.doubles(cells) : null;
+                mass32Buffer = singlePrecision ? allocator.floats(cells) : null;
+                massCenterX32Buffer = singlePrecision ? allocator.floats(cells) : null;
+                massCenterY32Buffer = singlePrecision ? allocator.floats(cells) : null;
+                massCenterZ32Buffer = singlePrecision ? allocator.floats(cells) : null;
+                size32Buffer = singlePrecision ? allocator.floats(cells) : null;
+            } finally {
+                allocator.close();
+            }
+        } else {
+            orderBuffer = null;
+            bufferBuffer = null;
+            childOfBuffer = null;
+            startBuffer = null;
+            endBuffer = null;
+            nextBuffer = null;
+            massBuffer = null;
+            massCenterXBuffer = null;
+            massCenterYBuffer = null;
+            massCenterZBuffer = null;
+            sizeBuffer = null;
+            mass32Buffer = null;
+            massCenterX32Buffer = null;
+            massCenterY32Buffer = null;
+            massCenterZ32Buffer = null;
+            size32Buffer = null;
+        }
+        resetOrder();
+    }
+
+    private int start(int c) {
+        return start != null ? start[c] : startBuffer.get(c);
+    }
+
+    private int end(int c) {
+        return end != null ? end[c] : endBuffer.get(c);
+    }
+
+    private int next(int c) {
+        return next != null ? next[c] : nextBuffer.get(c);
+    }
+
+    private int order(int i) {
+        return order != null ? order[i] : orderBuffer.get(i);
+    }
+
+    private void setCell(int c, int from, int to) {
+        if (start != null) {
+            start[c] = from;
+            end[c] = to;
+        } else {
+            startBuffer.put(c, from);
+            endBuffer.put(c, to);
+        }
+    }
+
+    private void setNext(int c, int value) {
+        if (next != null) {
+            next[c] = value;
+        } else {
+            nextBuffer.put(c, value);
+        }
+    }
+
+    private void set(int c, double m, double cx, double cy, double cz, double s) {
+        if (offHeap) {
+            setBuffers(c, m, cx, cy, cz, s);
+        } else if (singlePrecision) {
+            mass32[c] = (float) m;
+            massCenterX32[c] = (float) cx;
+            massCenterY32[c] = (float) cy;
+            massCenterZ32[c] = (float) cz;
+            // Rounded up, so that the cell still holds its nodes
+            size32[c] = Math.nextUp((float) s);
+        } else {
+            mass[c] = m;
+            massCenterX[c] = cx;
+            massCenterY[c] = cy;
+            massCenterZ[c] = cz;
+            size[c] = s;
+        }
+    }
+
+    private void setBuffers(int c, double m, double cx, double cy, double cz, double s) {
+        if (singlePrecision) {
+            mass32Buffer.put(c, (float) m);
+            massCenterX32Buffer.put(c, (float) cx);
+            massCenterY32Buffer.put(c, (float) cy);
+            massCenterZ32Buffer.put(c, (float) cz);
+            size32Buffer.put(c, Math.nextUp((float) s));
+        } else {
+            massBuffer.put(c, m);
+            massCenterXBuffer.put(c, cx);
+            massCenterYBuffer.put(c, cy);
+            massCenterZBuffer.put(c, cz);
+            sizeBuffer.put(c, s);
+        }
+    }
+
+    private double mass(int c) {
+        if (offHeap) {
+            return singlePrecision ? mass32Buffer.get(c) : massBuffer.get(c);
+        }
+        return singlePrecision ? mass32[c] : mass[c];
+    }
+
+    private double massCenterX(int c) {
+        if (offHeap) {
+            return singlePrecision ? massCenterX32Buffer.get(c) : massCenterXBuffer.get(c);
+        }
+        return singlePrecision ? massCenterX32[c] : massCenterX[c];
+    }
+
+    private double massCenterY(int c) {
+        if (offHeap) {
+            return singlePrecision ? massCenterY32Buffer.get(c) : massCenterYBuffer.get(c);
+        }
+        return singlePrecision ? massCenterY32[c] : massCenterY[c];
+    }
+
+    private double massCenterZ(int c) {
+        if (offHeap) {
+            return singlePrecision ? massCenterZ32Buffer.get(c) : massCenterZBuffer.get(c);
+        }
+        return singlePrecision ? massCenterZ32[c] : massCenterZ[c];
+    }
+
+    private double size(int c) {
+        if (offHeap) {
+            return singlePrecision ? size32Buffer.get(c) : sizeBuffer.get(c);
+        }
+        return singlePrecision ? size32[c] : size[c];
+    }
+
+    /**
+     * Resets the node permutation to ordinal order, e.g. after nodes were renumbered. The tree must then be rebuilt.
+     */
+    public void resetOrder() {
+        for (int i = 0; i < a.size; i++) {
+            if (order != null) {
+                order[i] = i;
+            } else {
+                orderBuffer.put(i, i);
+            }
+        }
+    }
+
+    /**
+     * Copies the node permutation to dest. A build partitions the permutation left by the previous one, so the
+     * permutation decides the summation order of the next build, and is saved in a {@link Checkpoint}.
+     */
+    void copyOrder(int[] dest) {
+        if (order != null) {
+            System.arraycopy(order, 0, dest, 0, order.length);
+        } else {
+            for (int i = 0; i < a.size; i++) {
+                dest[i] = orderBuffer.get(i);
+            }
+        }
+    }
+
+    /**
+     * Restores a node permutation copied by {@link #copyOrder(int[])}. The tree must then be rebuilt.
+     */
+    void setOrder(int[] src) {
+        if (order != null) {
+            System.arraycopy(src, 0, order, 0, order.length);
+        } else {
+            for (int i = 0; i < a.size; i++) {
+                orderBuffer.put(i, src[i]);
+            }
+        }
+    }
+
+    /**
+     * Makes the tree a single root cell (cell 0) over all nodes, with up to date mass and geometry.
+     */
+    public void reset() {
+        setCell(0, 0, a.size);
+        setNext(0, Math.max(1, 2 * a.size - 1));
+        updateMassAndGeometry(0);
+    }
+
+    void updateMassAndGeometry(int c) {
+        int from = start(c);
+        int to = end(c);
+        if (to - from == 1) {
+            int n = order(from);
+            set(c, a.mass(n), a.x(n), a.y(n), a.is3d ? a.z(n) : 0, 0);
+        } else if (to - from > 1) {
+            // Compute Mass
+            double m = 0;
+            double massSumX = 0;
+            double massSumY = 0;
+            double massSumZ = 0;
+            for (int i = from; i < to; i++) {
+                int n = order(i);
+                double nMass = a.mass(n);
+                m += nMass;
+                massSumX += a.x(n) * nMass;
+                massSumY += a.y(n) * nMass;
+                massSumZ += a.is3d ? a.z(n) * nMass : 0;
+            }
+            double cx = massSumX / m;
+            double cy = massSumY / m;
+            double cz = a.is3d ? massSumZ / m : 0;
+
+            // Compute size
+            double s = Double.MIN_VALUE;
+            for (int i = from; i < to; i++) {
+                int n = order(i);
+                double z = a.is3d ? (a.z(n) - cz) * (a.z(n) - cz) : 0;
+                double distance = Math.sqrt((a.x(n) - cx) * (a.x(n) - cx) + (a.y(n) - cy) * (a.y(n) - cy) + z);
+                s = Math.max(s, 2 * distance);
+            }
+            set(c, m, cx, cy, cz, s);
+        }
+    }
+
+    /**
+     * Recomputes mass, mass center and size of cell c bottom-up from its children, keeping the subdivision, after
+     * refitting the children first if recursive. Leaves are refit from their node. The size is the smallest sphere
+     * around the new mass center holding the children's spheres, an upper bound of the size computed from the nodes,
+     * so forces stay as accurate as with a rebuild of the same subdivision.
+     */
+    public void refit(int c, boolean recursive) {
+        if (end(c) - start(c) < 2) {
+            updateMassAndGeometry(c);
+            return;
+        }
+        double m = 0;
+        double massSumX = 0;
+        double massSumY = 0;
+        double massSumZ = 0;
+        for (int child = c + 1; child != next(c); child = next(child)) {
+            if (recursive) {
+                refit(child, true);
+            }
+            double childMass = mass(child);
+            m += childMass;
+            massSumX += massCenterX(child) * childMass;
+            massSumY += massCenterY(child) * childMass;
+            massSumZ += massCenterZ(child) * childMass;
+        }
+        double cx = massSumX / m;
+        double cy = massSumY / m;
+        double cz = a.is3d ? massSumZ / m : 0;
+        double s = Double.MIN_VALUE;
+        for (int child = c + 1; child != next(c); child = next(child)) {
+            double xDist = massCenterX(child) - cx;
+            double yDist = massCenterY(child) - cy;
+            double zDist = massCenterZ(child) - cz;
+            s = Math.max(s, 2 * Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) + size(child));
+        }
+        set(c, m, cx, cy, cz, s);
+    }
+
+    /**
+     * Splits cell c into child cells, and the children too if recursive.
+     */
+    public void buildSubRegions(int c, boolean recursive) {
+        int from = start(c);
+        int to = end(c);
+        if (to - from < 2) {
+            return;
+        }
+        // Count nodes per quadrant (octant in 3d), then partition the nodes of c by quadrant
+        int childCount = a.is3d ? 8 : 4;
+        int[] counts = new int[childCount];
+        double cx = massCenterX(c);
+        double cy = massCenterY(c);
+        double cz = massCenterZ(c);
+        for (int i = from; i < to; i++) {
+            int n = order(i);
+            int child = (a.x(n) < cx ? 0 : 1) | (a.y(n) < cy ? 0 : 2);
+            if (a.is3d) {
+                child |= a.z(n) < cz ? 0 : 4;
+            }
+            if (childOf != null) {
+                childOf[i] = (byte) child;
+            } else {
+                childOfBuffer.put(i, (byte) child);
+            }
+            counts[child]++;
+        }
+
+        int cell = c + 1;
+        boolean single = false;
+        for (int count : counts) {
+            single |= count == to - from;
+        }
+        if (single) {
+            // All nodes in the same quadrant: one child per node
+            for (int i = from; i < to; i++) {
+                setCell(cell, i, i + 1);
+                setNext(cell, i + 1 < to ? cell + 1 : next(c));
+                updateMassAndGeometry(cell);
+                cell++;
+            }
+            return;
+        }
+
+        int[] offsets = new int[childCount];
+        int offset = from;
+        for (int child = 0; child < childCount; child++) {
+            offsets[child] = offset;
+            offset += counts[child];
+        }
+        if (order != null) {
+            for (int i = from; i < to; i++) {
+                buffer[offsets[childOf[i]]++] = order[i];
+            }
+            System.arraycopy(buffer, from, order, from, to - from);
+        } else {
+            for (int i = from; i < to; i++) {
+                bufferBuffer.put(offsets[childOfBuffer.get(i)]++, orderBuffer.get(i));
+            }
+            for (int i = from; i < to; i++) {
+                orderBuffer.put(i, bufferBuffer.get(i));
+            }
+        }
+
+        int last = -1;
+        offset = from;
+        for (int child = 0; child < childCount; child++) {
+            if (counts[child] > 0) {
+                if (last != -1) {
+                    setNext(last, cell);
+                }
+                setCell(cell, offset, offset + counts[child]);
+                updateMassAndGeometry(cell);
+                offset += counts[child];
+                last = cell;
+                cell += 2 * counts[child] - 1;
+            }
+        }
+        setNext(last, next(c));
+
+        if (recursive) {
+            for (int child = c + 1; child != next(c); child = next(child)) {
+                buildSubRegions(child, true);
+            }
+        }
+    }
+
+    /**
+     * Walks the whole tree, in O(cells).
+     *
+     * @return number of cells, and depth of the tree, 1 for a single cell
+     */
+    public int[] getShape() {
+        if (a.size == 0) {
+            return new int[]{0, 0};
+        }
+        int count = 0;
+        int depth = 0;
+        // next[] of the cells above c
+        int[] ancestors = new int[64];
+        int top = 0;
+        int c = 0;
+        int last = next(0);
+        while (c != last) {
+            while (top > 0 && ancestors[top - 1] == c) {
+                top--;
+            }
+            count++;
+            depth = Math.max(depth, top + 1);
+            if (end(c) - start(c) < 2) {
+                c = next(c);
+            } else {
+                if (top == ancestors.length) {
+                    ancestors = Arrays.copyOf(ancestors, 2 * top);
+                }
+                ancestors[top++] = next(c);
+                c++;
+            }
+        }
+        return new int[]{count, depth};
+    }
+
+    /**
+     * Adds the children of cell c to the given list, nothing if c is a leaf.
+     */
+    public void getSubregions(int c, List<Integer> children) {
+        if (end(c) - start(c) > 1) {
+            for (int child = c + 1; child != next(c); child = next(child)) {
+                children.add(child);
+            }
+        }
+    }
+
+    /**
+     * Adds the repulsion of the tree to node n, force by force, or in single precision summed in doubles and added
+     * once.
+     *
+     * @return number of force evaluations, a measure of the cost for n
+     */
+    public int applyForce(int n, ForceFactory.RepulsionForce Force, double theta) {
+        if (a.size == 0) {
+            return 0;
+        }
+        if (offHeap) {
+            return singlePrecision ? applyForceBuffers32(n, Force, theta) : applyForceBuffers(n, Force, theta);
+        }
+        return singlePrecision ? applyForce32(n, Force, theta) : applyForce64(n, Force, theta);
+    }
+
+    private int applyForce64(int n, ForceFactory.RepulsionForce Force, double theta) {
+        int count = 0;
+        int c = 0;
+        int last = next[0];
+        while (c != last) {
+            if (end[c] - start[c] < 2) {
+                Force.apply_BH(a, n, order[start[c]]);
+                count++;
+                c = next[c];
+            } else {
+                double xDist = a.x(n) - massCenterX[c];
+                double yDist = a.y(n) - massCenterY[c];
+                double zDist = a.is3d ? a.z(n) - massCenterZ[c] : 0;
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                if (distance * theta > size[c]) {
+                    Force.apply(a, n, mass[c], massCenterX[c], massCenterY[c], massCenterZ[c]);
+                    count++;
+                    c = next[c];
+                } else {
+                    c++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Same as applyForce64, on float aggregates. The forces of n are summed in doubles and added once, as adding each
+    // to the float forces of n would round it, and chain the additions through memory.
+    private int applyForce32(int n, ForceFactory.RepulsionForce Force, double theta) {
+        int count = 0;
+        double ddx = 0;
+        double ddy = 0;
+        double ddz = 0;
+        int c = 0;
+        int last = next[0];
+        while (c != last) {
+            if (end[c] - start[c] < 2) {
+                int o = order[start[c]];
+                double xDist = a.x(n) - a.x(o);
+                double yDist = a.y(n) - a.y(o);
+                double zDist = a.is3d ? a.z(n) - a.z(o) : 0;
+                double factor = Force.factor_BH(a, n, o, xDist, yDist, zDist);
+                ddx += xDist * factor;
+                ddy += yDist * factor;
+                ddz += zDist * factor;
+                count++;
+                c = next[c];
+            } else {
+                double xDist = a.x(n) - massCenterX32[c];
+                double yDist = a.y(n) - massCenterY32[c];
+                double zDist = a.is3d ? a.z(n) - massCenterZ32[c] : 0;
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                if (distance * theta > size32[c]) {
+                    double factor = Force.factor(a, n, mass32[c], xDist, yDist, zDist);
+                    ddx += xDist * factor;
+                    ddy += yDist * factor;
+                    ddz += zDist * factor;
+                    count++;
+                    c = next[c];
+                } else {
+                    c++;
+                }
+            }
+        }
+        add(n, ddx, ddy, ddz);
+        return count;
+    }
+
+    private void add(int n, double ddx, double ddy, double ddz) {
+        a.addDx(n, ddx);
+        a.addDy(n, ddy);
+        if (a.is3d) {
+            a.addDz(n, ddz);
+        }
+    }
+
+    // Same as applyForce64, on the off heap tree in either precision
+    private int applyForceBuffers(int n, ForceFactory.RepulsionForce Force, double theta) {
+        int count = 0;
+        int c = 0;
+        int last = next(0);
+        while (c != last) {
+            if (end(c) - start(c) < 2) {
+                Force.apply_BH(a, n, order(start(c)));
+                count++;
+                c = next(c);
+            } else {
+                double xDist = a.x(n) - massCenterX(c);
+                double yDist = a.y(n) - massCenterY(c);
+                double zDist = a.is3d ? a.z(n) - massCenterZ(c) : 0;
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                if (distance * theta > size(c)) {
+                    Force.apply(a, n, mass(c), massCenterX(c), massCenterY(c), massCenterZ(c));
+                    count++;
+                    c = next(c);
+                } else {
+                    c++;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Same as applyForce32, on the off heap tree
+    private int applyForceBuffers32(int n, ForceFactory.RepulsionForce Force, double theta) {
+        int count = 0;
+        double ddx = 0;
+        double ddy = 0;
+        double ddz = 0;
+        int c = 0;
+        int last = next(0);
+        while (c != last) {
+            if (end(c) - start(c) < 2) {
+                int o = order(start(c));
+                double xDist = a.x(n) - a.x(o);
+                double yDist = a.y(n) - a.y(o);
+                double zDist = a.is3d ? a.z(n) - a.z(o) : 0;
+                double factor = Force.factor_BH(a, n, o, xDist, yDist, zDist);
+                ddx += xDist * factor;
+                ddy += yDist * factor;
+                ddz += zDist * factor;
+                count++;
+                c = next(c);
+            } else {
+                double xDist = a.x(n) - massCenterX(c);
+                double yDist = a.y(n) - massCenterY(c);
+                double zDist = a.is3d ? a.z(n) - massCenterZ(c) : 0;
+                double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+                if (distance * theta > size(c)) {
+                    double factor = Force.factor(a, n, mass(c), xDist, yDist, zDist);
+                    ddx += xDist * factor;
+                    ddy += yDist * factor;
+                    ddz += zDist * factor;
+                    count++;
+                    c = next(c);
+                } else {
+                    c++;
+                }
+            }
+        }
+        add(n, ddx, ddy, ddz);
+        return count;
+    }
+}
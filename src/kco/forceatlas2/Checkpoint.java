@@ -0,0 +1,151 @@
+package kco.forceatlas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * State of a layout between two iterations, as copied by {@link ForceAtlas2#saveState(Checkpoint)}, so that a run
+ * restored by {@link ForceAtlas2#restoreState(Checkpoint)} continues with the same iterations as the run that saved
+ * it: step count, speed and speed efficiency, positions and forces of the last iteration (the old forces of the
+ * next one), in the node order of the engine, and the Barnes Hut node permutation of the array engine, which decides
+ * the summation order of the next tree build. The layout draws no random numbers, so there is no generator state.
+ * This only holds for {@link ForceAtlas2#isReproducible() reproducible} layouts: with synchronized attraction on
+ * several threads, forces are summed in the order threads take the locks, so that even uninterrupted runs differ.
+ * <p>
+ * Arrays are reused when a checkpoint of the same graph is saved again. The file holds, little endian:
+ * <pre>
+ * int magic, int version, int nodeCount, int dimensions, int stepCount, int flags, double speed,
+ * double speedEfficiency, padding to 64 bytes
+ * int[nodeCount] loaded ordinal of each node, float[nodeCount] x, y, z if 3d, double[nodeCount] dx, dy, dz if 3d,
+ * int[nodeCount] Barnes Hut permutation if any
+ * </pre>
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x46413253;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int TREE = 1;
+    private static final int BUFFER = 1 << 20;
+
+    int nodeCount;
+    boolean is3d;
+    int stepCount;
+    double speed;
+    double speedEfficiency;
+    int[] order;
+    float[] x;
+    float[] y;
+    float[] z;
+    double[] dx;
+    double[] dy;
+    double[] dz;
+    int[] treeOrder;
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public boolean is3d() {
+        return is3d;
+    }
+
+    /**
+     * @return number of iterations done when the checkpoint was saved
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Allocates arrays for nodeCount nodes, unless already allocated for them.
+     */
+    void ensure(int nodeCount, boolean is3d, boolean tree) {
+        if (order == null || this.nodeCount != nodeCount || this.is3d != is3d) {
+            this.nodeCount = nodeCount;
+            this.is3d = is3d;
+            order = new int[nodeCount];
+            x = new float[nodeCount];
+            y = new float[nodeCount];
+            z = is3d ? new float[nodeCount] : null;
+            dx = new double[nodeCount];
+            dy = new double[nodeCount];
+            dz = is3d ? new double[nodeCount] : null;
+            treeOrder = null;
+        }
+        if (!tree) {
+            treeOrder = null;
+        } else if (treeOrder == null) {
+            treeOrder = new int[nodeCount];
+        }
+    }
+
+    public static Checkpoint read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = GraphCache.header(channel);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a layout checkpoint");
+            }
+            Checkpoint c = new Checkpoint();
+            c.ensure(header.getInt(8), header.getInt(12) == 3, (header.getInt(20) & TREE) != 0);
+            c.stepCount = header.getInt(16);
+            c.speed = header.getDouble(24);
+            c.speedEfficiency = header.getDouble(32);
+            long position = HEADER;
+            position = GraphCache.read(channel, position, c.order);
+            position = GraphCache.read(channel, position, c.x);
+            position = GraphCache.read(channel, position, c.y);
+            if (c.is3d) {
+                position = GraphCache.read(channel, position, c.z);
+            }
+            position = GraphCache.read(channel, position, c.dx);
+            position = GraphCache.read(channel, position, c.dy);
+            if (c.is3d) {
+                position = GraphCache.read(channel, position, c.dz);
+            }
+            if (c.treeOrder != null) {
+                GraphCache.read(channel, position, c.treeOrder);
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file renamed to file once complete, so that an interrupted write leaves
+     * the previous checkpoint.
+     */
+    public void write(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(nodeCount).putInt(is3d ? 3 : 2).putInt(stepCount)
+                    .putInt(treeOrder != null ? TREE : 0).putDouble(speed).putDouble(speedEfficiency);
+            while (buffer.position() < HEADER) {
+                buffer.put((byte) 0);
+            }
+            GraphCache.write(channel, buffer, order, nodeCount);
+            GraphCache.write(channel, buffer, x);
+            GraphCache.write(channel, buffer, y);
+            if (is3d) {
+                GraphCache.write(channel, buffer, z);
+            }
+            GraphCache.write(channel, buffer, dx);
+            GraphCache.write(channel, buffer, dy);
+            if (is3d) {
+                GraphCache.write(channel, buffer, dz);
+            }
+            if (treeOrder != null) {
+                GraphCache.write(channel, buffer, treeOrder, nodeCount);
+            }
+            GraphCache.flush(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,80 @@
+package kco.forceatlas2;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Writes checkpoints of a layout in the background. {@link #checkpoint()} copies the state of the layout into a
+ * reused {@link Checkpoint} between two iterations, then a writer thread writes it while the layout goes on, so that
+ * iterations only wait for the copy. A checkpoint due while the previous one is still being written is skipped.
+ */
+public class CheckpointWriter {
+
+    private final ForceAtlas2 layout;
+    private final File file;
+    private final Checkpoint checkpoint = new Checkpoint();
+    private final ExecutorService writer;
+    private Future<Void> pending;
+
+    public CheckpointWriter(ForceAtlas2 layout, File file) {
+        this.layout = layout;
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "checkpoint writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Saves the state of the layout and starts writing it, unless the previous checkpoint is still being written.
+     *
+     * @return whether a checkpoint was started
+     */
+    public synchronized boolean checkpoint() {
+        if (pending != null && !pending.isDone()) {
+            return false;
+        }
+        report();
+        layout.saveState(checkpoint);
+        pending = writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                checkpoint.write(file);
+                return null;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Waits for the checkpoint being written, if any, and stops the writer thread.
+     */
+    public synchronized void close() {
+        report();
+        writer.shutdown();
+    }
+
+    // Waits for the last write and prints its error, if any
+    private void report() {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException x) {
+            x.getCause().printStackTrace();
+        }
+        pending = null;
+    }
+}
@@ -0,0 +1,367 @@
+package kco.forceatlas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads initial coordinates for the nodes of an {@link IdDictionary}, in parallel. Text files have a header line naming
+ * the id, x, y and optional z columns, separated by tabs or commas. They are memory-mapped and split into line-aligned
+ * chunks, whose numbers are parsed from the bytes and whose IDs are looked up in the dictionary by each chunk.
+ * <p>
+ * Binary files hold the same data, little endian:
+ * <pre>
+ * int magic, int version, int nodeCount, int dimensions, long idBytes, padding to 64 bytes
+ * int[nodeCount + 1] ID offsets, byte[idBytes] IDs, padding to a multiple of 4 bytes,
+ * float[nodeCount * dimensions] coordinates, node by node
+ * </pre>
+ * NumPy .npy files of n by 2 or 3 arrays are read too, with the IDs of the rows one per line in a file of the same
+ * name ending with .ids.txt instead of .npy, as written by {@link Npy} and {@link TxtWriter#writeIds}. Without an ID
+ * file, row i holds the coordinates of node i.
+ */
+public class CoordsFile {
+
+    private static final int MAGIC = 0x46413243;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int BUFFER = 1 << 20;
+    private static final long MAX_CHUNK = 1L << 30;
+
+    private CoordsFile() {
+    }
+
+    /**
+     * Reads the coordinates of the nodes of ids from file, printing the IDs of file missing from ids.
+     *
+     * @return x, y and z of node i at 3i to 3i + 2, NaN for nodes absent from the file, and for z of files without z
+     */
+    public static float[] read(File file, IdDictionary ids, int threadCount) throws IOException {
+        float[] coords = new float[3 * ids.size()];
+        Arrays.fill(coords, Float.NaN);
+        ids.ensureTable();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = GraphCache.header(channel);
+            if (channel.size() >= HEADER && header.getInt(0) == MAGIC) {
+                readBinary(file, channel, ids, coords, threadCount);
+            } else if (header.get(0) == (byte) 0x93 && header.get(1) == 'N' && header.get(2) == 'U') {
+                readNpy(file, channel, ids, coords, threadCount);
+            } else {
+                readText(file, channel, ids, coords, threadCount);
+            }
+        }
+        return coords;
+    }
+
+    private static void readText(File file, FileChannel channel, IdDictionary ids, float[] coords, int threadCount) throws IOException {
+        long size = channel.size();
+        MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1 << 16));
+        int headerEnd = 0;
+        while (headerEnd < b.limit() && b.get(headerEnd) != '\n') {
+            headerEnd++;
+        }
+        byte[] headerBytes = new byte[headerEnd];
+        b.get(headerBytes);
+        String header = new String(headerBytes, StandardCharsets.UTF_8).replace("\r", "");
+        byte separator = (byte) (header.indexOf('\t') != -1 || header.indexOf(',') == -1 ? '\t' : ',');
+        List<String> columns = Arrays.asList(header.split(separator == '\t' ? "\t" : ","));
+        int[] indexes = {columns.indexOf("id"), columns.indexOf("x"), columns.indexOf("y"), columns.indexOf("z")};
+        if (indexes[0] == -1 || indexes[1] == -1 || indexes[2] == -1) {
+            throw new IOException("Missing id, x or y column in " + file);
+        }
+
+        long dataStart = Math.min(size, headerEnd + 1);
+        int chunkCount = (int) Math.max(threadCount, (size - dataStart + MAX_CHUNK - 1) / MAX_CHUNK);
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Chunk>> futures = new ArrayList<>();
+            for (int c = 0; c < chunkCount; c++) {
+                long start = dataStart + (size - dataStart) * c / chunkCount;
+                long end = dataStart + (size - dataStart) * (c + 1) / chunkCount;
+                futures.add(pool.submit(new Chunk(channel, size, start, end, separator, indexes, ids, coords)));
+            }
+            for (Future<Chunk> f : futures) {
+                for (String id : get(f).missing) {
+                    System.err.println(id + " not found");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void readBinary(File file, FileChannel channel, final IdDictionary ids, final float[] coords, int threadCount) throws IOException {
+        ByteBuffer header = GraphCache.header(channel);
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + header.getInt(4) + " of " + file);
+        }
+        final int nodeCount = header.getInt(8);
+        final int dimensions = header.getInt(12);
+        long idBytes = header.getLong(16);
+        final int[] idOffsets = new int[nodeCount + 1];
+        long position = GraphCache.read(channel, HEADER, idOffsets);
+        final byte[] bytes = new byte[(int) idBytes];
+        position = GraphCache.read(channel, position, bytes);
+        final float[] values = new float[nodeCount * dimensions];
+        GraphCache.read(channel, (position + 3) & ~3L, values);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 1; t <= threadCount; t++) {
+                final int from = (int) Math.floor((long) nodeCount * (t - 1) / threadCount);
+                final int to = (int) Math.floor((long) nodeCount * t / threadCount);
+                futures.add(pool.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        List<String> missing = new ArrayList<>();
+                        for (int i = from; i < to; i++) {
+                            int n = ids.find(bytes, idOffsets[i], idOffsets[i + 1] - idOffsets[i]);
+                            if (n == -1) {
+                                missing.add(Numbers.toString(bytes, idOffsets[i], idOffsets[i + 1]));
+                                continue;
+                            }
+                            for (int d = 0; d < dimensions; d++) {
+                                coords[3 * n + d] = values[dimensions * i + d];
+                            }
+                        }
+                        return missing;
+                    }
+                }));
+            }
+            for (Future<List<String>> f : futures) {
+                for (String id : get(f)) {
+                    System.err.println(id + " not found");
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void readNpy(File file, FileChannel channel, IdDictionary ids, float[] coords, int threadCount) throws IOException {
+        Npy npy = Npy.readHeader(channel);
+        long[] shape = npy.getShape();
+        if (shape.length != 2 || shape[1] != 2 && shape[1] != 3) {
+            throw new IOException("Expected an n by 2 or 3 array in " + file);
+        }
+        int rows = (int) shape[0];
+        int dimensions = (int) shape[1];
+        float[] values = npy.readFloats(channel);
+
+        String name = file.getName();
+        File idFile = new File(file.getParentFile(), (name.toLowerCase().endsWith(".npy") ? name.substring(0, name.length() - 4) : name) + ".ids.txt");
+        int[] nodes;
+        if (idFile.isFile()) {
+            nodes = readIds(idFile, ids, threadCount);
+            if (nodes.length != rows) {
+                throw new IOException(nodes.length + " IDs in " + idFile + " for " + rows + " rows in " + file);
+            }
+        } else {
+            nodes = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                nodes[i] = i < ids.size() ? i : -1;
+            }
+        }
+        for (int i = 0; i < rows; i++) {
+            if (nodes[i] == -1) {
+                continue;
+            }
+            for (int d = 0; d < dimensions; d++) {
+                // Fortran order stores the x column, then the y column
+                coords[3 * nodes[i] + d] = values[npy.isFortranOrder() ? d * rows + i : i * dimensions + d];
+            }
+        }
+    }
+
+    // Ordinals in ids of the lines of file, -1 for missing IDs
+    private static int[] readIds(File file, IdDictionary ids, int threadCount) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunkCount = (int) Math.max(threadCount, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+            ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+            try {
+                List<Future<IdChunk>> futures = new ArrayList<>();
+                for (int c = 0; c < chunkCount; c++) {
+                    futures.add(pool.submit(new IdChunk(channel, size, size * c / chunkCount, size * (c + 1) / chunkCount, ids)));
+                }
+                int[] nodes = new int[0];
+                for (Future<IdChunk> f : futures) {
+                    IdChunk chunk = get(f);
+                    for (String id : chunk.missing) {
+                        System.err.println(id + " not found");
+                    }
+                    int count = nodes.length;
+                    nodes = Arrays.copyOf(nodes, count + chunk.size);
+                    System.arraycopy(chunk.nodes, 0, nodes, count, chunk.size);
+                }
+                return nodes;
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Writes a binary coordinates file, to a temporary file renamed to file once complete.
+     *
+     * @param coords x, y and z of node i at 3i to 3i + 2
+     */
+    public static void writeBinary(File file, IdDictionary ids, float[] coords, int dimensions) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(ids.size()).putInt(dimensions).putLong(ids.byteCount);
+            while (buffer.position() < HEADER) {
+                buffer.put((byte) 0);
+            }
+            GraphCache.write(channel, buffer, ids.offsets, ids.size + 1);
+            for (int off = 0; off < ids.byteCount; off += BUFFER) {
+                int count = Math.min(BUFFER, ids.byteCount - off);
+                if (buffer.remaining() < count) {
+                    GraphCache.flush(channel, buffer);
+                }
+                buffer.put(ids.bytes, off, count);
+            }
+            GraphCache.flush(channel, buffer);
+            buffer.put(new byte[(int) (-channel.position() & 3)]);
+            float[] values = new float[ids.size() * dimensions];
+            for (int i = 0; i < ids.size(); i++) {
+                for (int d = 0; d < dimensions; d++) {
+                    values[dimensions * i + d] = coords[3 * i + d];
+                }
+            }
+            GraphCache.write(channel, buffer, values);
+            GraphCache.flush(channel, buffer);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            throw new IOException(x);
+        } catch (ExecutionException x) {
+            if (x.getCause() instanceof IOException) {
+                throw (IOException) x.getCause();
+            }
+            throw new IOException(x.getCause());
+        }
+    }
+
+    /**
+     * Ordinals of the IDs of the lines of a chunk, one ID per line.
+     */
+    private static class IdChunk extends LineChunk implements Callable<IdChunk> {
+
+        private final IdDictionary ids;
+        int[] nodes = new int[1024];
+        int size;
+        final List<String> missing = new ArrayList<>();
+
+        IdChunk(FileChannel channel, long fileSize, long start, long end, IdDictionary ids) {
+            super(channel, fileSize, start, end);
+            this.ids = ids;
+        }
+
+        @Override
+        public IdChunk call() throws IOException {
+            parse();
+            return this;
+        }
+
+        @Override
+        void line(int pos, int lineEnd, boolean first) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * size);
+            }
+            int n = ids.find(block, pos, lineEnd - pos);
+            if (n == -1) {
+                missing.add(Numbers.toString(block, pos, lineEnd));
+            }
+            nodes[size++] = n;
+        }
+    }
+
+    /**
+     * Coordinates of the lines of a chunk, written to the nodes of their IDs.
+     */
+    private static class Chunk extends LineChunk implements Callable<Chunk> {
+
+        private final byte separator;
+        // Columns of id, x, y and z, -1 for no z
+        private final int[] indexes;
+        private final int columnCount;
+        private final IdDictionary ids;
+        private final float[] coords;
+        // Start and end of each column up to the last one read
+        private final int[] tokens;
+        final List<String> missing = new ArrayList<>();
+
+        Chunk(FileChannel channel, long fileSize, long start, long end, byte separator, int[] indexes, IdDictionary ids, float[] coords) {
+            super(channel, fileSize, start, end);
+            this.separator = separator;
+            this.indexes = indexes;
+            this.columnCount = Math.max(Math.max(indexes[0], indexes[1]), Math.max(indexes[2], indexes[3])) + 1;
+            this.ids = ids;
+            this.coords = coords;
+            this.tokens = new int[2 * columnCount];
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            parse();
+            return this;
+        }
+
+        @Override
+        void line(int pos, int lineEnd, boolean first) throws IOException {
+            if (pos == lineEnd) {
+                return;
+            }
+            int count = 0;
+            for (int i = pos; count < columnCount && i <= lineEnd; i++) {
+                tokens[2 * count] = i;
+                while (i < lineEnd && block[i] != separator) {
+                    i++;
+                }
+                tokens[2 * count + 1] = i;
+                count++;
+            }
+            if (count < columnCount && (count <= indexes[0] || count <= indexes[1] || count <= indexes[2])) {
+                throw new IOException("Missing columns: " + Numbers.toString(block, pos, lineEnd));
+            }
+            int id = indexes[0];
+            int n = ids.find(block, tokens[2 * id], tokens[2 * id + 1] - tokens[2 * id]);
+            if (n == -1) {
+                missing.add(Numbers.toString(block, tokens[2 * id], tokens[2 * id + 1]));
+                return;
+            }
+            try {
+                for (int d = 0; d < 3; d++) {
+                    int c = indexes[d + 1];
+                    if (c != -1 && c < count) {
+                        coords[3 * n + d] = Numbers.parseFloat(block, tokens[2 * c], tokens[2 * c + 1]);
+                    }
+                }
+            } catch (NumberFormatException x) {
+                throw new IOException("Invalid coordinate: " + Numbers.toString(block, pos, lineEnd));
+            }
+        }
+    }
+}
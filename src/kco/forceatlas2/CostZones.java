@@ -0,0 +1,74 @@
+package kco.forceatlas2;
+
+/**
+ * Per-node cost of the last repulsion pass, counted in force evaluations, used to split nodes into thread ranges of
+ * equal total cost (cost zones) rather than equal node count. With Barnes Hut, nodes in dense areas open many more
+ * cells than isolated nodes, and positions change little from one iteration to the next, so the last costs are a
+ * good estimate of the next ones.
+ */
+public class CostZones {
+
+    private int[] cost;
+    // Costs in the former order during a permutation, allocated by the first one
+    private int[] permuted;
+
+    public CostZones(int size) {
+        cost = new int[size];
+    }
+
+    public int size() {
+        return cost.length;
+    }
+
+    /**
+     * Records the cost of node n, called by the thread owning n.
+     */
+    void set(int n, int c) {
+        cost[n] = c;
+    }
+
+    /**
+     * Splits nodes into ranges of about equal cost: range t is bounds[t] to bounds[t + 1]. Ranges have equal node
+     * counts, as thread ranges elsewhere, until costs are recorded.
+     */
+    public int[] split(int parts) {
+        int n = cost.length;
+        int[] bounds = new int[parts + 1];
+        long total = 0;
+        for (int c : cost) {
+            total += c;
+        }
+        if (total == 0) {
+            for (int t = 0; t <= parts; t++) {
+                bounds[t] = (int) ((long) n * t / parts);
+            }
+            return bounds;
+        }
+        long sum = 0;
+        int i = 0;
+        for (int t = 1; t < parts; t++) {
+            long target = total * t / parts;
+            while (i < n && sum + cost[i] <= target) {
+                sum += cost[i++];
+            }
+            bounds[t] = i;
+        }
+        bounds[parts] = n;
+        return bounds;
+    }
+
+    /**
+     * Follows a renumbering of nodes, node i becoming the former node order[i].
+     */
+    public void permute(int[] order) {
+        if (permuted == null) {
+            permuted = new int[cost.length];
+        }
+        int[] former = cost;
+        for (int i = 0; i < order.length; i++) {
+            permuted[i] = former[order[i]];
+        }
+        cost = permuted;
+        permuted = former;
+    }
+}
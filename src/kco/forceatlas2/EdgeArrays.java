@@ -0,0 +1,557 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.Interval;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Edges of the array engine in compressed sparse row order: edges are sorted by source ordinal, and the outgoing
+ * edges of node n are {@code offsets[n]} to {@code offsets[n + 1]}. Weights are stored with the edge weight
+ * influence already applied, and are only recomputed when the influence or the time interval changes. They are
+ * doubles as Gephi edge weights, or floats in the weight32 array in single precision, read with {@link #weight(int)}.
+ * <p>
+ * An index of incoming edges can be added with {@link #buildIncoming()}: the edges whose target is node n are then
+ * {@code inEdges[inOffsets[n]]} to {@code inEdges[inOffsets[n + 1] - 1]}.
+ * <p>
+ * Edges built by native loaders have no Gephi edges: their weights are kept in {@code rawWeight}, or are all 1 when
+ * it is null, and are static.
+ * <p>
+ * {@link #offHeap(File)} copies the edges to buffers of an {@link Allocator}, direct or mapped next to the scratch
+ * file of the node arrays. Off heap, the arrays are null and edges are read with the accessors, and the weights, the
+ * incoming edges index and the renumbering scratch are allocated off heap too. Gephi edges stay on heap with the graph.
+ */
+public class EdgeArrays {
+
+    final int size;
+    final int[] offsets;
+    final int[] source;
+    final int[] target;
+    double[] weight;
+    float[] weight32;
+    boolean singlePrecision;
+    int[] inOffsets;
+    int[] inEdges;
+    private final Edge[] edges;
+    final double[] rawWeight;
+    private boolean incomingValid;
+    private int[] renumberOrder;
+    private int[] renumberInts;
+    private int[] renumberNext;
+    private double[] renumberDoubles;
+    private float[] renumberFloats;
+    private Edge[] renumberEdges;
+    final boolean offHeap;
+    private final File file;
+    private final IntBuffer offsetsBuffer;
+    private final IntBuffer sourceBuffer;
+    private final IntBuffer targetBuffer;
+    private final DoubleBuffer rawWeightBuffer;
+    private DoubleBuffer weightBuffer;
+    private FloatBuffer weight32Buffer;
+    private IntBuffer inOffsetsBuffer;
+    private IntBuffer inEdgesBuffer;
+    private IntBuffer inNextBuffer;
+    private IntBuffer renumberOrderBuffer;
+    private IntBuffer renumberNextBuffer;
+    private ByteBuffer renumberBuffer;
+    private boolean weightsValid;
+    private boolean isDynamicWeight;
+    private Interval interval;
+    private double edgeWeightInfluence;
+
+    private EdgeArrays(int nodeCount, int size, Edge[] edges, double[] rawWeight) {
+        this(new int[nodeCount + 1], new int[size], new int[size], edges, rawWeight);
+    }
+
+    private EdgeArrays(int[] offsets, int[] source, int[] target, Edge[] edges, double[] rawWeight) {
+        this.size = target.length;
+        this.offsets = offsets;
+        this.source = source;
+        this.target = target;
+        this.edges = edges;
+        this.rawWeight = rawWeight;
+        offHeap = false;
+        file = null;
+        offsetsBuffer = null;
+        sourceBuffer = null;
+        targetBuffer = null;
+        rawWeightBuffer = null;
+    }
+
+    // Off heap copy of the heap edges e
+    private EdgeArrays(EdgeArrays e, File file) {
+        size = e.size;
+        offsets = null;
+        source = null;
+        target = null;
+        edges = e.edges;
+        rawWeight = null;
+        offHeap = true;
+        this.file = file;
+        Allocator allocator = new Allocator(file, ".edges");
+        try {
+            offsetsBuffer = allocator.ints(e.offsets.length);
+            sourceBuffer = allocator.ints(size);
+            targetBuffer = allocator.ints(size);
+            rawWeightBuffer = e.rawWeight != null ? allocator.doubles(size) : null;
+        } finally {
+            allocator.close();
+        }
+        offsetsBuffer.put(e.offsets);
+        sourceBuffer.put(e.source);
+        targetBuffer.put(e.target);
+        if (rawWeightBuffer != null) {
+            rawWeightBuffer.put(e.rawWeight);
+        }
+    }
+
+    /**
+     * Builds the store from Gephi edges, nodeOrdinals maps node store ids to ordinals in the node arrays.
+     */
+    public static EdgeArrays fromEdges(Edge[] edges, int[] nodeOrdinals, int nodeCount) {
+        int[] edgeSource = new int[edges.length];
+        int[] counts = new int[nodeCount + 1];
+        for (int i = 0; i < edges.length; i++) {
+            edgeSource[i] = nodeOrdinals[edges[i].getSource().getStoreId()];
+            counts[edgeSource[i] + 1]++;
+        }
+        EdgeArrays e = new EdgeArrays(nodeCount, edges.length, new Edge[edges.length], null);
+        for (int n = 0; n < nodeCount; n++) {
+            e.offsets[n + 1] = e.offsets[n] + counts[n + 1];
+        }
+        // Counting sort by source, stable so that edges of a node keep the graph order
+        int[] next = new int[nodeCount];
+        System.arraycopy(e.offsets, 0, next, 0, nodeCount);
+        for (int i = 0; i < edges.length; i++) {
+            int k = next[edgeSource[i]]++;
+            e.source[k] = edgeSource[i];
+            e.target[k] = nodeOrdinals[edges[i].getTarget().getStoreId()];
+            e.edges[k] = edges[i];
+        }
+        return e;
+    }
+
+    /**
+     * Builds the store from edges given as ordinals, in any order. Weights may be null for all 1.
+     */
+    public static EdgeArrays fromArrays(int nodeCount, int[] edgeSource, int[] edgeTarget, double[] edgeWeight) {
+        int size = edgeSource.length;
+        EdgeArrays e = new EdgeArrays(nodeCount, size, null, edgeWeight != null ? new double[size] : null);
+        for (int i = 0; i < size; i++) {
+            e.offsets[edgeSource[i] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            e.offsets[n + 1] += e.offsets[n];
+        }
+        // Counting sort by source, stable so that edges of a node keep the input order
+        int[] next = new int[nodeCount];
+        System.arraycopy(e.offsets, 0, next, 0, nodeCount);
+        for (int i = 0; i < size; i++) {
+            int k = next[edgeSource[i]]++;
+            e.source[k] = edgeSource[i];
+            e.target[k] = edgeTarget[i];
+            if (edgeWeight != null) {
+                e.rawWeight[k] = edgeWeight[i];
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Builds the store from edges already in compressed sparse row order, as written by {@link GraphCache}. Weights
+     * may be null for all 1.
+     */
+    static EdgeArrays fromCsr(int[] offsets, int[] target, double[] weight) {
+        int[] source = new int[target.length];
+        for (int n = 0; n < offsets.length - 1; n++) {
+            Arrays.fill(source, offsets[n], offsets[n + 1], n);
+        }
+        return new EdgeArrays(offsets, source, target, null, weight);
+    }
+
+    /**
+     * Copies the edges off heap, mapped from a file named as the given scratch file with ".edges" appended, or to
+     * direct buffers if file is null. Weights are computed again by the next {@link #updateWeights} call.
+     *
+     * @throws java.io.UncheckedIOException if the file cannot be mapped
+     */
+    public EdgeArrays offHeap(File file) {
+        if (offHeap) {
+            return this;
+        }
+        return new EdgeArrays(this, file);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int nodeCount() {
+        return offHeap ? offsetsBuffer.capacity() - 1 : offsets.length - 1;
+    }
+
+    /**
+     * First outgoing edge of node n, or the number of edges if n is the node count.
+     */
+    int offset(int n) {
+        return offsets != null ? offsets[n] : offsetsBuffer.get(n);
+    }
+
+    int source(int i) {
+        return source != null ? source[i] : sourceBuffer.get(i);
+    }
+
+    int target(int i) {
+        return target != null ? target[i] : targetBuffer.get(i);
+    }
+
+    /**
+     * Weight of edge i as loaded, without the edge weight influence, 1 if the edges have no weights.
+     */
+    double rawWeight(int i) {
+        if (offHeap) {
+            return rawWeightBuffer != null ? rawWeightBuffer.get(i) : 1;
+        }
+        return rawWeight != null ? rawWeight[i] : 1;
+    }
+
+    boolean hasRawWeight() {
+        return rawWeight != null || rawWeightBuffer != null;
+    }
+
+    /**
+     * First incoming edge of node n in the index of {@link #buildIncoming()}.
+     */
+    int inOffset(int n) {
+        return inOffsets != null ? inOffsets[n] : inOffsetsBuffer.get(n);
+    }
+
+    /**
+     * Edge at k in the index of incoming edges.
+     */
+    int inEdge(int k) {
+        return inEdges != null ? inEdges[k] : inEdgesBuffer.get(k);
+    }
+
+    /**
+     * Degree of every node, counting both ends of edges, so that self loops count twice as in Gephi.
+     */
+    public int[] degrees() {
+        int[] degree = new int[nodeCount()];
+        for (int i = 0; i < size; i++) {
+            degree[source(i)]++;
+            degree[target(i)]++;
+        }
+        return degree;
+    }
+
+    /**
+     * Follows a renumbering of nodes, node n becoming newOrdinals[n], and sorts edges again by source.
+     * The incoming edges index is rebuilt by the next {@link #buildIncoming()}. The edge order and the scratch arrays
+     * the edges are moved through are allocated by the first renumbering and reused by later ones, so that periodic
+     * renumbering does not allocate copies of the edges.
+     */
+    public void renumber(int[] newOrdinals) {
+        if (offHeap) {
+            renumberBuffers(newOrdinals);
+            return;
+        }
+        int nodeCount = offsets.length - 1;
+        if (renumberOrder == null) {
+            renumberOrder = new int[size];
+            renumberInts = new int[size];
+            renumberNext = new int[nodeCount];
+        }
+        // Counting sort by new source, stable: the edge at k is the former edge order[k]
+        int[] order = renumberOrder;
+        int[] next = renumberNext;
+        Arrays.fill(offsets, 0);
+        for (int i = 0; i < size; i++) {
+            offsets[newOrdinals[source[i]] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+        System.arraycopy(offsets, 0, next, 0, nodeCount);
+        for (int i = 0; i < size; i++) {
+            order[next[newOrdinals[source[i]]]++] = i;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            Arrays.fill(source, offsets[n], offsets[n + 1], n);
+        }
+        int[] ints = renumberInts;
+        for (int k = 0; k < size; k++) {
+            ints[k] = newOrdinals[target[order[k]]];
+        }
+        System.arraycopy(ints, 0, target, 0, size);
+        if (weight != null) {
+            permute(weight);
+        }
+        if (rawWeight != null) {
+            permute(rawWeight);
+        }
+        if (weight32 != null) {
+            if (renumberFloats == null) {
+                renumberFloats = new float[size];
+            }
+            for (int k = 0; k < size; k++) {
+                renumberFloats[k] = weight32[order[k]];
+            }
+            System.arraycopy(renumberFloats, 0, weight32, 0, size);
+        }
+        if (edges != null) {
+            if (renumberEdges == null) {
+                renumberEdges = new Edge[size];
+            }
+            for (int k = 0; k < size; k++) {
+                renumberEdges[k] = edges[order[k]];
+            }
+            System.arraycopy(renumberEdges, 0, edges, 0, size);
+        }
+        incomingValid = false;
+    }
+
+    // Off heap, edges are moved through a scratch buffer of 8 bytes per edge
+    private void renumberBuffers(int[] newOrdinals) {
+        int nodeCount = nodeCount();
+        if (renumberOrderBuffer == null) {
+            Allocator allocator = new Allocator(file, ".edges.renumber");
+            try {
+                renumberOrderBuffer = allocator.ints(size);
+                renumberNextBuffer = allocator.ints(nodeCount);
+                renumberBuffer = allocator.allocate(8L * size);
+            } finally {
+                allocator.close();
+            }
+        }
+        IntBuffer order = renumberOrderBuffer;
+        IntBuffer next = renumberNextBuffer;
+        for (int n = 0; n <= nodeCount; n++) {
+            offsetsBuffer.put(n, 0);
+        }
+        for (int i = 0; i < size; i++) {
+            int n = newOrdinals[sourceBuffer.get(i)] + 1;
+            offsetsBuffer.put(n, offsetsBuffer.get(n) + 1);
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            offsetsBuffer.put(n + 1, offsetsBuffer.get(n + 1) + offsetsBuffer.get(n));
+            next.put(n, offsetsBuffer.get(n));
+        }
+        for (int i = 0; i < size; i++) {
+            int n = newOrdinals[sourceBuffer.get(i)];
+            int k = next.get(n);
+            next.put(n, k + 1);
+            order.put(k, i);
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            for (int k = offsetsBuffer.get(n), end = offsetsBuffer.get(n + 1); k < end; k++) {
+                sourceBuffer.put(k, n);
+            }
+        }
+        IntBuffer ints = renumberBuffer.asIntBuffer();
+        for (int k = 0; k < size; k++) {
+            ints.put(k, newOrdinals[targetBuffer.get(order.get(k))]);
+        }
+        for (int k = 0; k < size; k++) {
+            targetBuffer.put(k, ints.get(k));
+        }
+        DoubleBuffer doubles = renumberBuffer.asDoubleBuffer();
+        for (DoubleBuffer values : new DoubleBuffer[]{weightBuffer, rawWeightBuffer}) {
+            if (values != null) {
+                for (int k = 0; k < size; k++) {
+                    doubles.put(k, values.get(order.get(k)));
+                }
+                for (int k = 0; k < size; k++) {
+                    values.put(k, doubles.get(k));
+                }
+            }
+        }
+        if (weight32Buffer != null) {
+            FloatBuffer floats = renumberBuffer.asFloatBuffer();
+            for (int k = 0; k < size; k++) {
+                floats.put(k, weight32Buffer.get(order.get(k)));
+            }
+            for (int k = 0; k < size; k++) {
+                weight32Buffer.put(k, floats.get(k));
+            }
+        }
+        if (edges != null) {
+            if (renumberEdges == null) {
+                renumberEdges = new Edge[size];
+            }
+            for (int k = 0; k < size; k++) {
+                renumberEdges[k] = edges[order.get(k)];
+            }
+            System.arraycopy(renumberEdges, 0, edges, 0, size);
+        }
+        incomingValid = false;
+    }
+
+    // Moves values as the edges of the last renumbering
+    private void permute(double[] values) {
+        if (renumberDoubles == null) {
+            renumberDoubles = new double[size];
+        }
+        for (int k = 0; k < size; k++) {
+            renumberDoubles[k] = values[renumberOrder[k]];
+        }
+        System.arraycopy(renumberDoubles, 0, values, 0, size);
+    }
+
+    /**
+     * Builds the index of incoming edges, if not built yet, in the arrays of the previous index if any.
+     */
+    public void buildIncoming() {
+        if (incomingValid) {
+            return;
+        }
+        if (offHeap) {
+            buildIncomingBuffers();
+            return;
+        }
+        int nodeCount = offsets.length - 1;
+        int[] inOffsets = this.inOffsets != null ? this.inOffsets : new int[nodeCount + 1];
+        int[] inEdges = this.inEdges != null ? this.inEdges : new int[size];
+        Arrays.fill(inOffsets, 0);
+        for (int i = 0; i < size; i++) {
+            inOffsets[target[i] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            inOffsets[n + 1] += inOffsets[n];
+        }
+        int[] next = renumberNext != null ? renumberNext : new int[nodeCount];
+        System.arraycopy(inOffsets, 0, next, 0, nodeCount);
+        for (int i = 0; i < size; i++) {
+            inEdges[next[target[i]]++] = i;
+        }
+        this.inOffsets = inOffsets;
+        this.inEdges = inEdges;
+        incomingValid = true;
+    }
+
+    private void buildIncomingBuffers() {
+        int nodeCount = nodeCount();
+        if (inOffsetsBuffer == null) {
+            Allocator allocator = new Allocator(file, ".edges.incoming");
+            try {
+                inOffsetsBuffer = allocator.ints(nodeCount + 1);
+                inEdgesBuffer = allocator.ints(size);
+                inNextBuffer = allocator.ints(nodeCount);
+            } finally {
+                allocator.close();
+            }
+        }
+        IntBuffer next = inNextBuffer;
+        for (int n = 0; n <= nodeCount; n++) {
+            inOffsetsBuffer.put(n, 0);
+        }
+        for (int i = 0; i < size; i++) {
+            int n = targetBuffer.get(i) + 1;
+            inOffsetsBuffer.put(n, inOffsetsBuffer.get(n) + 1);
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            inOffsetsBuffer.put(n + 1, inOffsetsBuffer.get(n + 1) + inOffsetsBuffer.get(n));
+            next.put(n, inOffsetsBuffer.get(n));
+        }
+        for (int i = 0; i < size; i++) {
+            int n = targetBuffer.get(i);
+            int k = next.get(n);
+            next.put(n, k + 1);
+            inEdgesBuffer.put(k, i);
+        }
+        incomingValid = true;
+    }
+
+    /**
+     * Weight of edge i, with the edge weight influence applied.
+     */
+    double weight(int i) {
+        if (offHeap) {
+            return singlePrecision ? weight32Buffer.get(i) : weightBuffer.get(i);
+        }
+        return singlePrecision ? weight32[i] : weight[i];
+    }
+
+    /**
+     * Recomputes weights if the edge weight influence, the time interval or the precision changed since the last call.
+     */
+    public void updateWeights(boolean isDynamicWeight, Interval interval, double edgeWeightInfluence, boolean singlePrecision) {
+        if (weightsValid && this.isDynamicWeight == isDynamicWeight && this.edgeWeightInfluence == edgeWeightInfluence
+                && this.singlePrecision == singlePrecision
+                && (!isDynamicWeight || (interval == null ? this.interval == null : interval.equals(this.interval)))) {
+            return;
+        }
+        if (offHeap) {
+            allocateWeightBuffer(singlePrecision);
+        } else if (singlePrecision && weight32 == null) {
+            weight32 = new float[size];
+            weight = null;
+        } else if (!singlePrecision && weight == null) {
+            weight = new double[size];
+            weight32 = null;
+        }
+        this.singlePrecision = singlePrecision;
+        for (int i = 0; i < size; i++) {
+            double w;
+            if (edgeWeightInfluence == 0) {
+                w = 1;
+            } else {
+                if (edges == null) {
+                    w = rawWeight(i);
+                } else {
+                    w = isDynamicWeight ? edges[i].getWeight(interval) : edges[i].getWeight();
+                }
+                if (edgeWeightInfluence != 1) {
+                    w = Math.pow(w, edgeWeightInfluence);
+                }
+            }
+            if (offHeap) {
+                if (singlePrecision) {
+                    weight32Buffer.put(i, (float) w);
+                } else {
+                    weightBuffer.put(i, w);
+                }
+            } else if (singlePrecision) {
+                weight32[i] = (float) w;
+            } else {
+                weight[i] = w;
+            }
+        }
+        this.isDynamicWeight = isDynamicWeight;
+        this.interval = interval;
+        this.edgeWeightInfluence = edgeWeightInfluence;
+        weightsValid = true;
+    }
+
+    // Each precision maps its own file, so that the mapping of the other one is never truncated
+    private void allocateWeightBuffer(boolean singlePrecision) {
+        if (singlePrecision ? weight32Buffer != null : weightBuffer != null) {
+            return;
+        }
+        Allocator allocator = new Allocator(file, singlePrecision ? ".edges.weight32" : ".edges.weight");
+        try {
+            if (singlePrecision) {
+                weight32Buffer = allocator.floats(size);
+                weightBuffer = null;
+            } else {
+                weightBuffer = allocator.doubles(size);
+                weight32Buffer = null;
+            }
+        } finally {
+            allocator.close();
+        }
+    }
+
+    /**
+     * Forces the next {@link #updateWeights} call to recompute weights, e.g. after edge weights were edited.
+     */
+    public void invalidateWeights() {
+        weightsValid = false;
+    }
+}
@@ -0,0 +1,413 @@
+package kco.forceatlas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads an edge list straight into the arrays of the array engine, without the Gephi import pipeline. Each line holds
+ * a source ID, a target ID and an optional weight, separated by tabs, commas or spaces, as detected on the first line.
+ * Lines starting with # or % are comments, and a first line starting with "source", comments and blank lines aside, is
+ * a header.
+ * <p>
+ * The file is memory-mapped and split into line-aligned chunks parsed in parallel, each chunk with its own
+ * {@link IdDictionary}. Chunk dictionaries are then merged in order, so that node ordinals follow the first appearance
+ * of IDs in the file whatever the number of threads. Edges between the same pair of nodes, in either direction unless
+ * directed, then merge as in a Gephi import: the first one listed keeps its place and direction and takes the merged
+ * weight, summed by default.
+ */
+public class EdgeListLoader {
+
+    // Chunks at most this long, so that a chunk and its last line fit in one mapping
+    private static final long MAX_CHUNK = 1L << 30;
+
+    private EdgeListLoader() {
+    }
+
+    public static ArrayGraph load(File file, boolean directed, MatrixLoader.Merge merge, int threadCount)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte separator = separator(channel);
+            long firstLineEnd = firstLineEnd(channel);
+            int chunkCount = (int) Math.max(threadCount, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+            ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+            try {
+                List<Future<Chunk>> futures = new ArrayList<>();
+                for (int c = 0; c < chunkCount; c++) {
+                    // The first chunk holds the first line that is not a comment, so that it can tell a header
+                    long start = c == 0 ? 0 : Math.max(firstLineEnd, size * c / chunkCount);
+                    long end = Math.max(firstLineEnd, size * (c + 1) / chunkCount);
+                    futures.add(pool.submit(new Chunk(channel, size, start, end, separator)));
+                }
+                Chunk[] chunks = new Chunk[chunkCount];
+                for (int c = 0; c < chunkCount; c++) {
+                    chunks[c] = get(futures.get(c));
+                }
+
+                // Merge dictionaries in chunk order, then translate chunk edges in parallel
+                IdDictionary ids = new IdDictionary(chunks[0].ids.size());
+                final int[][] ordinals = new int[chunkCount][];
+                final int[] firstEdge = new int[chunkCount];
+                long edgeCount = 0;
+                boolean weighted = false;
+                for (int c = 0; c < chunkCount; c++) {
+                    ordinals[c] = ids.addAll(chunks[c].ids);
+                    firstEdge[c] = (int) edgeCount;
+                    edgeCount += chunks[c].size;
+                    weighted |= chunks[c].weighted;
+                    if (edgeCount > Integer.MAX_VALUE - 8) {
+                        throw new IOException("More than " + (Integer.MAX_VALUE - 8) + " edges in " + file);
+                    }
+                }
+                final int[] source = new int[(int) edgeCount];
+                final int[] target = new int[(int) edgeCount];
+                // Unweighted edges that sum up get their count as weight
+                final double[] weight = weighted || merge == MatrixLoader.Merge.SUM ? new double[(int) edgeCount] : null;
+                List<Future<?>> copies = new ArrayList<>();
+                for (int c = 0; c < chunkCount; c++) {
+                    final Chunk chunk = chunks[c];
+                    final int[] map = ordinals[c];
+                    final int first = firstEdge[c];
+                    copies.add(pool.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < chunk.size; i++) {
+                                source[first + i] = map[chunk.source[i]];
+                                target[first + i] = map[chunk.target[i]];
+                            }
+                            if (weight != null) {
+                                if (chunk.weighted) {
+                                    System.arraycopy(chunk.weight, 0, weight, first, chunk.size);
+                                } else {
+                                    Arrays.fill(weight, first, first + chunk.size, 1);
+                                }
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> f : copies) {
+                    get(f);
+                }
+                if (merge == MatrixLoader.Merge.NONE) {
+                    return new ArrayGraph(ids, EdgeArrays.fromArrays(ids.size(), source, target, weight));
+                }
+                int kept = merge(ids.size(), source, target, weight, directed, merge, threadCount, pool);
+                return new ArrayGraph(ids, EdgeArrays.fromArrays(ids.size(), Arrays.copyOf(source, kept),
+                        Arrays.copyOf(target, kept), weight != null && (weighted || kept < edgeCount)
+                        ? Arrays.copyOf(weight, kept) : null));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Merges edges between the same pair of nodes in place, keeping the first of each group where it is listed with
+     * the merged weight, and returns the number of edges left. Weights merge in file order, so that sums come out as
+     * in a Gephi import.
+     */
+    private static int merge(int nodeCount, final int[] source, final int[] target, final double[] weight,
+                             final boolean directed, final MatrixLoader.Merge merge, int threadCount,
+                             ExecutorService pool) throws IOException {
+        int size = source.length;
+        // Counting sort of the edges by their lower node, or by source if directed
+        final int[] offsets = new int[nodeCount + 1];
+        for (int i = 0; i < size; i++) {
+            offsets[low(source[i], target[i], directed) + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+        final int[] order = new int[size];
+        int[] next = Arrays.copyOf(offsets, nodeCount);
+        for (int i = 0; i < size; i++) {
+            order[next[low(source[i], target[i], directed)]++] = i;
+        }
+        next = null;
+
+        final boolean[] dropped = new boolean[size];
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 1; t <= threadCount; t++) {
+            final int from = (int) ((long) nodeCount * (t - 1) / threadCount);
+            final int to = (int) ((long) nodeCount * t / threadCount);
+            futures.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long[] keys = new long[16];
+                    for (int n = from; n < to; n++) {
+                        int start = offsets[n];
+                        int length = offsets[n + 1] - start;
+                        if (length > keys.length) {
+                            keys = new long[Math.max(length, 2 * keys.length)];
+                        }
+                        // Other node in the high bits, edge index in the low bits, so that groups follow file order
+                        for (int k = 0; k < length; k++) {
+                            int i = order[start + k];
+                            keys[k] = (long) (source[i] == n ? target[i] : source[i]) << 32 | i;
+                        }
+                        Arrays.sort(keys, 0, length);
+                        for (int k = 0; k < length; ) {
+                            int first = (int) keys[k];
+                            long other = keys[k] >>> 32;
+                            double sum = 0;
+                            double max = Double.NEGATIVE_INFINITY;
+                            double min = Double.POSITIVE_INFINITY;
+                            int count = 0;
+                            for (; k < length && keys[k] >>> 32 == other; k++, count++) {
+                                int i = (int) keys[k];
+                                double w = weight != null ? weight[i] : 1;
+                                sum += w;
+                                max = Math.max(max, w);
+                                min = Math.min(min, w);
+                                dropped[i] = i != first;
+                            }
+                            if (weight != null) {
+                                switch (merge) {
+                                    case MAX:
+                                        weight[first] = max;
+                                        break;
+                                    case MIN:
+                                        weight[first] = min;
+                                        break;
+                                    case MEAN:
+                                        weight[first] = sum / count;
+                                        break;
+                                    default:
+                                        weight[first] = sum;
+                                }
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            get(f);
+        }
+
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (!dropped[i]) {
+                source[kept] = source[i];
+                target[kept] = target[i];
+                if (weight != null) {
+                    weight[kept] = weight[i];
+                }
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    private static int low(int source, int target, boolean directed) {
+        return directed ? source : Math.min(source, target);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            throw new IOException(x);
+        } catch (ExecutionException x) {
+            if (x.getCause() instanceof IOException) {
+                throw (IOException) x.getCause();
+            }
+            throw new IOException(x.getCause());
+        }
+    }
+
+    // Tab or comma if the first line that is neither blank nor a comment has one, else space
+    private static byte separator(FileChannel channel) throws IOException {
+        MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 1 << 16));
+        boolean comma = false;
+        boolean lineStart = true;
+        boolean blank = true;
+        boolean comment = false;
+        for (int i = 0; i < b.limit(); i++) {
+            byte c = b.get(i);
+            if (lineStart) {
+                comment = c == '#' || c == '%';
+                lineStart = false;
+            }
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                blank = false;
+            }
+            if (c == '\n') {
+                if (!comment && !blank) {
+                    break;
+                }
+                lineStart = true;
+                blank = true;
+            } else if (!comment && c == '\t') {
+                return '\t';
+            } else if (!comment && c == ',') {
+                comma = true;
+            }
+        }
+        return comma ? (byte) ',' : (byte) ' ';
+    }
+
+    // Offset following the first line that is neither blank nor a comment, the file size if none
+    private static long firstLineEnd(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        boolean lineStart = true;
+        boolean blank = true;
+        boolean comment = false;
+        while (offset < size) {
+            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, MAX_CHUNK));
+            for (int i = 0; i < b.limit(); i++) {
+                byte c = b.get(i);
+                if (lineStart) {
+                    comment = c == '#' || c == '%';
+                    lineStart = false;
+                }
+                if (c == '\n') {
+                    if (!blank && !comment) {
+                        return offset + i + 1;
+                    }
+                    lineStart = true;
+                    blank = true;
+                } else if (c != ' ' && c != '\t' && c != '\r') {
+                    blank = false;
+                }
+            }
+            offset += b.limit();
+        }
+        return size;
+    }
+
+    /**
+     * Edges of the lines of a chunk, with IDs numbered in a chunk dictionary.
+     */
+    private static class Chunk extends LineChunk implements Callable<Chunk> {
+
+        private final byte separator;
+        final IdDictionary ids = new IdDictionary();
+        int size;
+        int[] source = new int[1024];
+        int[] target = new int[1024];
+        double[] weight = new double[1024];
+        boolean weighted;
+        // Whether no data line was seen since the start of the file, comments and blank lines aside: only that line
+        // may be a header
+        private boolean beforeData;
+        // Token bounds in the block: start and end of source, target and weight
+        private final int[] tokens = new int[6];
+
+        Chunk(FileChannel channel, long fileSize, long start, long end, byte separator) {
+            super(channel, fileSize, start, end);
+            this.separator = separator;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            parse();
+            return this;
+        }
+
+        @Override
+        void line(int pos, int lineEnd, boolean first) throws IOException {
+            if (first) {
+                beforeData = true;
+            }
+            if (pos == lineEnd || block[pos] == '#' || block[pos] == '%') {
+                return;
+            }
+            int count = split(pos, lineEnd);
+            if (count == 0) {
+                return;
+            }
+            boolean header = beforeData;
+            beforeData = false;
+            if (header && isHeader()) {
+                return;
+            }
+            if (count < 2) {
+                throw new IOException("Missing target ID: " + Numbers.toString(block, pos, lineEnd));
+            }
+            if (size == source.length) {
+                source = Arrays.copyOf(source, 2 * size);
+                target = Arrays.copyOf(target, 2 * size);
+                weight = Arrays.copyOf(weight, 2 * size);
+            }
+            source[size] = ids.add(block, tokens[0], tokens[1] - tokens[0]);
+            target[size] = ids.add(block, tokens[2], tokens[3] - tokens[2]);
+            if (count > 2) {
+                try {
+                    weight[size] = Numbers.parseDouble(block, tokens[4], tokens[5]);
+                } catch (NumberFormatException x) {
+                    throw new IOException("Invalid weight: " + Numbers.toString(block, pos, lineEnd));
+                }
+                weighted = true;
+            } else {
+                weight[size] = 1;
+            }
+            size++;
+        }
+
+        // Bounds of the first three tokens, without surrounding blanks and quotes, returns their number
+        private int split(int pos, int lineEnd) {
+            byte[] b = block;
+            int count = 0;
+            int i = pos;
+            while (count < 3 && i <= lineEnd) {
+                if (separator == ' ') {
+                    while (i < lineEnd && (b[i] == ' ' || b[i] == '\t')) {
+                        i++;
+                    }
+                    if (i == lineEnd) {
+                        break;
+                    }
+                }
+                int tokenStart = i;
+                while (i < lineEnd && b[i] != separator) {
+                    i++;
+                }
+                int tokenEnd = i;
+                while (tokenStart < tokenEnd && b[tokenStart] == ' ') {
+                    tokenStart++;
+                }
+                while (tokenEnd > tokenStart && b[tokenEnd - 1] == ' ') {
+                    tokenEnd--;
+                }
+                if (tokenEnd - tokenStart >= 2 && b[tokenStart] == '"' && b[tokenEnd - 1] == '"') {
+                    tokenStart++;
+                    tokenEnd--;
+                }
+                tokens[2 * count] = tokenStart;
+                tokens[2 * count + 1] = tokenEnd;
+                count++;
+                i++;
+            }
+            // An empty weight column, as in "a,b,", means no weight
+            if (count == 3 && tokens[4] == tokens[5]) {
+                count = 2;
+            }
+            return count;
+        }
+
+        private boolean isHeader() {
+            if (tokens[1] - tokens[0] != 6) {
+                return false;
+            }
+            for (int k = 0; k < 6; k++) {
+                if (Character.toLowerCase((char) block[tokens[0] + k]) != "source".charAt(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
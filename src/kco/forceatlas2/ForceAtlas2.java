@@ -48,6 +48,7 @@ import org.gephi.layout.spi.LayoutProperty;
 import org.openide.util.Exceptions;
 import org.openide.util.NbBundle;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -66,6 +67,26 @@ import java.util.concurrent.Future;
  */
 public class ForceAtlas2 implements Layout {
 
+    /**
+     * How the array engine accumulates attraction forces.
+     */
+    public enum AttractionMode {
+        /**
+         * Edge ranges per thread, node forces updated under striped locks.
+         */
+        SYNCHRONIZED,
+        /**
+         * Edge ranges per thread, forces added to one buffer per thread then summed in parallel. Lock-free, but
+         * needs one force buffer per thread for all nodes.
+         */
+        BUFFERED,
+        /**
+         * Node ranges per thread, each thread walks the in and out edges of its own nodes right after their
+         * repulsion, and only writes to them. Lock-free without buffers, but each edge is evaluated twice.
+         */
+        OWNER_COMPUTES
+    }
+
     private final ForceAtlas2Builder layoutBuilder;
     private double outboundAttCompensation = 1;
     private GraphModel graphModel;
@@ -90,17 +111,72 @@ public class ForceAtlas2 implements Layout {
     private ExecutorService pool;
     private boolean updateCenter = true;
     private Node[] nodes;
+    private int nodeCount;
     private Edge[] edges;
     private int barnesHutSplits = -1;
     private double distance;
+    private double totalSwinging;
+    private double totalEffectiveTraction;
     private final boolean is3d;
     private final boolean useAltSpeed;
+    private boolean arrayEngine;
+    private NodeArrays nodeArrays;
+    private EdgeArrays edgeArrays;
+    private AttractionMode attractionMode = AttractionMode.SYNCHRONIZED;
+    private ForceBuffer[] forceBuffers;
+    private final long[] phaseTimes = new long[Phase.values().length];
+    private BarnesHutTree barnesHutTree;
+    private int mortonOrderIter;
+    private boolean renumbered;
+    private boolean useWorkerTeam;
+    private boolean useCostZones;
+    private CostZones costZones;
+    private boolean singlePrecision;
+    private boolean offHeap;
+    private File offHeapFile;
+    private WorkerTeam workerTeam;
+    // Graph loaded without Gephi, and the loaded ordinal of each node while the arrays are renumbered, also kept for
+    // Gephi nodes on the array engine
+    private NodeArrays loadedNodeArrays;
+    private EdgeArrays loadedEdgeArrays;
+    private int[] loadedOrder;
+    // Scratch arrays of renumberings, allocated by the first one and reused by later ones
+    private long[] renumberKeys;
+    private int[] renumberOrder;
+    private int[] renumberInts;
+    private Node[] renumberNodes;
+    // Per-iteration state shared with the worker team, set by goAlgo before each iteration
+    private ForceFactory.RepulsionForce teamRepulsion;
+    private ForceFactory.RepulsionForce teamGravityForce;
+    private ForceFactory.AttractionForce teamAttraction;
+    private boolean teamRebuild;
+    private int[] teamRepulsionBounds;
+    private long teamTime;
+    // Swinging, traction and distance of each worker, one cache line apart
+    private double[] teamTotals;
+    private static final int TEAM_SLOT = 8;
+    // Flight Recorder events, null without jdk.jfr
+    private final LayoutEvents events;
+    private final LayoutMonitor monitor;
+    private volatile boolean stopRequested;
 
     public ForceAtlas2(ForceAtlas2Builder layoutBuilder, boolean is3d, boolean useAltSpeed) {
         this.layoutBuilder = layoutBuilder;
         this.is3d = is3d;
         this.useAltSpeed = useAltSpeed;
         this.threadCount = Runtime.getRuntime().availableProcessors();
+        this.events = isFlightRecorderAvailable() ? new LayoutEvents(this) : null;
+        this.monitor = new LayoutMonitor(this);
+    }
+
+    // Building needs jdk.jfr, but the jar may run on a Java 8 before 8u262, where LayoutEvents must not be loaded
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException x) {
+            return false;
+        }
     }
 
     private static double getEdgeWeight(Edge edge, boolean isDynamicWeight, Interval interval) {
@@ -127,13 +203,58 @@ public class ForceAtlas2 implements Layout {
         stepCount = 0;
         speed = 1.;
         speedEfficiency = 1.;
-        graph = graphModel.getGraphVisible();
-        nodes = graph.getNodes().toArray();
-        edges = graph.getEdges().toArray();
         pool = Executors.newFixedThreadPool(threadCount);
         if (this.barnesHutSplits == -1) {
             this.barnesHutSplits = (int) Math.floor(Math.log(this.threadCount) / Math.log(is3d ? 8.0 : 4.0) + 0.02) + 1;
         }
+        if (loadedNodeArrays != null) {
+            initArrays();
+        } else {
+            initGraph();
+        }
+        forceBuffers = null;
+        costZones = useCostZones ? new CostZones(nodeCount) : null;
+
+        currentThreadCount = threadCount;
+        if (workerTeam != null) {
+            workerTeam.shutdown();
+            workerTeam = null;
+        }
+        if (useWorkerTeam && nodeArrays != null) {
+            workerTeam = new WorkerTeam(currentThreadCount, new WorkerTeam.Body() {
+                @Override
+                public void run(int worker) throws Exception {
+                    teamIteration(worker);
+                }
+            });
+            teamTotals = new double[currentThreadCount * TEAM_SLOT];
+        }
+        stopRequested = false;
+        monitor.register();
+        monitor.start();
+    }
+
+    private void initArrays() {
+        graph = null;
+        nodes = null;
+        edges = null;
+        nodeArrays = loadedNodeArrays;
+        edgeArrays = loadedEdgeArrays;
+        nodeCount = nodeArrays.size;
+        barnesHutTree = new BarnesHutTree(nodeArrays);
+        if (loadedOrder == null) {
+            loadedOrder = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                loadedOrder[i] = i;
+            }
+        }
+    }
+
+    private void initGraph() {
+        graph = graphModel.getGraphVisible();
+        nodes = graph.getNodes().toArray();
+        edges = graph.getEdges().toArray();
+        nodeCount = nodes.length;
         // Initialise layout data
         for (Node n : nodes) {
             if (n.getLayoutData() == null) {
@@ -150,12 +271,37 @@ public class ForceAtlas2 implements Layout {
             nLayout.setDz(0);
         }
 
-        currentThreadCount = threadCount;
+        if (arrayEngine) {
+            nodeArrays = NodeArrays.fromNodes(nodes, graph, is3d, singlePrecision, offHeap, offHeapFile);
+            int maxStoreId = -1;
+            for (Node n : nodes) {
+                maxStoreId = Math.max(maxStoreId, n.getStoreId());
+            }
+            int[] nodeOrdinals = new int[maxStoreId + 1];
+            for (int i = 0; i < nodes.length; i++) {
+                nodeOrdinals[nodes[i].getStoreId()] = i;
+            }
+            edgeArrays = EdgeArrays.fromEdges(edges, nodeOrdinals, nodes.length);
+            if (offHeap) {
+                edgeArrays = edgeArrays.offHeap(offHeapFile);
+            }
+            barnesHutTree = new BarnesHutTree(nodeArrays);
+            loadedOrder = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                loadedOrder[i] = i;
+            }
+        } else {
+            nodeArrays = null;
+            edgeArrays = null;
+            barnesHutTree = null;
+        }
     }
 
     private void barnesHutRegions() {
 
-        if (isBarnesHutOptimize()) {
+        if (isBarnesHutOptimize() && nodeArrays != null) {
+            barnesHutArrayRegions();
+        } else if (isBarnesHutOptimize()) {
             if (stepCount % updateBarnesHutIter == 0) {
                 rootRegion = new Region(nodes, is3d);
                 List<Region> regions = new ArrayList<>();
@@ -181,44 +327,161 @@ public class ForceAtlas2 implements Layout {
                 }
                 waitForFutures(futures);
 
-            } else if (updateCenter) {
-                rootRegion = new Region(nodes, is3d);
-                List<Region> regions = new ArrayList<>();
-                regions.add(rootRegion);
+            } else if (updateCenter && rootRegion != null) {
+                // Refit the last tree bottom-up: subtrees below the split levels in parallel, then the split levels
+                List<List<Region>> levels = new ArrayList<>();
+                levels.add(Arrays.asList(rootRegion));
                 for (int splitIndex = 0; splitIndex < barnesHutSplits; splitIndex++) {
-                    List<Future> futures = new ArrayList<>();
-                    for (Region r : regions) {
-                        futures.add(pool.submit(new BarnesHutUpdateCenterTask(Arrays.asList(r), false)));
-                    }
-                    waitForFutures(futures);
                     List<Region> newRegions = new ArrayList<>();
-                    for (Region r : regions) {
+                    for (Region r : levels.get(splitIndex)) {
                         newRegions.addAll(r.getSubregions());
                     }
-                    regions = newRegions;
+                    levels.add(newRegions);
                 }
+                List<Region> regions = levels.get(levels.size() - 1);
                 List<Future> futures = new ArrayList<>();
                 for (int t = currentThreadCount; t > 0; t--) {
                     int from = (int) Math.floor(regions.size() * (t - 1) / currentThreadCount);
                     int to = (int) Math.floor(regions.size() * t / currentThreadCount);
-                    futures.add(pool.submit(new BarnesHutUpdateCenterTask(regions.subList(from, to), true)));
+                    futures.add(pool.submit(new BarnesHutRefitTask(regions.subList(from, to))));
                 }
                 waitForFutures(futures);
+                for (int level = levels.size() - 2; level >= 0; level--) {
+                    for (Region r : levels.get(level)) {
+                        r.refit(false);
+                    }
+                }
             }
         }
     }
 
-    private void repulsionAndGravity() {
+    private void mortonOrder() {
+        renumbered = false;
+        if (nodeArrays != null && mortonOrderIter > 0 && stepCount % mortonOrderIter == 0) {
+            if (renumberOrder == null || renumberOrder.length != nodeCount) {
+                renumberKeys = new long[nodeCount];
+                renumberOrder = new int[nodeCount];
+            }
+            MortonOrder.order(nodeArrays, renumberKeys, renumberOrder);
+            renumber(renumberOrder);
+        }
+    }
+
+    /**
+     * Renumbers the nodes of the array engine, node i becoming the former node order[i].
+     */
+    private void renumber(int[] order) {
+        nodeArrays.permute(order);
+        if (renumberInts == null || renumberInts.length != nodeCount) {
+            renumberInts = new int[nodeCount];
+        }
+        MortonOrder.inverse(order, renumberInts);
+        edgeArrays.renumber(renumberInts);
+        // Renumbered nodes and loaded ordinals are gathered into the scratch arrays, which then swap with the former ones
+        if (nodes != null) {
+            if (renumberNodes == null || renumberNodes.length != nodes.length) {
+                renumberNodes = new Node[nodes.length];
+            }
+            for (int i = 0; i < nodes.length; i++) {
+                renumberNodes[i] = nodes[order[i]];
+            }
+            Node[] formerNodes = nodes;
+            nodes = renumberNodes;
+            renumberNodes = formerNodes;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            renumberInts[i] = loadedOrder[order[i]];
+        }
+        int[] formerOrder = loadedOrder;
+        loadedOrder = renumberInts;
+        renumberInts = formerOrder;
+        barnesHutTree.resetOrder();
+        if (costZones != null) {
+            costZones.permute(order);
+        }
+        renumbered = true;
+    }
+
+    private void barnesHutArrayRegions() {
+        // The tree refers to node ordinals, so it is always rebuilt after a renumbering
+        boolean rebuild = stepCount % updateBarnesHutIter == 0 || renumbered;
+        if (rebuild) {
+            barnesHutTree.reset();
+            List<Integer> regions = new ArrayList<>();
+            regions.add(0);
+            for (int splitIndex = 0; splitIndex < barnesHutSplits; splitIndex++) {
+                List<Future> futures = new ArrayList<>();
+                for (Integer r : regions) {
+                    futures.add(pool.submit(new ArrayBarnesHutTask(barnesHutTree, Arrays.asList(r), false)));
+                }
+                waitForFutures(futures);
+                List<Integer> newRegions = new ArrayList<>();
+                for (Integer r : regions) {
+                    barnesHutTree.getSubregions(r, newRegions);
+                }
+                regions = newRegions;
+            }
+
+            List<Future> futures = new ArrayList<>();
+            for (int t = currentThreadCount; t > 0; t--) {
+                int from = (int) Math.floor(regions.size() * (t - 1) / currentThreadCount);
+                int to = (int) Math.floor(regions.size() * t / currentThreadCount);
+                futures.add(pool.submit(new ArrayBarnesHutTask(barnesHutTree, regions.subList(from, to), true)));
+            }
+            waitForFutures(futures);
+
+        } else if (updateCenter) {
+            // Refit the last tree bottom-up: subtrees below the split levels in parallel, then the split levels
+            List<List<Integer>> levels = new ArrayList<>();
+            levels.add(Arrays.asList(0));
+            for (int splitIndex = 0; splitIndex < barnesHutSplits; splitIndex++) {
+                List<Integer> newRegions = new ArrayList<>();
+                for (Integer r : levels.get(splitIndex)) {
+                    barnesHutTree.getSubregions(r, newRegions);
+                }
+                levels.add(newRegions);
+            }
+            List<Integer> regions = levels.get(levels.size() - 1);
+            List<Future> futures = new ArrayList<>();
+            for (int t = currentThreadCount; t > 0; t--) {
+                int from = (int) Math.floor(regions.size() * (t - 1) / currentThreadCount);
+                int to = (int) Math.floor(regions.size() * t / currentThreadCount);
+                futures.add(pool.submit(new ArrayBarnesHutRefitTask(barnesHutTree, regions.subList(from, to))));
+            }
+            waitForFutures(futures);
+            for (int level = levels.size() - 2; level >= 0; level--) {
+                for (int r : levels.get(level)) {
+                    barnesHutTree.refit(r, false);
+                }
+            }
+        }
+    }
+
+    private void repulsionAndGravity(final boolean isDynamicWeight, final Interval interval) {
 
         // Repulsion (and gravity)
         // NB: Muti-threaded
         ForceFactory.RepulsionForce Repulsion = ForceFactory.builder.buildRepulsion(isAdjustSizes(), getScalingRatio());
+        ForceFactory.RepulsionForce GravityForce = (isStrongGravityMode()) ? (ForceFactory.builder.getStrongGravity(getScalingRatio())) : (Repulsion);
+        // Owner-computes attraction runs in the same pass
+        ForceFactory.AttractionForce Attraction = null;
+        if (edgeArrays != null && attractionMode == AttractionMode.OWNER_COMPUTES) {
+            edgeArrays.updateWeights(isDynamicWeight, interval, getEdgeWeightInfluence(), nodeArrays.singlePrecision);
+            edgeArrays.buildIncoming();
+            Attraction = buildAttraction();
+        }
 
+        // With cost zones, ranges hold about the same number of force evaluations in the last iteration
+        int[] bounds = costZones != null ? costZones.split(currentThreadCount) : null;
         List<Future> futures = new ArrayList<>();
         for (int t = currentThreadCount; t > 0; t--) {
-            int from = (int) Math.floor(nodes.length * (t - 1) / currentThreadCount);
-            int to = (int) Math.floor(nodes.length * t / currentThreadCount);
-            futures.add(pool.submit(new NodesThread(nodes, from, to, isBarnesHutOptimize(), getBarnesHutTheta(), getGravity(), (isStrongGravityMode()) ? (ForceFactory.builder.getStrongGravity(getScalingRatio())) : (Repulsion), getScalingRatio(), rootRegion, Repulsion)));
+            int from = bounds != null ? bounds[t - 1] : (int) ((long) nodeCount * (t - 1) / currentThreadCount);
+            int to = bounds != null ? bounds[t] : (int) ((long) nodeCount * t / currentThreadCount);
+            if (nodeArrays != null) {
+                futures.add(pool.submit(new ArrayNodesThread(nodeArrays, from, to, isBarnesHutOptimize(), getBarnesHutTheta(), getGravity(), GravityForce, getScalingRatio(), barnesHutTree, Repulsion, edgeArrays, Attraction, costZones)));
+            } else {
+                futures.add(pool.submit(new NodesThread(nodes, from, to, isBarnesHutOptimize(), getBarnesHutTheta(), getGravity(), GravityForce, getScalingRatio(), rootRegion, Repulsion, costZones)));
+            }
         }
         waitForFutures(futures);
     }
@@ -228,11 +491,17 @@ public class ForceAtlas2 implements Layout {
         // If outboundAttractionDistribution active, compensate.
         if (isOutboundAttractionDistribution()) {
             outboundAttCompensation = 0;
-            for (Node n : nodes) {
-                ForceAtlas2LayoutData nLayout = n.getLayoutData();
-                outboundAttCompensation += nLayout.getMass();
+            if (nodeArrays != null) {
+                for (int n = 0; n < nodeArrays.size; n++) {
+                    outboundAttCompensation += nodeArrays.mass(n);
+                }
+            } else {
+                for (Node n : nodes) {
+                    ForceAtlas2LayoutData nLayout = n.getLayoutData();
+                    outboundAttCompensation += nLayout.getMass();
+                }
             }
-            outboundAttCompensation /= nodes.length;
+            outboundAttCompensation /= nodeCount;
         }
 
     }
@@ -241,11 +510,15 @@ public class ForceAtlas2 implements Layout {
 
         List<Future<Double>> futures = new ArrayList<>();
         boolean adjustSizes = isAdjustSizes();
-        List<Node> nodesList = Arrays.asList(nodes);
+        List<Node> nodesList = nodes != null ? Arrays.asList(nodes) : null;
         for (int t = currentThreadCount; t > 0; t--) {
-            int from = (int) Math.floor(nodes.length * (t - 1) / currentThreadCount);
-            int to = (int) Math.floor(nodes.length * t / currentThreadCount);
-            futures.add(pool.submit(new ApplyForcesTask(nodesList.subList(from, to), adjustSizes, speed, useAltSpeed)));
+            int from = (int) ((long) nodeCount * (t - 1) / currentThreadCount);
+            int to = (int) ((long) nodeCount * t / currentThreadCount);
+            if (nodeArrays != null) {
+                futures.add(pool.submit(new ArrayApplyForcesTask(nodeArrays, from, to, adjustSizes, speed, useAltSpeed)));
+            } else {
+                futures.add(pool.submit(new ApplyForcesTask(nodesList.subList(from, to), adjustSizes, speed, useAltSpeed)));
+            }
         }
 
         double distance = 0;
@@ -260,11 +533,45 @@ public class ForceAtlas2 implements Layout {
 
     }
 
+    private ForceFactory.AttractionForce buildAttraction() {
+        return ForceFactory.builder.buildAttraction(isLinLogMode(), isOutboundAttractionDistribution(), isAdjustSizes(), 1 * ((isOutboundAttractionDistribution()) ? (outboundAttCompensation) : (1)));
+    }
+
     private void attraction(final boolean isDynamicWeight, final Interval interval) {
         List<Future> futures = new ArrayList<>();
 
-        final ForceFactory.AttractionForce Attraction = ForceFactory.builder.buildAttraction(isLinLogMode(), isOutboundAttractionDistribution(), isAdjustSizes(), 1 * ((isOutboundAttractionDistribution()) ? (outboundAttCompensation) : (1)));
+        final ForceFactory.AttractionForce Attraction = buildAttraction();
         int taskCount = currentThreadCount;
+        if (edgeArrays != null && attractionMode == AttractionMode.OWNER_COMPUTES) {
+            // Already done with repulsion
+            return;
+        }
+        if (edgeArrays != null) {
+            edgeArrays.updateWeights(isDynamicWeight, interval, getEdgeWeightInfluence(), nodeArrays.singlePrecision);
+            boolean buffered = attractionMode == AttractionMode.BUFFERED;
+            if (buffered && (forceBuffers == null || forceBuffers.length != taskCount)) {
+                forceBuffers = new ForceBuffer[taskCount];
+                for (int t = 0; t < taskCount; t++) {
+                    forceBuffers[t] = new ForceBuffer(nodeArrays, t);
+                }
+            }
+            for (int t = taskCount; t > 0; t--) {
+                int from = (int) ((long) edgeArrays.size * (t - 1) / taskCount);
+                int to = (int) ((long) edgeArrays.size * t / taskCount);
+                futures.add(pool.submit(new ArrayAttractionTask(nodeArrays, edgeArrays, from, to, Attraction, buffered ? forceBuffers[t - 1] : null)));
+            }
+            waitForFutures(futures);
+            if (buffered) {
+                futures.clear();
+                for (int t = currentThreadCount; t > 0; t--) {
+                    int from = (int) ((long) nodeCount * (t - 1) / currentThreadCount);
+                    int to = (int) ((long) nodeCount * t / currentThreadCount);
+                    futures.add(pool.submit(new ForceBufferReduceTask(forceBuffers, nodeArrays, from, to)));
+                }
+                waitForFutures(futures);
+            }
+            return;
+        }
         List<Edge> edgeList = Arrays.asList(edges);
         final Double edgeWeightInfluence = getEdgeWeightInfluence();
         for (int t = taskCount; t > 0; t--) {
@@ -281,11 +588,15 @@ public class ForceAtlas2 implements Layout {
     private void speed() {
 
         List<Future<Double[]>> futures = new ArrayList<>();
-        List<Node> nodesList = Arrays.asList(nodes);
+        List<Node> nodesList = nodes != null ? Arrays.asList(nodes) : null;
         for (int t = currentThreadCount; t > 0; t--) {
-            int from = (int) Math.floor(nodes.length * (t - 1) / currentThreadCount);
-            int to = (int) Math.floor(nodes.length * t / currentThreadCount);
-            futures.add(pool.submit(new SpeedTask(nodesList.subList(from, to))));
+            int from = (int) ((long) nodeCount * (t - 1) / currentThreadCount);
+            int to = (int) ((long) nodeCount * t / currentThreadCount);
+            if (nodeArrays != null) {
+                futures.add(pool.submit(new ArraySpeedTask(nodeArrays, from, to)));
+            } else {
+                futures.add(pool.submit(new SpeedTask(nodesList.subList(from, to))));
+            }
         }
         double totalSwinging = 0d;  // How much irregular movement
         double totalEffectiveTraction = 0d;  // Hom much useful movement
@@ -298,15 +609,22 @@ public class ForceAtlas2 implements Layout {
         } catch (Exception x) {
             x.printStackTrace();
         }
+        adjustSpeed(totalSwinging, totalEffectiveTraction);
+
+    }
+
+    private void adjustSpeed(double totalSwinging, double totalEffectiveTraction) {
+        this.totalSwinging = totalSwinging;
+        this.totalEffectiveTraction = totalEffectiveTraction;
 
         // We want that swingingMovement < tolerance * convergenceMovement
 
         // Optimize jitter tolerance
         // The 'right' jitter tolerance for this network. Bigger networks need more tolerance. Denser networks need less tolerance. Totally empiric.
-        double estimatedOptimalJitterTolerance = 0.05 * Math.sqrt(nodes.length);
+        double estimatedOptimalJitterTolerance = 0.05 * Math.sqrt(nodeCount);
         double minJT = Math.sqrt(estimatedOptimalJitterTolerance);
         double maxJT = 10;
-        double jt = jitterTolerance * Math.max(minJT, Math.min(maxJT, estimatedOptimalJitterTolerance * totalEffectiveTraction / Math.pow(nodes.length, 2)));
+        double jt = jitterTolerance * Math.max(minJT, Math.min(maxJT, estimatedOptimalJitterTolerance * totalEffectiveTraction / Math.pow(nodeCount, 2)));
 
         double minSpeedEfficiency = 0.05;
 
@@ -339,11 +657,15 @@ public class ForceAtlas2 implements Layout {
     private void initLayoutData() {
 
         List<Future> futures = new ArrayList<>();
-        List<Node> nodesList = Arrays.asList(nodes);
+        List<Node> nodesList = nodes != null ? Arrays.asList(nodes) : null;
         for (int t = currentThreadCount; t > 0; t--) {
-            int from = (int) Math.floor(nodes.length * (t - 1) / currentThreadCount);
-            int to = (int) Math.floor(nodes.length * t / currentThreadCount);
-            futures.add(pool.submit(new InitLayoutTask(nodesList.subList(from, to), graph)));
+            int from = (int) ((long) nodeCount * (t - 1) / currentThreadCount);
+            int to = (int) ((long) nodeCount * t / currentThreadCount);
+            if (nodeArrays != null) {
+                futures.add(pool.submit(new ArrayInitLayoutTask(nodeArrays, from, to)));
+            } else {
+                futures.add(pool.submit(new InitLayoutTask(nodesList.subList(from, to), graph)));
+            }
         }
         waitForFutures(futures);
 
@@ -352,39 +674,465 @@ public class ForceAtlas2 implements Layout {
     @Override
     public void goAlgo() {
 
-        boolean isDynamicWeight = graphModel.getEdgeTable().getColumn("weight").isDynamic();
-        Interval interval = graph.getView().getTimeInterval();
+        // Edges loaded without Gephi have static weights
+        boolean isDynamicWeight = graph != null && graphModel.getEdgeTable().getColumn("weight").isDynamic();
+        Interval interval = graph != null ? graph.getView().getTimeInterval() : null;
 
-        // Initialise layout data
+        monitor.beforeIteration();
+        if (workerTeam != null) {
+            goTeam(isDynamicWeight, interval);
+            monitor.afterIteration();
+            return;
+        }
+
+        if (events != null) {
+            events.beginIteration();
+        }
 
+        // Initialise layout data
+        long time = System.nanoTime();
+        mortonOrder();
         initLayoutData();
+        time = endPhase(Phase.INIT_LAYOUT_DATA, time);
 
         // If Barnes Hut active, initialize root region
         barnesHutRegions();
+        time = endPhase(Phase.BARNES_HUT_REGIONS, time);
 
         outboundAttractionDistribution();
 
-        repulsionAndGravity();
+        // With owner-computes attraction, this phase includes attraction
+        repulsionAndGravity(isDynamicWeight, interval);
+        time = endPhase(Phase.REPULSION_AND_GRAVITY, time);
 
         // Attraction
         attraction(isDynamicWeight, interval);
+        time = endPhase(Phase.ATTRACTION, time);
 
         // Auto adjust speed
         speed();
+        time = endPhase(Phase.SPEED, time);
 
         // Apply forces
         distance = applyForces();
+        endPhase(Phase.APPLY_FORCES, time);
+        if (events != null) {
+            events.endIteration();
+        }
         stepCount++;
+        monitor.afterIteration();
+
+    }
+
+    /**
+     * One iteration on the worker team: serial preparation here, then all phases on the workers.
+     */
+    private void goTeam(boolean isDynamicWeight, Interval interval) {
+        if (events != null) {
+            events.beginIteration();
+        }
+        teamTime = System.nanoTime();
+        mortonOrder();
+        outboundAttractionDistribution();
+        teamRepulsion = ForceFactory.builder.buildRepulsion(isAdjustSizes(), getScalingRatio());
+        teamGravityForce = (isStrongGravityMode()) ? (ForceFactory.builder.getStrongGravity(getScalingRatio())) : (teamRepulsion);
+        teamAttraction = buildAttraction();
+        edgeArrays.updateWeights(isDynamicWeight, interval, getEdgeWeightInfluence(), nodeArrays.singlePrecision);
+        if (attractionMode == AttractionMode.OWNER_COMPUTES) {
+            edgeArrays.buildIncoming();
+        } else if (attractionMode == AttractionMode.BUFFERED && (forceBuffers == null || forceBuffers.length != workerTeam.size())) {
+            forceBuffers = new ForceBuffer[workerTeam.size()];
+            for (int t = 0; t < forceBuffers.length; t++) {
+                forceBuffers[t] = new ForceBuffer(nodeArrays, t);
+            }
+        }
+        // The tree refers to node ordinals, so it is always rebuilt after a renumbering
+        teamRebuild = stepCount % updateBarnesHutIter == 0 || renumbered;
+        teamRepulsionBounds = costZones != null ? costZones.split(workerTeam.size()) : null;
+
+        workerTeam.runIteration();
 
+        // Same summation order as applyForces()
+        distance = 0;
+        for (int w = workerTeam.size() - 1; w >= 0; w--) {
+            distance += teamTotals[w * TEAM_SLOT + 2];
+        }
+        endPhase(Phase.APPLY_FORCES, teamTime);
+        if (events != null) {
+            events.endIteration();
+        }
+        stepCount++;
+    }
+
+    /**
+     * Work of one worker of the team for one iteration. Worker w owns node range w and edge range w, as split for
+     * thread pool tasks, and phases are separated by barriers. Worker 0 also does the serial parts and timings.
+     */
+    private void teamIteration(int w) throws Exception {
+        int teamSize = workerTeam.size();
+        int from = (int) ((long) nodeCount * w / teamSize);
+        int to = (int) ((long) nodeCount * (w + 1) / teamSize);
+
+        nodeArrays.saveForces(from, to);
+        workerTeam.sync();
+        if (w == 0) {
+            teamTime = endPhase(Phase.INIT_LAYOUT_DATA, teamTime);
+        }
+
+        if (isBarnesHutOptimize()) {
+            teamBarnesHut(w, teamSize);
+        }
+        workerTeam.sync();
+        if (w == 0) {
+            teamTime = endPhase(Phase.BARNES_HUT_REGIONS, teamTime);
+        }
+
+        // Repulsion ranges follow cost zones if any, the other phases cost about the same for all nodes
+        boolean ownerComputes = attractionMode == AttractionMode.OWNER_COMPUTES;
+        int repulsionFrom = teamRepulsionBounds != null ? teamRepulsionBounds[w] : from;
+        int repulsionTo = teamRepulsionBounds != null ? teamRepulsionBounds[w + 1] : to;
+        new ArrayNodesThread(nodeArrays, repulsionFrom, repulsionTo, isBarnesHutOptimize(), getBarnesHutTheta(), getGravity(), teamGravityForce, getScalingRatio(), barnesHutTree, teamRepulsion, edgeArrays, ownerComputes ? teamAttraction : null, costZones).run();
+        workerTeam.sync();
+        if (w == 0) {
+            teamTime = endPhase(Phase.REPULSION_AND_GRAVITY, teamTime);
+        }
+
+        if (!ownerComputes) {
+            int edgeFrom = (int) ((long) edgeArrays.size * w / teamSize);
+            int edgeTo = (int) ((long) edgeArrays.size * (w + 1) / teamSize);
+            if (attractionMode == AttractionMode.BUFFERED) {
+                new ArrayAttractionTask(nodeArrays, edgeArrays, edgeFrom, edgeTo, teamAttraction, forceBuffers[w]).run();
+                workerTeam.sync();
+                ForceBuffer.reduce(forceBuffers, nodeArrays, from, to);
+            } else {
+                new ArrayAttractionTask(nodeArrays, edgeArrays, edgeFrom, edgeTo, teamAttraction, null).run();
+            }
+        }
+        workerTeam.sync();
+        if (w == 0) {
+            teamTime = endPhase(Phase.ATTRACTION, teamTime);
+        }
+
+        ArraySpeedTask.totals(nodeArrays, from, to, teamTotals, w * TEAM_SLOT);
+        workerTeam.sync();
+        if (w == 0) {
+            // Same summation order as speed()
+            double totalSwinging = 0d;
+            double totalEffectiveTraction = 0d;
+            for (int t = teamSize - 1; t >= 0; t--) {
+                totalSwinging += teamTotals[t * TEAM_SLOT];
+                totalEffectiveTraction += teamTotals[t * TEAM_SLOT + 1];
+            }
+            adjustSpeed(totalSwinging, totalEffectiveTraction);
+            teamTime = endPhase(Phase.SPEED, teamTime);
+        }
+        workerTeam.sync();
+
+        teamTotals[w * TEAM_SLOT + 2] = ArrayApplyForcesTask.apply(nodeArrays, from, to, isAdjustSizes(), speed, useAltSpeed);
+    }
+
+    /**
+     * Barnes Hut phase of {@link #teamIteration(int)}: the split levels are shared round-robin between workers, then
+     * each worker builds or refits its slice of the last level.
+     */
+    private void teamBarnesHut(int w, int teamSize) throws Exception {
+        if (teamRebuild) {
+            if (w == 0) {
+                barnesHutTree.reset();
+            }
+            workerTeam.sync();
+            List<Integer> regions = new ArrayList<>();
+            regions.add(0);
+            for (int splitIndex = 0; splitIndex < barnesHutSplits; splitIndex++) {
+                for (int i = w; i < regions.size(); i += teamSize) {
+                    barnesHutTree.buildSubRegions(regions.get(i), false);
+                }
+                workerTeam.sync();
+                List<Integer> newRegions = new ArrayList<>();
+                for (Integer r : regions) {
+                    barnesHutTree.getSubregions(r, newRegions);
+                }
+                regions = newRegions;
+            }
+            int from = (int) Math.floor(regions.size() * w / teamSize);
+            int to = (int) Math.floor(regions.size() * (w + 1) / teamSize);
+            for (int r : regions.subList(from, to)) {
+                barnesHutTree.buildSubRegions(r, true);
+            }
+        } else if (updateCenter) {
+            List<List<Integer>> levels = new ArrayList<>();
+            levels.add(Arrays.asList(0));
+            for (int splitIndex = 0; splitIndex < barnesHutSplits; splitIndex++) {
+                List<Integer> newRegions = new ArrayList<>();
+                for (Integer r : levels.get(splitIndex)) {
+                    barnesHutTree.getSubregions(r, newRegions);
+                }
+                levels.add(newRegions);
+            }
+            List<Integer> regions = levels.get(levels.size() - 1);
+            int from = (int) Math.floor(regions.size() * w / teamSize);
+            int to = (int) Math.floor(regions.size() * (w + 1) / teamSize);
+            for (int r : regions.subList(from, to)) {
+                barnesHutTree.refit(r, true);
+            }
+            workerTeam.sync();
+            if (w == 0) {
+                for (int level = levels.size() - 2; level >= 0; level--) {
+                    for (int r : levels.get(level)) {
+                        barnesHutTree.refit(r, false);
+                    }
+                }
+            }
+        }
     }
 
     public double getDistance() {
         return distance;
     }
 
+    /**
+     * @return speed applied to forces in the last iteration
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    public double getSpeedEfficiency() {
+        return speedEfficiency;
+    }
+
+    /**
+     * @return total swinging of nodes in the last iteration, the irregular movement
+     */
+    public double getTotalSwinging() {
+        return totalSwinging;
+    }
+
+    /**
+     * @return total effective traction of nodes in the last iteration, the useful movement
+     */
+    public double getTotalEffectiveTraction() {
+        return totalEffectiveTraction;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeArrays != null ? edgeArrays.size : edges != null ? edges.length : 0;
+    }
+
+    /**
+     * Walks the Barnes Hut tree of the last iteration, in O(nodes).
+     *
+     * @return number of regions, and depth of the tree, both 0 without Barnes Hut
+     */
+    public int[] getTreeShape() {
+        if (!isBarnesHutOptimize()) {
+            return new int[]{0, 0};
+        }
+        if (barnesHutTree != null) {
+            return barnesHutTree.getShape();
+        }
+        return rootRegion != null ? rootRegion.getShape() : new int[]{0, 0};
+    }
+
+    /**
+     * @return number of iterations done since {@link #initAlgo()}, or since the restored checkpoint
+     */
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Copies the current positions to coords, 3 per node in the loaded order, or the graph order for Gephi nodes, with
+     * z 0 in 2d.
+     */
+    public void copyPositions(float[] coords) {
+        if (nodeArrays != null) {
+            for (int i = 0; i < nodeCount; i++) {
+                int k = 3 * loadedOrder[i];
+                coords[k] = nodeArrays.x(i);
+                coords[k + 1] = nodeArrays.y(i);
+                coords[k + 2] = is3d ? nodeArrays.z(i) : 0;
+            }
+        } else {
+            for (int i = 0; i < nodeCount; i++) {
+                coords[3 * i] = nodes[i].x();
+                coords[3 * i + 1] = nodes[i].y();
+                coords[3 * i + 2] = is3d ? nodes[i].z() : 0;
+            }
+        }
+    }
+
+    /**
+     * Copies the state of the layout between two iterations to c. The Barnes Hut tree is not saved, so the state is
+     * only saved when the next iteration rebuilds it, the step count being a multiple of updateBarnesHutIter.
+     */
+    public void saveState(Checkpoint c) {
+        if (stepCount % updateBarnesHutIter != 0) {
+            throw new IllegalStateException("Checkpoint at step " + stepCount + ", not a multiple of updateBarnesHutIter " + updateBarnesHutIter);
+        }
+        c.ensure(nodeCount, is3d, nodeArrays != null);
+        c.stepCount = stepCount;
+        c.speed = speed;
+        c.speedEfficiency = speedEfficiency;
+        if (nodeArrays != null) {
+            for (int i = 0; i < nodeCount; i++) {
+                c.order[i] = loadedOrder[i];
+                c.x[i] = nodeArrays.x(i);
+                c.y[i] = nodeArrays.y(i);
+                c.dx[i] = nodeArrays.dx(i);
+                c.dy[i] = nodeArrays.dy(i);
+                if (is3d) {
+                    c.z[i] = nodeArrays.z(i);
+                    c.dz[i] = nodeArrays.dz(i);
+                }
+            }
+            barnesHutTree.copyOrder(c.treeOrder);
+        } else {
+            for (int i = 0; i < nodeCount; i++) {
+                ForceAtlas2LayoutData nLayout = nodes[i].getLayoutData();
+                c.order[i] = i;
+                c.x[i] = nodes[i].x();
+                c.y[i] = nodes[i].y();
+                c.dx[i] = nLayout.getDx();
+                c.dy[i] = nLayout.getDy();
+                if (is3d) {
+                    c.z[i] = nodes[i].z();
+                    c.dz[i] = nLayout.getDz();
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether iterations are reproducible, bit for bit: on one thread, or on the array engine with buffered or owner
+     * computes attraction. Synchronized attraction on several threads sums forces in the order threads take the locks.
+     * Valid after {@link #initAlgo()}.
+     */
+    public boolean isReproducible() {
+        return currentThreadCount == 1 || nodeArrays != null && attractionMode != AttractionMode.SYNCHRONIZED;
+    }
+
+    /**
+     * Restores a state saved by {@link #saveState(Checkpoint)}, after {@link #initAlgo()} on the same graph with the
+     * same settings, so that the next iterations are the same as after the saved iteration when they are
+     * {@link #isReproducible() reproducible}.
+     */
+    public void restoreState(Checkpoint c) {
+        if (c.nodeCount != nodeCount || c.is3d != is3d) {
+            throw new IllegalArgumentException("Checkpoint of " + c.nodeCount + " nodes in " + (c.is3d ? 3 : 2)
+                    + "d does not match the layout of " + nodeCount + " nodes in " + (is3d ? 3 : 2) + "d");
+        }
+        stepCount = c.stepCount;
+        speed = c.speed;
+        speedEfficiency = c.speedEfficiency;
+        if (nodeArrays != null) {
+            // Node i becomes the current node holding the saved loaded ordinal
+            int[] current = MortonOrder.inverse(loadedOrder);
+            int[] order = new int[nodeCount];
+            for (int i = 0; i < nodeCount; i++) {
+                order[i] = current[c.order[i]];
+            }
+            renumber(order);
+            for (int i = 0; i < nodeCount; i++) {
+                nodeArrays.setX(i, c.x[i]);
+                nodeArrays.setY(i, c.y[i]);
+                if (is3d) {
+                    nodeArrays.setZ(i, c.z[i]);
+                }
+                nodeArrays.setForce(i, c.dx[i], c.dy[i], is3d ? c.dz[i] : 0);
+            }
+            if (c.treeOrder != null) {
+                barnesHutTree.setOrder(c.treeOrder);
+            }
+        } else {
+            for (int i = 0; i < nodeCount; i++) {
+                ForceAtlas2LayoutData nLayout = nodes[i].getLayoutData();
+                nodes[i].setX(c.x[i]);
+                nodes[i].setY(c.y[i]);
+                nLayout.setDx(c.dx[i]);
+                nLayout.setDy(c.dy[i]);
+                if (is3d) {
+                    nodes[i].setZ(c.z[i]);
+                    nLayout.setDz(c.dz[i]);
+                }
+            }
+        }
+    }
+
+    private long endPhase(Phase phase, long start) {
+        long end = System.nanoTime();
+        phaseTimes[phase.ordinal()] = end - start;
+        if (events != null) {
+            events.endPhase(phase);
+        }
+        return end;
+    }
+
+    /**
+     * @return duration in nanoseconds of the given phase during the last iteration
+     */
+    public long getPhaseTime(Phase phase) {
+        return phaseTimes[phase.ordinal()];
+    }
+
+    /**
+     * Copies the positions of the array engine back to the graph nodes. Does nothing when the array engine is off,
+     * since nodes are then updated at every iteration. For a graph loaded without Gephi, renumbers the arrays back
+     * to the loaded order instead.
+     */
+    public void writePositions() {
+        if (nodeArrays != null && nodes != null) {
+            nodeArrays.writePositions(nodes);
+        } else if (nodeArrays != null && loadedOrder != null) {
+            // Node i becomes the former node holding loaded node i
+            int[] inverse = MortonOrder.inverse(loadedOrder);
+            nodeArrays.permute(inverse);
+            edgeArrays.renumber(loadedOrder);
+            if (costZones != null) {
+                costZones.permute(inverse);
+            }
+            barnesHutTree.resetOrder();
+            renumbered = true;
+            for (int i = 0; i < nodeCount; i++) {
+                loadedOrder[i] = i;
+            }
+        }
+    }
+
+    /**
+     * Lays out a graph loaded without Gephi, e.g. by {@link EdgeListLoader}, instead of the graph model: the array
+     * engine then runs on the given arrays, whatever {@link #setArrayEngine(boolean)}, and single precision or off
+     * heap storage are chosen when creating them, see {@link NodeArrays#fromEdges} and {@link EdgeArrays#offHeap}.
+     * Positions are read from and
+     * written to nodeArrays, in the loaded order once {@link #endAlgo()} returns.
+     */
+    public void setGraphArrays(NodeArrays nodeArrays, EdgeArrays edgeArrays) {
+        this.loadedNodeArrays = nodeArrays;
+        this.loadedEdgeArrays = edgeArrays;
+        this.loadedOrder = null;
+        // Same trick as setGraphModel()
+        resetPropertiesValues();
+    }
+
     @Override
     public boolean canAlgo() {
-        return graphModel != null;
+        return !stopRequested && (graphModel != null || loadedNodeArrays != null);
+    }
+
+    /**
+     * Makes {@link #canAlgo()} return false once the current iteration is done, e.g. from the MBean. Safe to call from
+     * any thread.
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
     }
 
     @Override
@@ -393,7 +1141,13 @@ public class ForceAtlas2 implements Layout {
 //            n.setLayoutData(null);
 //        }
 
+        monitor.unregister();
+        writePositions();
         pool.shutdown();
+        if (workerTeam != null) {
+            workerTeam.shutdown();
+            workerTeam = null;
+        }
     }
 
     @Override
@@ -402,6 +1156,8 @@ public class ForceAtlas2 implements Layout {
 
         if (graphModel != null) {
             nodesCount = graphModel.getGraphVisible().getNodeCount();
+        } else if (loadedNodeArrays != null) {
+            nodesCount = loadedNodeArrays.size;
         }
 
         // Tuning
@@ -547,6 +1303,101 @@ public class ForceAtlas2 implements Layout {
         this.barnesHutSplits = barnesHutSplits;
     }
 
+    public AttractionMode getAttractionMode() {
+        return attractionMode;
+    }
+
+    public void setAttractionMode(AttractionMode attractionMode) {
+        this.attractionMode = attractionMode;
+    }
+
+    public int getMortonOrderIter() {
+        return mortonOrderIter;
+    }
+
+    /**
+     * Renumbers nodes of the array engine in Z-order of their position every mortonOrderIter iterations, so that
+     * nodes close in space are close in memory and in thread ranges. 0 disables renumbering.
+     */
+    public void setMortonOrderIter(int mortonOrderIter) {
+        this.mortonOrderIter = mortonOrderIter;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * Stores forces, forces of the previous iteration, attraction buffers and Barnes Hut cell aggregates of the array
+     * engine as floats, like positions, to halve the memory traffic on large graphs. Each force addition is computed in
+     * double and rounded when stored, and speed and distance totals are still summed in doubles.
+     */
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Stores the node state, edges, Barnes Hut tree and force buffers of the array engine off heap, see
+     * {@link NodeArrays}. Direct buffers count against -XX:MaxDirectMemorySize, see {@link #setOffHeapFile(File)} to
+     * map them from files instead.
+     */
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    public File getOffHeapFile() {
+        return offHeapFile;
+    }
+
+    /**
+     * Scratch file the off heap node state is mapped from, paged by the operating system, or null for direct buffers.
+     * Edges, the tree and force buffers are mapped from files next to it, named with a suffix. The files are
+     * overwritten, and deleted on exit.
+     */
+    public void setOffHeapFile(File offHeapFile) {
+        this.offHeapFile = offHeapFile;
+    }
+
+    public boolean isCostZones() {
+        return useCostZones;
+    }
+
+    /**
+     * Splits nodes into repulsion thread ranges of about equal cost, measured as force evaluations per node in the
+     * previous iteration, instead of equal node counts.
+     */
+    public void setCostZones(boolean useCostZones) {
+        this.useCostZones = useCostZones;
+    }
+
+    public boolean isWorkerTeam() {
+        return useWorkerTeam;
+    }
+
+    /**
+     * Runs each iteration of the array engine on a team of long-lived threads moving through the phases in lockstep,
+     * instead of submitting tasks to the thread pool for each phase. Ignored without the array engine.
+     */
+    public void setWorkerTeam(boolean useWorkerTeam) {
+        this.useWorkerTeam = useWorkerTeam;
+    }
+
+    public boolean isArrayEngine() {
+        return arrayEngine;
+    }
+
+    /**
+     * Runs all phases on primitive arrays copied from the graph at {@link #initAlgo()}. Node positions are then only
+     * written back at {@link #endAlgo()} or {@link #writePositions()}.
+     */
+    public void setArrayEngine(boolean arrayEngine) {
+        this.arrayEngine = arrayEngine;
+    }
+
     @Override
     public LayoutProperty[] getProperties() {
         List<LayoutProperty> properties = new ArrayList<>();
@@ -672,6 +1523,13 @@ public class ForceAtlas2 implements Layout {
                 ", updateBarnesHutIter=" + updateBarnesHutIter +
                 ", updateCenter=" + updateCenter +
                 ", barnesHutSplits=" + barnesHutSplits +
+                ", arrayEngine=" + arrayEngine +
+                ", attractionMode=" + attractionMode +
+                ", mortonOrderIter=" + mortonOrderIter +
+                ", workerTeam=" + useWorkerTeam +
+                ", costZones=" + useCostZones +
+                ", singlePrecision=" + singlePrecision +
+                ", offHeap=" + offHeap +
                 '}';
     }
 
@@ -792,18 +1650,16 @@ public class ForceAtlas2 implements Layout {
         }
     }
 
-    private static class BarnesHutUpdateCenterTask implements Runnable {
+    private static class BarnesHutRefitTask implements Runnable {
         private Collection<Region> regions;
-        private boolean recursive;
 
-        private BarnesHutUpdateCenterTask(Collection<Region> regions, boolean recursive) {
+        private BarnesHutRefitTask(Collection<Region> regions) {
             this.regions = regions;
-            this.recursive = recursive;
         }
 
         public void run() {
             for (Region r : regions) {
-                r.updateAllMassAndGeometry(recursive);
+                r.refit(true);
             }
         }
     }
@@ -857,4 +1713,200 @@ public class ForceAtlas2 implements Layout {
         }
 
     }
+
+    private static class ArraySpeedTask implements Callable<Double[]> {
+        private final NodeArrays a;
+        private final int from;
+        private final int to;
+
+        private ArraySpeedTask(NodeArrays a, int from, int to) {
+            this.a = a;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Double[] call() {
+            double[] totals = new double[2];
+            totals(a, from, to, totals, 0);
+            return new Double[]{totals[0], totals[1]};
+        }
+
+        /**
+         * Stores total swinging and total effective traction of nodes from to to in out[slot] and out[slot + 1].
+         */
+        static void totals(NodeArrays a, int from, int to, double[] out, int slot) {
+            double totalSwinging = 0d;  // How much irregular movement
+            double totalEffectiveTraction = 0d;  // Hom much useful movement
+            for (int n = from; n < to; n++) {
+                if (!a.isFixed(n)) {
+                    double sx = a.oldDx(n) - a.dx(n);
+                    double sy = a.oldDy(n) - a.dy(n);
+                    double sz = a.is3d ? a.oldDz(n) - a.dz(n) : 0;
+                    double tx = a.oldDx(n) + a.dx(n);
+                    double ty = a.oldDy(n) + a.dy(n);
+                    double tz = a.is3d ? a.oldDz(n) + a.dz(n) : 0;
+                    totalSwinging += a.mass(n) * Math.sqrt(sx * sx + sy * sy + sz * sz);   // If the node has a burst change of direction, then it's not converging.
+                    totalEffectiveTraction += a.mass(n) * 0.5 * Math.sqrt(tx * tx + ty * ty + tz * tz);
+                }
+            }
+            out[slot] = totalSwinging;
+            out[slot + 1] = totalEffectiveTraction;
+        }
+    }
+
+    private static class ArrayInitLayoutTask implements Runnable {
+        private final NodeArrays a;
+        private final int from;
+        private final int to;
+
+        private ArrayInitLayoutTask(NodeArrays a, int from, int to) {
+            this.a = a;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void run() {
+            a.saveForces(from, to);
+        }
+    }
+
+    private static class ArrayApplyForcesTask implements Callable<Double> {
+
+        private final NodeArrays a;
+        private final int from;
+        private final int to;
+        private final boolean adjustSizes;
+        private final double speed;
+        private final boolean useAltSpeed;
+
+        private ArrayApplyForcesTask(NodeArrays a, int from, int to, boolean adjustSizes, double speed, boolean useAltSpeed) {
+            this.a = a;
+            this.from = from;
+            this.to = to;
+            this.adjustSizes = adjustSizes;
+            this.speed = speed;
+            this.useAltSpeed = useAltSpeed;
+        }
+
+        public Double call() {
+            return apply(a, from, to, adjustSizes, speed, useAltSpeed);
+        }
+
+        static double apply(NodeArrays a, int from, int to, boolean adjustSizes, double speed, boolean useAltSpeed) {
+            double distance = 0;
+            for (int n = from; n < to; n++) {
+                if (a.isFixed(n)) {
+                    continue;
+                }
+                double dx = a.dx(n);
+                double dy = a.dy(n);
+                double dz = a.is3d ? a.dz(n) : 0;
+                double sx = a.oldDx(n) - dx;
+                double sy = a.oldDy(n) - dy;
+                double sz = a.is3d ? a.oldDz(n) - dz : 0;
+
+                // Adaptive auto-speed: the speed of each node is lowered
+                // when the node swings.
+                double swinging = a.mass(n) * Math.sqrt(sx * sx + sy * sy + sz * sz);
+                double factor;
+                if (adjustSizes) {
+                    // If nodes overlap prevention is active, it's not possible to trust the swinging measure.
+                    factor = 0.1 * speed / (1f + Math.sqrt(speed * swinging));
+                    double df = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                    factor = Math.min(factor * df, 10.) / df;
+                } else {
+                    factor = speed / (1f + Math.sqrt(speed * swinging));
+                    if (useAltSpeed) {
+                        factor = Math.min(0.1 * factor, 10.0 / Math.sqrt(dx * dx + dy * dy + dz * dz));
+                    }
+                }
+
+                a.setX(n, (float) (a.x(n) + dx * factor));
+                a.setY(n, (float) (a.y(n) + dy * factor));
+                if (a.is3d) {
+                    a.setZ(n, (float) (a.z(n) + dz * factor));
+                }
+                distance += Math.sqrt(dx * factor * dx * factor + dy * factor * dy * factor + dz * factor * dz * factor);
+            }
+            return distance;
+        }
+    }
+
+    private static class ArrayBarnesHutTask implements Runnable {
+        private final BarnesHutTree tree;
+        private final Collection<Integer> regions;
+        private final boolean recursive;
+
+        private ArrayBarnesHutTask(BarnesHutTree tree, Collection<Integer> regions, boolean recursive) {
+            this.tree = tree;
+            this.regions = regions;
+            this.recursive = recursive;
+        }
+
+        public void run() {
+            for (int r : regions) {
+                tree.buildSubRegions(r, recursive);
+            }
+        }
+    }
+
+    private static class ArrayBarnesHutRefitTask implements Runnable {
+        private final BarnesHutTree tree;
+        private final Collection<Integer> regions;
+
+        private ArrayBarnesHutRefitTask(BarnesHutTree tree, Collection<Integer> regions) {
+            this.tree = tree;
+            this.regions = regions;
+        }
+
+        public void run() {
+            for (int r : regions) {
+                tree.refit(r, true);
+            }
+        }
+    }
+
+    private static class ArrayAttractionTask implements Runnable {
+        private final NodeArrays a;
+        private final EdgeArrays edges;
+        private final int from;
+        private final int to;
+        private final ForceFactory.AttractionForce Attraction;
+        private final ForceBuffer buffer;
+
+        private ArrayAttractionTask(NodeArrays a, EdgeArrays edges, int from, int to, ForceFactory.AttractionForce attraction, ForceBuffer buffer) {
+            this.a = a;
+            this.edges = edges;
+            this.from = from;
+            this.to = to;
+            Attraction = attraction;
+            this.buffer = buffer;
+        }
+
+        public void run() {
+            if (buffer != null) {
+                Attraction.apply(a, edges, from, to, buffer);
+            } else {
+                Attraction.apply(a, edges, from, to);
+            }
+        }
+    }
+
+    private static class ForceBufferReduceTask implements Runnable {
+        private final ForceBuffer[] buffers;
+        private final NodeArrays a;
+        private final int from;
+        private final int to;
+
+        private ForceBufferReduceTask(ForceBuffer[] buffers, NodeArrays a, int from, int to) {
+            this.buffers = buffers;
+            this.a = a;
+            this.from = from;
+            this.to = to;
+        }
+
+        public void run() {
+            ForceBuffer.reduce(buffers, a, from, to);
+        }
+    }
 }
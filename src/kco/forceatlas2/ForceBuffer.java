@@ -0,0 +1,176 @@
+package kco.forceatlas2;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Thread-private force accumulator covering all nodes, used by buffered attraction. Each attraction task adds into
+ * its own buffer without synchronization, and buffers are then summed into the node arrays and cleared. Buffers of
+ * off heap node arrays are off heap too, mapped next to their scratch file if any, and buffers of single precision
+ * node arrays store floats, like their forces.
+ */
+public class ForceBuffer {
+
+    final double[] dx;
+    final double[] dy;
+    final double[] dz;
+    final float[] dx32;
+    final float[] dy32;
+    final float[] dz32;
+    private final DoubleBuffer dxBuffer;
+    private final DoubleBuffer dyBuffer;
+    private final DoubleBuffer dzBuffer;
+    private final FloatBuffer dx32Buffer;
+    private final FloatBuffer dy32Buffer;
+    private final FloatBuffer dz32Buffer;
+
+    public ForceBuffer(int size, boolean is3d) {
+        dx = new double[size];
+        dy = new double[size];
+        dz = is3d ? new double[size] : null;
+        dx32 = null;
+        dy32 = null;
+        dz32 = null;
+        dxBuffer = null;
+        dyBuffer = null;
+        dzBuffer = null;
+        dx32Buffer = null;
+        dy32Buffer = null;
+        dz32Buffer = null;
+    }
+
+    /**
+     * Buffer for the nodes of a, the index-th of the layout, which names its scratch file when a is mapped from one.
+     */
+    public ForceBuffer(NodeArrays a, int index) {
+        boolean heap = !a.offHeap;
+        boolean single = a.singlePrecision;
+        dx = heap && !single ? new double[a.size] : null;
+        dy = heap && !single ? new double[a.size] : null;
+        dz = heap && !single && a.is3d ? new double[a.size] : null;
+        dx32 = heap && single ? new float[a.size] : null;
+        dy32 = heap && single ? new float[a.size] : null;
+        dz32 = heap && single && a.is3d ? new float[a.size] : null;
+        if (heap) {
+            dxBuffer = null;
+            dyBuffer = null;
+            dzBuffer = null;
+            dx32Buffer = null;
+            dy32Buffer = null;
+            dz32Buffer = null;
+            return;
+        }
+        Allocator allocator = new Allocator(a.file, ".forces" + index);
+        try {
+            dxBuffer = !single ? allocator.doubles(a.size) : null;
+            dyBuffer = !single ? allocator.doubles(a.size) : null;
+            dzBuffer = !single && a.is3d ? allocator.doubles(a.size) : null;
+            dx32Buffer = single ? allocator.floats(a.size) : null;
+            dy32Buffer = single ? allocator.floats(a.size) : null;
+            dz32Buffer = single && a.is3d ? allocator.floats(a.size) : null;
+        } finally {
+            allocator.close();
+        }
+    }
+
+    void add(int n, double ddx, double ddy, double ddz) {
+        if (dx != null) {
+            dx[n] += ddx;
+            dy[n] += ddy;
+            if (dz != null) {
+                dz[n] += ddz;
+            }
+        } else if (dx32 != null) {
+            dx32[n] += ddx;
+            dy32[n] += ddy;
+            if (dz32 != null) {
+                dz32[n] += ddz;
+            }
+        } else if (dxBuffer != null) {
+            dxBuffer.put(n, dxBuffer.get(n) + ddx);
+            dyBuffer.put(n, dyBuffer.get(n) + ddy);
+            if (dzBuffer != null) {
+                dzBuffer.put(n, dzBuffer.get(n) + ddz);
+            }
+        } else {
+            dx32Buffer.put(n, (float) (dx32Buffer.get(n) + ddx));
+            dy32Buffer.put(n, (float) (dy32Buffer.get(n) + ddy));
+            if (dz32Buffer != null) {
+                dz32Buffer.put(n, (float) (dz32Buffer.get(n) + ddz));
+            }
+        }
+    }
+
+    /**
+     * Adds the buffered forces of nodes from to to into the node arrays, and clears them in the buffers.
+     */
+    static void reduce(ForceBuffer[] buffers, NodeArrays a, int from, int to) {
+        for (ForceBuffer b : buffers) {
+            if (b.dx32 != null) {
+                b.reduce32(a, from, to);
+                continue;
+            }
+            if (b.dx == null) {
+                b.reduceBuffers(a, from, to);
+                continue;
+            }
+            for (int n = from; n < to; n++) {
+                a.addDx(n, b.dx[n]);
+                a.addDy(n, b.dy[n]);
+                b.dx[n] = 0;
+                b.dy[n] = 0;
+            }
+            if (a.is3d) {
+                for (int n = from; n < to; n++) {
+                    a.addDz(n, b.dz[n]);
+                    b.dz[n] = 0;
+                }
+            }
+        }
+    }
+
+    private void reduce32(NodeArrays a, int from, int to) {
+        for (int n = from; n < to; n++) {
+            a.addDx(n, dx32[n]);
+            a.addDy(n, dy32[n]);
+            dx32[n] = 0;
+            dy32[n] = 0;
+        }
+        if (a.is3d) {
+            for (int n = from; n < to; n++) {
+                a.addDz(n, dz32[n]);
+                dz32[n] = 0;
+            }
+        }
+    }
+
+    private void reduceBuffers(NodeArrays a, int from, int to) {
+        if (dx32Buffer != null) {
+            for (int n = from; n < to; n++) {
+                a.addDx(n, dx32Buffer.get(n));
+                a.addDy(n, dy32Buffer.get(n));
+                dx32Buffer.put(n, 0);
+                dy32Buffer.put(n, 0);
+            }
+            if (a.is3d) {
+                for (int n = from; n < to; n++) {
+                    a.addDz(n, dz32Buffer.get(n));
+                    dz32Buffer.put(n, 0);
+                }
+            }
+            return;
+        }
+        for (int n = from; n < to; n++) {
+            a.addDx(n, dxBuffer.get(n));
+            a.addDy(n, dyBuffer.get(n));
+            dxBuffer.put(n, 0);
+            dyBuffer.put(n, 0);
+        }
+        if (a.is3d) {
+            for (int n = from; n < to; n++) {
+                a.addDz(n, dzBuffer.get(n));
+                dzBuffer.put(n, 0);
+            }
+        }
+    }
+}
@@ -103,6 +103,140 @@ public class ForceFactory {
     public abstract class AttractionForce {
 
         public abstract void apply(Node n1, Node n2, double e); // Model for node-node attraction (e is for edge weight if needed)
+
+        // Model for node-node attraction on node arrays, returns force / distance (0 when the nodes do not attract)
+        public abstract double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e);
+
+        public void apply(NodeArrays a, int n1, int n2, double e) {
+            double xDist = a.x(n1) - a.x(n2);
+            double yDist = a.y(n1) - a.y(n2);
+            double zDist = a.is3d ? a.z(n1) - a.z(n2) : 0;
+            double factor = factor(a, n1, n2, xDist, yDist, zDist, e);
+            if (factor != 0) {
+                a.augment(n1, xDist * factor, yDist * factor, zDist * factor);
+                a.augment(n2, -xDist * factor, -yDist * factor, -zDist * factor);
+            }
+        }
+
+        // Model for the attraction of the edges from to to of the edge arrays
+        public void apply(NodeArrays a, EdgeArrays edges, int from, int to) {
+            if (edges.offHeap) {
+                for (int i = from; i < to; i++) {
+                    apply(a, edges.source(i), edges.target(i), edges.weight(i));
+                }
+                return;
+            }
+            int[] source = edges.source;
+            int[] target = edges.target;
+            for (int i = from; i < to; i++) {
+                apply(a, source[i], target[i], edges.weight(i));
+            }
+        }
+
+        // Model for the attraction of all edges of node n, in and out, only n is updated. Needs the incoming edges index.
+        public void apply(NodeArrays a, EdgeArrays edges, int n) {
+            double ddx = 0;
+            double ddy = 0;
+            double ddz = 0;
+            for (int i = edges.offset(n), end = edges.offset(n + 1); i < end; i++) {
+                int n2 = edges.target(i);
+                double xDist = a.x(n) - a.x(n2);
+                double yDist = a.y(n) - a.y(n2);
+                double zDist = a.is3d ? a.z(n) - a.z(n2) : 0;
+                double factor = factor(a, n, n2, xDist, yDist, zDist, edges.weight(i));
+                ddx += xDist * factor;
+                ddy += yDist * factor;
+                ddz += zDist * factor;
+            }
+            for (int k = edges.inOffset(n), end = edges.inOffset(n + 1); k < end; k++) {
+                int i = edges.inEdge(k);
+                int n1 = edges.source(i);
+                double xDist = a.x(n1) - a.x(n);
+                double yDist = a.y(n1) - a.y(n);
+                double zDist = a.is3d ? a.z(n1) - a.z(n) : 0;
+                double factor = factor(a, n1, n, xDist, yDist, zDist, edges.weight(i));
+                ddx -= xDist * factor;
+                ddy -= yDist * factor;
+                ddz -= zDist * factor;
+            }
+            a.addDx(n, ddx);
+            a.addDy(n, ddy);
+            if (a.is3d) {
+                a.addDz(n, ddz);
+            }
+        }
+
+        // Same as above, but forces are added without synchronization to a buffer owned by the calling thread
+        public void apply(NodeArrays a, EdgeArrays edges, int from, int to, ForceBuffer buffer) {
+            if (edges.offHeap || buffer.dx == null && buffer.dx32 == null) {
+                applyBuffers(a, edges, from, to, buffer);
+                return;
+            }
+            if (buffer.dx32 != null) {
+                apply32(a, edges, from, to, buffer);
+                return;
+            }
+            int[] source = edges.source;
+            int[] target = edges.target;
+            double[] bdx = buffer.dx;
+            double[] bdy = buffer.dy;
+            double[] bdz = buffer.dz;
+            for (int i = from; i < to; i++) {
+                int n1 = source[i];
+                int n2 = target[i];
+                double xDist = a.x(n1) - a.x(n2);
+                double yDist = a.y(n1) - a.y(n2);
+                double zDist = a.is3d ? a.z(n1) - a.z(n2) : 0;
+                double factor = factor(a, n1, n2, xDist, yDist, zDist, edges.weight(i));
+                bdx[n1] += xDist * factor;
+                bdy[n1] += yDist * factor;
+                bdx[n2] -= xDist * factor;
+                bdy[n2] -= yDist * factor;
+                if (a.is3d) {
+                    bdz[n1] += zDist * factor;
+                    bdz[n2] -= zDist * factor;
+                }
+            }
+        }
+
+        // Same as above, on single precision buffers
+        private void apply32(NodeArrays a, EdgeArrays edges, int from, int to, ForceBuffer buffer) {
+            int[] source = edges.source;
+            int[] target = edges.target;
+            float[] bdx = buffer.dx32;
+            float[] bdy = buffer.dy32;
+            float[] bdz = buffer.dz32;
+            for (int i = from; i < to; i++) {
+                int n1 = source[i];
+                int n2 = target[i];
+                double xDist = a.x(n1) - a.x(n2);
+                double yDist = a.y(n1) - a.y(n2);
+                double zDist = a.is3d ? a.z(n1) - a.z(n2) : 0;
+                double factor = factor(a, n1, n2, xDist, yDist, zDist, edges.weight(i));
+                bdx[n1] += xDist * factor;
+                bdy[n1] += yDist * factor;
+                bdx[n2] -= xDist * factor;
+                bdy[n2] -= yDist * factor;
+                if (a.is3d) {
+                    bdz[n1] += zDist * factor;
+                    bdz[n2] -= zDist * factor;
+                }
+            }
+        }
+
+        // Same as above, on off heap edges or buffers
+        private void applyBuffers(NodeArrays a, EdgeArrays edges, int from, int to, ForceBuffer buffer) {
+            for (int i = from; i < to; i++) {
+                int n1 = edges.source(i);
+                int n2 = edges.target(i);
+                double xDist = a.x(n1) - a.x(n2);
+                double yDist = a.y(n1) - a.y(n2);
+                double zDist = a.is3d ? a.z(n1) - a.z(n2) : 0;
+                double factor = factor(a, n1, n2, xDist, yDist, zDist, edges.weight(i));
+                buffer.add(n1, xDist * factor, yDist * factor, zDist * factor);
+                buffer.add(n2, -xDist * factor, -yDist * factor, -zDist * factor);
+            }
+        }
     }
 
     public abstract class RepulsionForce {
@@ -114,6 +248,43 @@ public class ForceFactory {
         public abstract void apply(Node n, double g);           // Model for gravitation (anti-repulsion)
 
         public abstract void apply_BH(Node n, Node o);             // Model for node-node repulsion in quadtree (BH), do not update both n and o
+
+        // Same models on node arrays. Only n is updated, so that threads never write to each other's nodes.
+
+        public abstract void apply(NodeArrays a, int n, int o);                 // Model for node-node repulsion
+
+        public abstract void apply(NodeArrays a, int n, double g);              // Model for gravitation (anti-repulsion)
+
+        // Barnes Hut models on node arrays, return force / distance (0 when n is not repulsed), so that a walk of the
+        // tree can sum the forces of n before adding them
+
+        public abstract double factor(NodeArrays a, int n, double mass, double xDist, double yDist, double zDist);  // Model for Barnes Hut approximation
+
+        public abstract double factor_BH(NodeArrays a, int n, int o, double xDist, double yDist, double zDist);    // Model for node-node repulsion in quadtree (BH)
+
+        public void apply(NodeArrays a, int n, double mass, double massCenterX, double massCenterY, double massCenterZ) {
+            double xDist = a.x(n) - massCenterX;
+            double yDist = a.y(n) - massCenterY;
+            double zDist = a.is3d ? a.z(n) - massCenterZ : 0;
+            add(a, n, xDist, yDist, zDist, factor(a, n, mass, xDist, yDist, zDist));
+        }
+
+        public void apply_BH(NodeArrays a, int n, int o) {
+            double xDist = a.x(n) - a.x(o);
+            double yDist = a.y(n) - a.y(o);
+            double zDist = a.is3d ? a.z(n) - a.z(o) : 0;
+            add(a, n, xDist, yDist, zDist, factor_BH(a, n, o, xDist, yDist, zDist));
+        }
+
+        private void add(NodeArrays a, int n, double xDist, double yDist, double zDist, double factor) {
+            if (factor != 0) {
+                a.addDx(n, xDist * factor);
+                a.addDy(n, yDist * factor);
+                if (a.is3d) {
+                    a.addDz(n, zDist * factor);
+                }
+            }
+        }
     }
 
     /*
@@ -213,6 +384,53 @@ public class ForceFactory {
                 nLayout.setDz(nLayout.getDz() + zDist * factor);
             }
         }
+
+        @Override
+        public void apply(NodeArrays a, int n, int o) {
+            apply_BH(a, n, o);
+        }
+
+        @Override
+        public double factor(NodeArrays a, int n, double mass, double xDist, double yDist, double zDist) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return coefficient * a.mass(n) * mass / distance / distance;
+            }
+            return 0;
+        }
+
+        @Override
+        public void apply(NodeArrays a, int n, double g) {
+            // Get the distance
+            double xDist = a.x(n);
+            double yDist = a.y(n);
+            double zDist = a.is3d ? a.z(n) : 0;
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+
+            if (distance > 0) {
+                // NB: factor = force / distance
+                double factor = coefficient * a.mass(n) * g / distance;
+
+                a.addDx(n, -xDist * factor);
+                a.addDy(n, -yDist * factor);
+                if (a.is3d) {
+                    a.addDz(n, -zDist * factor);
+                }
+            }
+        }
+
+        @Override
+        public double factor_BH(NodeArrays a, int n, int o, double xDist, double yDist, double zDist) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return coefficient * a.mass(n) * a.mass(o) / distance / distance;
+            }
+            return 0;
+        }
     }
 
     /*
@@ -327,6 +545,72 @@ public class ForceFactory {
                 nLayout.setDz(nLayout.getDz() + zDist * factor);
             }
         }
+
+        @Override
+        public void apply(NodeArrays a, int n, int o) {
+            // Get the distance
+            double xDist = a.x(n) - a.x(o);
+            double yDist = a.y(n) - a.y(o);
+            double zDist = a.is3d ? a.z(n) - a.z(o) : 0;
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) - a.nodeSize(n) - a.nodeSize(o);
+
+            double factor;
+            if (distance > 0) {
+                // NB: factor = force / distance
+                factor = coefficient * a.mass(n) * a.mass(o) / distance / distance;
+            } else if (distance < 0) {
+                factor = 100 * coefficient * a.mass(n) * a.mass(o);
+            } else {
+                return;
+            }
+            a.addDx(n, xDist * factor);
+            a.addDy(n, yDist * factor);
+            if (a.is3d) {
+                a.addDz(n, zDist * factor);
+            }
+        }
+
+        @Override
+        public double factor(NodeArrays a, int n, double mass, double xDist, double yDist, double zDist) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return coefficient * a.mass(n) * mass / distance / distance;
+            }
+            return 0;
+        }
+
+        @Override
+        public void apply(NodeArrays a, int n, double g) {
+            // Get the distance
+            double xDist = a.x(n);
+            double yDist = a.y(n);
+            double zDist = a.is3d ? a.z(n) : 0;
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+
+            if (distance > 0) {
+                // NB: factor = force / distance
+                double factor = coefficient * a.mass(n) * g / distance;
+
+                a.addDx(n, -xDist * factor);
+                a.addDy(n, -yDist * factor);
+                if (a.is3d) {
+                    a.addDz(n, -zDist * factor);
+                }
+            }
+        }
+
+        @Override
+        public double factor_BH(NodeArrays a, int n, int o, double xDist, double yDist, double zDist) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) - a.nodeSize(n) - a.nodeSize(o);
+
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return coefficient * a.mass(n) * a.mass(o) / distance / distance;
+            }
+            return 0;
+        }
     }
 
     private class strongGravity extends RepulsionForce {
@@ -371,6 +655,43 @@ public class ForceFactory {
         public void apply_BH(Node n, Node o) {
             // Not Relevant
         }
+
+        @Override
+        public void apply(NodeArrays a, int n, int o) {
+            // Not Relevant
+        }
+
+        @Override
+        public double factor(NodeArrays a, int n, double mass, double xDist, double yDist, double zDist) {
+            // Not Relevant
+            return 0;
+        }
+
+        @Override
+        public void apply(NodeArrays a, int n, double g) {
+            // Get the distance
+            double xDist = a.x(n);
+            double yDist = a.y(n);
+            double zDist = a.is3d ? a.z(n) : 0;
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+
+            if (distance > 0) {
+                // NB: factor = force / distance
+                double factor = coefficient * a.mass(n) * g;
+
+                a.addDx(n, -xDist * factor);
+                a.addDy(n, -yDist * factor);
+                if (a.is3d) {
+                    a.addDz(n, -zDist * factor);
+                }
+            }
+        }
+
+        @Override
+        public double factor_BH(NodeArrays a, int n, int o, double xDist, double yDist, double zDist) {
+            // Not Relevant
+            return 0;
+        }
     }
 
     /*
@@ -417,6 +738,12 @@ public class ForceFactory {
             //     System.out.println("after (" + n1.getId() + ") " + n2Layout.getDx() + " " + n2Layout.getDy());
             // }
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            // NB: factor = force / distance
+            return -coefficient * e;
+        }
     }
 
     /*
@@ -451,6 +778,12 @@ public class ForceFactory {
             n2Layout.augmentDy(- yDist * factor);
             n2Layout.augmentDz(- zDist * factor);
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            // NB: factor = force / distance
+            return -coefficient * e / a.mass(n1);
+        }
     }
 
     /*
@@ -489,6 +822,16 @@ public class ForceFactory {
                 n2Layout.augmentDz(- zDist * factor);
             }
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return -coefficient * e * Math.log(1 + distance) / distance;
+            }
+            return 0;
+        }
     }
 
     /*
@@ -527,6 +870,16 @@ public class ForceFactory {
                 n2Layout.augmentDz(- zDist * factor);
             }
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist);
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return -coefficient * e * Math.log(1 + distance) / distance / a.mass(n1);
+            }
+            return 0;
+        }
     }
 
     /*
@@ -564,6 +917,16 @@ public class ForceFactory {
                 n2Layout.augmentDz(- zDist * factor);
             }
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) - a.nodeSize(n1) - a.nodeSize(n2);
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return -coefficient * e;
+            }
+            return 0;
+        }
     }
 
     /*
@@ -601,6 +964,16 @@ public class ForceFactory {
                 n2Layout.augmentDz(- zDist * factor);
             }
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) - a.nodeSize(n1) - a.nodeSize(n2);
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return -coefficient * e / a.mass(n1);
+            }
+            return 0;
+        }
     }
 
     /*
@@ -639,6 +1012,16 @@ public class ForceFactory {
                 n2Layout.augmentDz(- zDist * factor);
             }
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) - a.nodeSize(n1) - a.nodeSize(n2);
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return -coefficient * e * Math.log(1 + distance) / distance;
+            }
+            return 0;
+        }
     }
 
     /*
@@ -677,5 +1060,15 @@ public class ForceFactory {
                 n2Layout.augmentDz(- zDist * factor);
             }
         }
+
+        @Override
+        public double factor(NodeArrays a, int n1, int n2, double xDist, double yDist, double zDist, double e) {
+            double distance = Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) - a.nodeSize(n1) - a.nodeSize(n2);
+            if (distance > 0) {
+                // NB: factor = force / distance
+                return -coefficient * e * Math.log(1 + distance) / distance / a.mass(n1);
+            }
+            return 0;
+        }
     }
 }
@@ -0,0 +1,251 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary cache of a loaded graph, so that repeated layouts of the same input skip parsing. The file holds a header,
+ * then the edges in compressed sparse row order (node offsets, targets, and weights if any), then the node IDs
+ * (offsets and UTF-8 bytes), all little endian:
+ * <pre>
+ * int magic, int version, int nodeCount, int edgeCount, int flags, int 0, long idBytes,
+ * long input size, long input modification time, padding to 64 bytes
+ * int[nodeCount + 1] offsets, int[edgeCount] targets, double[edgeCount] weights,
+ * int[nodeCount + 1] ID offsets, byte[idBytes] IDs
+ * </pre>
+ * The flags hold whether edges are weighted, and how the input was read: direction, input format and matrix merge
+ * mode. The cache is valid while the size and modification time of the input match the header, and the graph was
+ * read the same way. Sections are read through memory mappings of at most 1GB, straight into the arrays.
+ */
+public class GraphCache {
+
+    private static final int MAGIC = 0x46413247;
+    private static final int VERSION = 2;
+    private static final int HEADER = 64;
+    private static final int WEIGHTED = 1;
+    private static final int DIRECTED = 2;
+    // Input format and matrix merge mode in the flags, each 1 + its index, 0 for no merge
+    private static final List<String> INPUT_FORMATS = Arrays.asList("gephi", "edgelist", "mtx", "csr");
+    private static final int FORMAT_SHIFT = 4;
+    private static final int MERGE_SHIFT = 8;
+    private static final int WINDOW = 1 << 30;
+    private static final int BUFFER = 1 << 20;
+
+    private GraphCache() {
+    }
+
+    // Flags of how the input was read, all flags but WEIGHTED
+    private static int readFlags(boolean directed, String inputFormat, MatrixLoader.Merge merge) {
+        return (directed ? DIRECTED : 0) | (INPUT_FORMATS.indexOf(inputFormat) + 1) << FORMAT_SHIFT
+                | (merge != null ? merge.ordinal() + 1 : 0) << MERGE_SHIFT;
+    }
+
+    /**
+     * Whether cache is a valid cache of input, read with the given direction, input format and matrix merge mode,
+     * null for inputs other than matrices.
+     */
+    public static boolean isValid(File cache, File input, boolean directed, String inputFormat, MatrixLoader.Merge merge) {
+        if (!cache.isFile() || cache.length() < HEADER) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = header(channel);
+            return header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                    && (header.getInt(16) & ~WEIGHTED) == readFlags(directed, inputFormat, merge)
+                    && header.getLong(32) == input.length() && header.getLong(40) == input.lastModified();
+        } catch (IOException x) {
+            x.printStackTrace();
+            return false;
+        }
+    }
+
+    public static ArrayGraph read(File cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = header(channel);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException(cache + " is not a graph cache");
+            }
+            int nodeCount = header.getInt(8);
+            int edgeCount = header.getInt(12);
+            boolean weighted = (header.getInt(16) & WEIGHTED) != 0;
+            long idBytes = header.getLong(24);
+            long position = HEADER;
+            int[] offsets = new int[nodeCount + 1];
+            position = read(channel, position, offsets);
+            int[] target = new int[edgeCount];
+            position = read(channel, position, target);
+            double[] weight = null;
+            if (weighted) {
+                weight = new double[edgeCount];
+                position = read(channel, position, weight);
+            }
+            int[] idOffsets = new int[nodeCount + 1];
+            position = read(channel, position, idOffsets);
+            byte[] bytes = new byte[(int) idBytes];
+            read(channel, position, bytes);
+            return new ArrayGraph(new IdDictionary(bytes, idOffsets, nodeCount), EdgeArrays.fromCsr(offsets, target, weight));
+        }
+    }
+
+    /**
+     * Writes graph, loaded from input as told by {@link #isValid}, to a temporary file renamed to cache once complete.
+     */
+    public static void write(ArrayGraph graph, File input, boolean directed, String inputFormat, MatrixLoader.Merge merge, File cache) throws IOException {
+        EdgeArrays edges = graph.getEdges();
+        IdDictionary ids = graph.getIds();
+        File tmp = new File(cache.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(ids.size()).putInt(edges.size)
+                    .putInt((edges.rawWeight != null ? WEIGHTED : 0) | readFlags(directed, inputFormat, merge)).putInt(0)
+                    .putLong(ids.byteCount).putLong(input.length()).putLong(input.lastModified());
+            while (buffer.position() < HEADER) {
+                buffer.put((byte) 0);
+            }
+            write(channel, buffer, edges.offsets, edges.offsets.length);
+            write(channel, buffer, edges.target, edges.size);
+            if (edges.rawWeight != null) {
+                write(channel, buffer, edges.rawWeight);
+            }
+            write(channel, buffer, ids.offsets, ids.size + 1);
+            for (int off = 0; off < ids.byteCount; off += BUFFER) {
+                int count = Math.min(BUFFER, ids.byteCount - off);
+                if (buffer.remaining() < count) {
+                    flush(channel, buffer);
+                }
+                buffer.put(ids.bytes, off, count);
+            }
+            flush(channel, buffer);
+        }
+        Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Graph of Gephi nodes and edges, with static weights, to cache a graph imported by Gephi.
+     */
+    public static ArrayGraph fromGraph(Node[] nodes, Edge[] edges) {
+        IdDictionary ids = new IdDictionary(nodes.length);
+        int maxStoreId = -1;
+        for (Node n : nodes) {
+            maxStoreId = Math.max(maxStoreId, n.getStoreId());
+        }
+        int[] nodeOrdinals = new int[maxStoreId + 1];
+        for (Node n : nodes) {
+            nodeOrdinals[n.getStoreId()] = ids.add(n.getId().toString());
+        }
+        int[] source = new int[edges.length];
+        int[] target = new int[edges.length];
+        double[] weight = new double[edges.length];
+        for (int i = 0; i < edges.length; i++) {
+            source[i] = nodeOrdinals[edges[i].getSource().getStoreId()];
+            target[i] = nodeOrdinals[edges[i].getTarget().getStoreId()];
+            weight[i] = edges[i].getWeight();
+        }
+        return new ArrayGraph(ids, EdgeArrays.fromArrays(ids.size(), source, target, weight));
+    }
+
+    static ByteBuffer header(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                break;
+            }
+        }
+        return header;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        return b;
+    }
+
+    static long read(FileChannel channel, long position, int[] dest) throws IOException {
+        for (int done = 0; done < dest.length; ) {
+            int count = Math.min(dest.length - done, WINDOW / 4);
+            map(channel, position + 4L * done, 4L * count).asIntBuffer().get(dest, done, count);
+            done += count;
+        }
+        return position + 4L * dest.length;
+    }
+
+    static long read(FileChannel channel, long position, float[] dest) throws IOException {
+        for (int done = 0; done < dest.length; ) {
+            int count = Math.min(dest.length - done, WINDOW / 4);
+            map(channel, position + 4L * done, 4L * count).asFloatBuffer().get(dest, done, count);
+            done += count;
+        }
+        return position + 4L * dest.length;
+    }
+
+    static long read(FileChannel channel, long position, double[] dest) throws IOException {
+        for (int done = 0; done < dest.length; ) {
+            int count = Math.min(dest.length - done, WINDOW / 8);
+            map(channel, position + 8L * done, 8L * count).asDoubleBuffer().get(dest, done, count);
+            done += count;
+        }
+        return position + 8L * dest.length;
+    }
+
+    static long read(FileChannel channel, long position, byte[] dest) throws IOException {
+        for (int done = 0; done < dest.length; ) {
+            int count = Math.min(dest.length - done, WINDOW);
+            map(channel, position + done, count).get(dest, done, count);
+            done += count;
+        }
+        return position + dest.length;
+    }
+
+    static void write(FileChannel channel, ByteBuffer buffer, int[] values, int length) throws IOException {
+        for (int off = 0; off < length; off += BUFFER / 4) {
+            int count = Math.min(BUFFER / 4, length - off);
+            if (buffer.remaining() < 4 * count) {
+                flush(channel, buffer);
+            }
+            buffer.asIntBuffer().put(values, off, count);
+            buffer.position(buffer.position() + 4 * count);
+        }
+    }
+
+    static void write(FileChannel channel, ByteBuffer buffer, float[] values) throws IOException {
+        for (int off = 0; off < values.length; off += BUFFER / 4) {
+            int count = Math.min(BUFFER / 4, values.length - off);
+            if (buffer.remaining() < 4 * count) {
+                flush(channel, buffer);
+            }
+            buffer.asFloatBuffer().put(values, off, count);
+            buffer.position(buffer.position() + 4 * count);
+        }
+    }
+
+    static void write(FileChannel channel, ByteBuffer buffer, double[] values) throws IOException {
+        for (int off = 0; off < values.length; off += BUFFER / 8) {
+            int count = Math.min(BUFFER / 8, values.length - off);
+            if (buffer.remaining() < 8 * count) {
+                flush(channel, buffer);
+            }
+            buffer.asDoubleBuffer().put(values, off, count);
+            buffer.position(buffer.position() + 8 * count);
+        }
+    }
+
+    static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,868 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Column;
+import org.gephi.graph.api.Edge;
+import org.gephi.graph.api.GraphModel;
+import org.gephi.graph.api.Node;
+import org.gephi.graph.api.Table;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a graph with its positions as GEXF, GraphML, a CSV node table and GDF, without the Gephi exporters. All requested formats
+ * are written together, in one pass over the nodes and one over the edges, GEXF and GraphML through StAX stream
+ * writers, so that only output buffers are held in memory. Positions and sizes are read from the nodes, or from the
+ * arrays of a graph loaded without Gephi, along with the edge IDs and labels, static attribute columns and colors of
+ * Gephi graphs. Edges of a graph loaded without Gephi are numbered in edge order. Dynamic columns and timesets are not
+ * written, see {@link #isStreamable}.
+ * <p>
+ * The nodecsv format is the node table (ID, label, position, size and attributes), as imported by the Gephi spreadsheet
+ * importer, in a .nodes.csv file. It is not the csv format of Gephi, the adjacency matrix written by ExporterCSV.
+ * Each file is written to a temporary file renamed once complete.
+ */
+public class GraphWriter {
+
+    public static final List<String> FORMATS = Arrays.asList("gexf", "graphml", "nodecsv", "gdf");
+
+    private static final String GEXF = "http://www.gexf.net/1.2draft";
+    private static final String VIZ = "http://www.gexf.net/1.2draft/viz";
+    private static final String GRAPHML = "http://graphml.graphdrawing.org/xmlns";
+    private static final int BUFFER = 1 << 20;
+
+    private GraphWriter() {
+    }
+
+    /**
+     * Whether a Gephi graph can be streamed without losing data: dynamic graphs, with dynamic columns or timesets, need
+     * the Gephi exporters. The nodecsv format, which only the streamed writer has, drops their dynamic columns.
+     */
+    public static boolean isStreamable(GraphModel model) {
+        return !model.isDynamic();
+    }
+
+    /**
+     * File extension of a format, without the leading dot.
+     */
+    public static String extension(String format) {
+        return format.equals("nodecsv") ? "nodes.csv" : format;
+    }
+
+    /**
+     * Writes a Gephi graph.
+     *
+     * @param files output file of each format
+     */
+    public static void write(Node[] nodes, Edge[] edges, Table nodeTable, Table edgeTable, boolean is3d, boolean directed, Map<String, File> files) throws IOException {
+        write(new GephiSource(nodes, edges, nodeTable, edgeTable, is3d, directed), files);
+    }
+
+    /**
+     * Writes a graph loaded without Gephi.
+     *
+     * @param files output file of each format
+     */
+    public static void write(IdDictionary ids, NodeArrays a, EdgeArrays edges, boolean is3d, boolean directed, Map<String, File> files) throws IOException {
+        write(new ArraySource(ids, a, edges, is3d, directed), files);
+    }
+
+    private static void write(Source source, Map<String, File> files) throws IOException {
+        List<Sink> sinks = new ArrayList<>();
+        List<File> tmps = new ArrayList<>();
+        try {
+            for (Map.Entry<String, File> e : files.entrySet()) {
+                File tmp = new File(e.getValue().getPath() + ".tmp");
+                tmps.add(tmp);
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER);
+                switch (e.getKey()) {
+                    case "gexf":
+                        sinks.add(new GexfSink(out));
+                        break;
+                    case "graphml":
+                        sinks.add(new GraphmlSink(out));
+                        break;
+                    case "nodecsv":
+                        sinks.add(new CsvSink(out));
+                        break;
+                    case "gdf":
+                        sinks.add(new GdfSink(out));
+                        break;
+                    default:
+                        out.close();
+                        throw new IllegalArgumentException("Unknown format " + e.getKey());
+                }
+            }
+            for (Sink sink : sinks) {
+                sink.begin(source);
+            }
+            for (int i = 0; i < source.nodeCount; i++) {
+                source.readNode(i);
+                for (Sink sink : sinks) {
+                    sink.node(source, i);
+                }
+            }
+            for (Sink sink : sinks) {
+                sink.beginEdges(source);
+            }
+            for (int k = 0; k < source.edgeCount; k++) {
+                source.readEdge(k);
+                for (Sink sink : sinks) {
+                    sink.edge(source, k);
+                }
+            }
+            for (Sink sink : sinks) {
+                sink.end(source);
+            }
+        } catch (XMLStreamException x) {
+            throw new IOException(x);
+        } finally {
+            for (Sink sink : sinks) {
+                sink.close();
+            }
+        }
+        int t = 0;
+        for (File file : files.values()) {
+            Files.move(tmps.get(t++).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Nodes, edges and attributes of a graph. The ID, label and attributes of the current node are read once by
+     * {@link #readNode} for all sinks, and the ID, label and end IDs of the current edge by {@link #readEdge}.
+     */
+    private abstract static class Source {
+
+        final int nodeCount;
+        final int edgeCount;
+        final boolean is3d;
+        final boolean directed;
+        final String[] nodeAttributes;
+        final Class<?>[] nodeTypes;
+        final String[] edgeAttributes;
+        final Class<?>[] edgeTypes;
+        String id;
+        String label;
+        final Object[] values;
+        String edgeId;
+        String edgeLabel;
+        String sourceId;
+        String targetId;
+
+        Source(int nodeCount, int edgeCount, boolean is3d, boolean directed, String[] nodeAttributes, Class<?>[] nodeTypes,
+               String[] edgeAttributes, Class<?>[] edgeTypes) {
+            this.nodeCount = nodeCount;
+            this.edgeCount = edgeCount;
+            this.is3d = is3d;
+            this.directed = directed;
+            this.nodeAttributes = nodeAttributes;
+            this.nodeTypes = nodeTypes;
+            this.edgeAttributes = edgeAttributes;
+            this.edgeTypes = edgeTypes;
+            this.values = new Object[nodeAttributes.length];
+        }
+
+        abstract void readNode(int i);
+
+        abstract float x(int i);
+
+        abstract float y(int i);
+
+        abstract float z(int i);
+
+        abstract float size(int i);
+
+        boolean hasColors() {
+            return false;
+        }
+
+        /**
+         * Red, green and blue of node i, from 0 to 255.
+         */
+        int color(int i, int c) {
+            return 0;
+        }
+
+        /**
+         * Whether edges have labels, null for the unlabeled ones.
+         */
+        boolean hasEdgeLabels() {
+            return false;
+        }
+
+        abstract void readEdge(int k);
+
+        abstract double weight(int k);
+
+        Object edgeValue(int k, int c) {
+            return null;
+        }
+    }
+
+    private static class GephiSource extends Source {
+
+        private final Node[] nodes;
+        private final Edge[] edges;
+        private final Column[] nodeColumns;
+        private final Column[] edgeColumns;
+
+        GephiSource(Node[] nodes, Edge[] edges, Table nodeTable, Table edgeTable, boolean is3d, boolean directed) {
+            this(nodes, edges, columns(nodeTable), columns(edgeTable), is3d, directed);
+        }
+
+        private GephiSource(Node[] nodes, Edge[] edges, Column[] nodeColumns, Column[] edgeColumns, boolean is3d, boolean directed) {
+            super(nodes.length, edges.length, is3d, directed, titles(nodeColumns), types(nodeColumns), titles(edgeColumns), types(edgeColumns));
+            this.nodes = nodes;
+            this.edges = edges;
+            this.nodeColumns = nodeColumns;
+            this.edgeColumns = edgeColumns;
+        }
+
+        // Static attribute columns, without the id, label, timeset and weight properties
+        private static Column[] columns(Table table) {
+            List<Column> columns = new ArrayList<>();
+            if (table != null) {
+                for (Column c : table) {
+                    if (!c.isProperty() && !c.isDynamic()) {
+                        columns.add(c);
+                    }
+                }
+            }
+            return columns.toArray(new Column[0]);
+        }
+
+        private static String[] titles(Column[] columns) {
+            String[] titles = new String[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                titles[c] = columns[c].getTitle();
+            }
+            return titles;
+        }
+
+        private static Class<?>[] types(Column[] columns) {
+            Class<?>[] types = new Class<?>[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                types[c] = columns[c].getTypeClass();
+            }
+            return types;
+        }
+
+        @Override
+        void readNode(int i) {
+            id = nodes[i].getId().toString();
+            label = nodes[i].getLabel();
+            for (int c = 0; c < nodeColumns.length; c++) {
+                values[c] = nodes[i].getAttribute(nodeColumns[c]);
+            }
+        }
+
+        @Override
+        float x(int i) {
+            return nodes[i].x();
+        }
+
+        @Override
+        float y(int i) {
+            return nodes[i].y();
+        }
+
+        @Override
+        float z(int i) {
+            return nodes[i].z();
+        }
+
+        @Override
+        float size(int i) {
+            return nodes[i].size();
+        }
+
+        @Override
+        boolean hasColors() {
+            return true;
+        }
+
+        @Override
+        int color(int i, int c) {
+            float v = c == 0 ? nodes[i].r() : c == 1 ? nodes[i].g() : nodes[i].b();
+            return Math.round(v * 255);
+        }
+
+        @Override
+        boolean hasEdgeLabels() {
+            return true;
+        }
+
+        @Override
+        void readEdge(int k) {
+            edgeId = edges[k].getId().toString();
+            edgeLabel = edges[k].getLabel();
+            sourceId = edges[k].getSource().getId().toString();
+            targetId = edges[k].getTarget().getId().toString();
+        }
+
+        @Override
+        double weight(int k) {
+            return edges[k].getWeight();
+        }
+
+        @Override
+        Object edgeValue(int k, int c) {
+            return edges[k].getAttribute(edgeColumns[c]);
+        }
+    }
+
+    private static class ArraySource extends Source {
+
+        private final IdDictionary ids;
+        private final NodeArrays a;
+        private final EdgeArrays edges;
+
+        ArraySource(IdDictionary ids, NodeArrays a, EdgeArrays edges, boolean is3d, boolean directed) {
+            super(a.size(), edges.size, is3d, directed, new String[0], new Class<?>[0], new String[0], new Class<?>[0]);
+            this.ids = ids;
+            this.a = a;
+            this.edges = edges;
+        }
+
+        @Override
+        void readNode(int i) {
+            id = ids.get(i);
+            label = null;
+        }
+
+        @Override
+        float x(int i) {
+            return a.x(i);
+        }
+
+        @Override
+        float y(int i) {
+            return a.y(i);
+        }
+
+        @Override
+        float z(int i) {
+            return a.z(i);
+        }
+
+        @Override
+        float size(int i) {
+            return a.nodeSize(i);
+        }
+
+        @Override
+        void readEdge(int k) {
+            edgeId = Integer.toString(k);
+            sourceId = ids.get(edges.source(k));
+            targetId = ids.get(edges.target(k));
+        }
+
+        @Override
+        double weight(int k) {
+            return edges.rawWeight(k);
+        }
+    }
+
+    private abstract static class Sink {
+
+        abstract void begin(Source s) throws IOException, XMLStreamException;
+
+        abstract void node(Source s, int i) throws IOException, XMLStreamException;
+
+        abstract void beginEdges(Source s) throws IOException, XMLStreamException;
+
+        abstract void edge(Source s, int k) throws IOException, XMLStreamException;
+
+        abstract void end(Source s) throws IOException, XMLStreamException;
+
+        abstract void close() throws IOException;
+    }
+
+    private abstract static class XmlSink extends Sink {
+
+        private final OutputStream out;
+        final XMLStreamWriter w;
+
+        XmlSink(OutputStream out) throws IOException {
+            this.out = out;
+            try {
+                w = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            } catch (XMLStreamException x) {
+                throw new IOException(x);
+            }
+        }
+
+        void attribute(String name, float v) throws XMLStreamException {
+            w.writeAttribute(name, Float.toString(v));
+        }
+
+        @Override
+        void close() throws IOException {
+            try {
+                w.close();
+            } catch (XMLStreamException x) {
+                throw new IOException(x);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static class GexfSink extends XmlSink {
+
+        GexfSink(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        private static String type(Class<?> c) {
+            if (c == Integer.class || c == Short.class || c == Byte.class) {
+                return "integer";
+            }
+            if (c == Long.class || c == Float.class || c == Double.class || c == Boolean.class) {
+                return c.getSimpleName().toLowerCase();
+            }
+            return "string";
+        }
+
+        private void attributes(String kind, String[] titles, Class<?>[] types) throws XMLStreamException {
+            if (titles.length == 0) {
+                return;
+            }
+            w.writeStartElement("attributes");
+            w.writeAttribute("class", kind);
+            for (int c = 0; c < titles.length; c++) {
+                w.writeEmptyElement("attribute");
+                w.writeAttribute("id", Integer.toString(c));
+                w.writeAttribute("title", titles[c]);
+                w.writeAttribute("type", type(types[c]));
+            }
+            w.writeEndElement();
+            w.writeCharacters("\n");
+        }
+
+        private void values(Object[] values) throws XMLStreamException {
+            boolean any = false;
+            for (int c = 0; c < values.length; c++) {
+                if (values[c] != null) {
+                    if (!any) {
+                        w.writeStartElement("attvalues");
+                        any = true;
+                    }
+                    w.writeEmptyElement("attvalue");
+                    w.writeAttribute("for", Integer.toString(c));
+                    w.writeAttribute("value", values[c].toString());
+                }
+            }
+            if (any) {
+                w.writeEndElement();
+            }
+        }
+
+        @Override
+        void begin(Source s) throws XMLStreamException {
+            w.writeStartDocument("UTF-8", "1.0");
+            w.writeCharacters("\n");
+            w.setDefaultNamespace(GEXF);
+            w.setPrefix("viz", VIZ);
+            w.writeStartElement(GEXF, "gexf");
+            w.writeDefaultNamespace(GEXF);
+            w.writeNamespace("viz", VIZ);
+            w.writeAttribute("version", "1.2");
+            w.writeCharacters("\n");
+            w.writeStartElement(GEXF, "graph");
+            w.writeAttribute("defaultedgetype", s.directed ? "directed" : "undirected");
+            w.writeAttribute("mode", "static");
+            w.writeCharacters("\n");
+            attributes("node", s.nodeAttributes, s.nodeTypes);
+            attributes("edge", s.edgeAttributes, s.edgeTypes);
+            w.writeStartElement(GEXF, "nodes");
+            w.writeCharacters("\n");
+        }
+
+        @Override
+        void node(Source s, int i) throws XMLStreamException {
+            w.writeStartElement(GEXF, "node");
+            w.writeAttribute("id", s.id);
+            w.writeAttribute("label", s.label != null ? s.label : s.id);
+            values(s.values);
+            w.writeEmptyElement(VIZ, "size");
+            attribute("value", s.size(i));
+            w.writeEmptyElement(VIZ, "position");
+            attribute("x", s.x(i));
+            attribute("y", s.y(i));
+            attribute("z", s.is3d ? s.z(i) : 0);
+            if (s.hasColors()) {
+                w.writeEmptyElement(VIZ, "color");
+                w.writeAttribute("r", Integer.toString(s.color(i, 0)));
+                w.writeAttribute("g", Integer.toString(s.color(i, 1)));
+                w.writeAttribute("b", Integer.toString(s.color(i, 2)));
+            }
+            w.writeEndElement();
+            w.writeCharacters("\n");
+        }
+
+        @Override
+        void beginEdges(Source s) throws XMLStreamException {
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeStartElement(GEXF, "edges");
+            w.writeCharacters("\n");
+        }
+
+        private Object[] edgeValues;
+
+        @Override
+        void edge(Source s, int k) throws XMLStreamException {
+            w.writeStartElement(GEXF, "edge");
+            w.writeAttribute("id", s.edgeId);
+            w.writeAttribute("source", s.sourceId);
+            w.writeAttribute("target", s.targetId);
+            if (s.edgeLabel != null) {
+                w.writeAttribute("label", s.edgeLabel);
+            }
+            w.writeAttribute("weight", Double.toString(s.weight(k)));
+            if (s.edgeAttributes.length > 0) {
+                if (edgeValues == null) {
+                    edgeValues = new Object[s.edgeAttributes.length];
+                }
+                for (int c = 0; c < edgeValues.length; c++) {
+                    edgeValues[c] = s.edgeValue(k, c);
+                }
+                values(edgeValues);
+            }
+            w.writeEndElement();
+            w.writeCharacters("\n");
+        }
+
+        @Override
+        void end(Source s) throws XMLStreamException {
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeEndDocument();
+        }
+    }
+
+    private static class GraphmlSink extends XmlSink {
+
+        GraphmlSink(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        private static String type(Class<?> c) {
+            if (c == Integer.class || c == Short.class || c == Byte.class) {
+                return "int";
+            }
+            if (c == Long.class || c == Float.class || c == Double.class || c == Boolean.class) {
+                return c.getSimpleName().toLowerCase();
+            }
+            return "string";
+        }
+
+        private void key(String id, String kind, String name, String type) throws XMLStreamException {
+            w.writeEmptyElement(GRAPHML, "key");
+            w.writeAttribute("attr.name", name);
+            w.writeAttribute("attr.type", type);
+            w.writeAttribute("for", kind);
+            w.writeAttribute("id", id);
+            w.writeCharacters("\n");
+        }
+
+        private void data(String key, String value) throws XMLStreamException {
+            w.writeStartElement(GRAPHML, "data");
+            w.writeAttribute("key", key);
+            w.writeCharacters(value);
+            w.writeEndElement();
+        }
+
+        @Override
+        void begin(Source s) throws XMLStreamException {
+            w.writeStartDocument("UTF-8", "1.0");
+            w.writeCharacters("\n");
+            w.setDefaultNamespace(GRAPHML);
+            w.writeStartElement(GRAPHML, "graphml");
+            w.writeDefaultNamespace(GRAPHML);
+            w.writeCharacters("\n");
+            key("label", "node", "label", "string");
+            key("x", "node", "x", "float");
+            key("y", "node", "y", "float");
+            if (s.is3d) {
+                key("z", "node", "z", "float");
+            }
+            key("size", "node", "size", "float");
+            if (s.hasColors()) {
+                key("r", "node", "r", "int");
+                key("g", "node", "g", "int");
+                key("b", "node", "b", "int");
+            }
+            for (int c = 0; c < s.nodeAttributes.length; c++) {
+                key("n" + c, "node", s.nodeAttributes[c], type(s.nodeTypes[c]));
+            }
+            if (s.hasEdgeLabels()) {
+                key("edgelabel", "edge", "Edge Label", "string");
+            }
+            key("weight", "edge", "weight", "double");
+            for (int c = 0; c < s.edgeAttributes.length; c++) {
+                key("e" + c, "edge", s.edgeAttributes[c], type(s.edgeTypes[c]));
+            }
+            w.writeStartElement(GRAPHML, "graph");
+            w.writeAttribute("edgedefault", s.directed ? "directed" : "undirected");
+            w.writeCharacters("\n");
+        }
+
+        @Override
+        void node(Source s, int i) throws XMLStreamException {
+            w.writeStartElement(GRAPHML, "node");
+            w.writeAttribute("id", s.id);
+            data("label", s.label != null ? s.label : s.id);
+            data("x", Float.toString(s.x(i)));
+            data("y", Float.toString(s.y(i)));
+            if (s.is3d) {
+                data("z", Float.toString(s.z(i)));
+            }
+            data("size", Float.toString(s.size(i)));
+            if (s.hasColors()) {
+                data("r", Integer.toString(s.color(i, 0)));
+                data("g", Integer.toString(s.color(i, 1)));
+                data("b", Integer.toString(s.color(i, 2)));
+            }
+            for (int c = 0; c < s.values.length; c++) {
+                if (s.values[c] != null) {
+                    data("n" + c, s.values[c].toString());
+                }
+            }
+            w.writeEndElement();
+            w.writeCharacters("\n");
+        }
+
+        @Override
+        void beginEdges(Source s) {
+        }
+
+        @Override
+        void edge(Source s, int k) throws XMLStreamException {
+            w.writeStartElement(GRAPHML, "edge");
+            w.writeAttribute("id", s.edgeId);
+            w.writeAttribute("source", s.sourceId);
+            w.writeAttribute("target", s.targetId);
+            if (s.edgeLabel != null) {
+                data("edgelabel", s.edgeLabel);
+            }
+            data("weight", Double.toString(s.weight(k)));
+            for (int c = 0; c < s.edgeAttributes.length; c++) {
+                Object v = s.edgeValue(k, c);
+                if (v != null) {
+                    data("e" + c, v.toString());
+                }
+            }
+            w.writeEndElement();
+            w.writeCharacters("\n");
+        }
+
+        @Override
+        void end(Source s) throws XMLStreamException {
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeEndElement();
+            w.writeCharacters("\n");
+            w.writeEndDocument();
+        }
+    }
+
+    /**
+     * Text sink writing delimited rows, with values quoted when they hold the delimiter, a quote or a line end.
+     */
+    private abstract static class TextSink extends Sink {
+
+        final Writer w;
+        private final char delimiter;
+        private final char quote;
+
+        TextSink(OutputStream out, char delimiter, char quote) {
+            this.w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER);
+            this.delimiter = delimiter;
+            this.quote = quote;
+        }
+
+        void value(boolean first, Object v) throws IOException {
+            if (!first) {
+                w.write(delimiter);
+            }
+            if (v == null) {
+                return;
+            }
+            String s = v.toString();
+            if (s.indexOf(delimiter) == -1 && s.indexOf(quote) == -1 && s.indexOf('\n') == -1 && s.indexOf('\r') == -1) {
+                w.write(s);
+                return;
+            }
+            w.write(quote);
+            for (int k = 0; k < s.length(); k++) {
+                char c = s.charAt(k);
+                if (c == quote) {
+                    w.write(quote);
+                }
+                w.write(c);
+            }
+            w.write(quote);
+        }
+
+        @Override
+        void close() throws IOException {
+            w.close();
+        }
+    }
+
+    private static class CsvSink extends TextSink {
+
+        CsvSink(OutputStream out) {
+            super(out, ',', '"');
+        }
+
+        @Override
+        void begin(Source s) throws IOException {
+            w.write("Id,Label,x,y");
+            w.write(s.is3d ? ",z,size" : ",size");
+            for (String title : s.nodeAttributes) {
+                value(false, title);
+            }
+            w.write('\n');
+        }
+
+        @Override
+        void node(Source s, int i) throws IOException {
+            value(true, s.id);
+            value(false, s.label != null ? s.label : s.id);
+            value(false, s.x(i));
+            value(false, s.y(i));
+            if (s.is3d) {
+                value(false, s.z(i));
+            }
+            value(false, s.size(i));
+            for (Object v : s.values) {
+                value(false, v);
+            }
+            w.write('\n');
+        }
+
+        @Override
+        void beginEdges(Source s) {
+        }
+
+        @Override
+        void edge(Source s, int k) {
+        }
+
+        @Override
+        void end(Source s) throws IOException {
+            w.flush();
+        }
+    }
+
+    private static class GdfSink extends TextSink {
+
+        GdfSink(OutputStream out) {
+            super(out, ',', '\'');
+        }
+
+        private static String type(Class<?> c) {
+            if (c == Integer.class || c == Short.class || c == Byte.class || c == Long.class) {
+                return "INTEGER";
+            }
+            if (c == Float.class || c == Double.class) {
+                return "DOUBLE";
+            }
+            if (c == Boolean.class) {
+                return "BOOLEAN";
+            }
+            return "VARCHAR";
+        }
+
+        private void columns(String[] titles, Class<?>[] types) throws IOException {
+            for (int c = 0; c < titles.length; c++) {
+                w.write(',');
+                w.write(titles[c].replace(',', '_').replace(' ', '_'));
+                w.write(' ');
+                w.write(type(types[c]));
+            }
+            w.write('\n');
+        }
+
+        @Override
+        void begin(Source s) throws IOException {
+            w.write("nodedef>name VARCHAR,label VARCHAR,x DOUBLE,y DOUBLE");
+            w.write(s.is3d ? ",z DOUBLE,width DOUBLE" : ",width DOUBLE");
+            if (s.hasColors()) {
+                w.write(",color VARCHAR");
+            }
+            columns(s.nodeAttributes, s.nodeTypes);
+        }
+
+        @Override
+        void node(Source s, int i) throws IOException {
+            value(true, s.id);
+            value(false, s.label != null ? s.label : s.id);
+            value(false, s.x(i));
+            value(false, s.y(i));
+            if (s.is3d) {
+                value(false, s.z(i));
+            }
+            value(false, s.size(i));
+            if (s.hasColors()) {
+                value(false, s.color(i, 0) + "," + s.color(i, 1) + "," + s.color(i, 2));
+            }
+            for (Object v : s.values) {
+                value(false, v);
+            }
+            w.write('\n');
+        }
+
+        @Override
+        void beginEdges(Source s) throws IOException {
+            w.write("edgedef>node1 VARCHAR,node2 VARCHAR");
+            if (s.hasEdgeLabels()) {
+                w.write(",label VARCHAR");
+            }
+            w.write(",directed BOOLEAN,weight DOUBLE");
+            columns(s.edgeAttributes, s.edgeTypes);
+        }
+
+        @Override
+        void edge(Source s, int k) throws IOException {
+            value(true, s.sourceId);
+            value(false, s.targetId);
+            if (s.hasEdgeLabels()) {
+                value(false, s.edgeLabel);
+            }
+            w.write(s.directed ? ",true" : ",false");
+            value(false, s.weight(k));
+            for (int c = 0; c < s.edgeAttributes.length; c++) {
+                value(false, s.edgeValue(k, c));
+            }
+            w.write('\n');
+        }
+
+        @Override
+        void end(Source s) throws IOException {
+            w.flush();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package kco.forceatlas2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact dictionary of node IDs, mapping ID bytes to dense ordinals in order of first addition. IDs are stored
+ * back to back in one byte array, in UTF-8, with an open addressing hash table of ordinals, so that millions of IDs
+ * cost a few bytes each instead of one String and one map entry each. IDs total at most 2GB.
+ * <p>
+ * Not thread safe: parallel loaders fill one dictionary per thread and merge them with {@link #addAll}. Concurrent
+ * {@link #find} calls are safe once the hash table is built, which for a dictionary read from a cache is only on the
+ * first lookup or {@link #ensureTable}.
+ */
+public class IdDictionary {
+
+    byte[] bytes;
+    int byteCount;
+    int[] offsets;
+    int size;
+    private int[] table;
+    // Hash of the ID in each slot, compared before the bytes
+    private int[] tableHashes;
+
+    public IdDictionary() {
+        this(16);
+    }
+
+    public IdDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) * 2;
+        bytes = new byte[Math.max(16, expectedSize * 8)];
+        offsets = new int[expectedSize + 1];
+        table = new int[capacity];
+        tableHashes = new int[capacity];
+        Arrays.fill(table, -1);
+    }
+
+    /**
+     * Dictionary of the IDs stored in bytes, ID i being offsets[i] to offsets[i + 1].
+     */
+    IdDictionary(byte[] bytes, int[] offsets, int size) {
+        this.bytes = bytes;
+        this.byteCount = offsets[size];
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    void ensureTable() {
+        if (table == null) {
+            int capacity = Integer.highestOneBit(Math.max(4, size) * 2 - 1) * 2;
+            table = new int[capacity];
+            tableHashes = new int[capacity];
+            Arrays.fill(table, -1);
+            int mask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int hash = hash(bytes, offsets[i], offsets[i + 1] - offsets[i]);
+                int slot = hash & mask;
+                while (table[slot] != -1) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i;
+                tableHashes[slot] = hash;
+            }
+        }
+    }
+
+    /**
+     * @return ordinal of the ID made of bytes off to off + len, added if new
+     */
+    public int add(byte[] b, int off, int len) {
+        ensureTable();
+        int hash = hash(b, off, len);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int i = table[slot];
+            if (i == -1) {
+                table[slot] = append(b, off, len);
+                tableHashes[slot] = hash;
+                if (2 * size > table.length) {
+                    rehash(table.length * 2);
+                }
+                return size - 1;
+            }
+            if (tableHashes[slot] == hash && matches(i, b, off, len)) {
+                return i;
+            }
+        }
+    }
+
+    public int add(String id) {
+        byte[] b = id.getBytes(StandardCharsets.UTF_8);
+        return add(b, 0, b.length);
+    }
+
+    /**
+     * @return ordinal of the ID made of bytes off to off + len, -1 if absent
+     */
+    public int find(byte[] b, int off, int len) {
+        ensureTable();
+        int hash = hash(b, off, len);
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int i = table[slot];
+            if (i == -1) {
+                return -1;
+            }
+            if (tableHashes[slot] == hash && matches(i, b, off, len)) {
+                return i;
+            }
+        }
+    }
+
+    public int find(String id) {
+        byte[] b = id.getBytes(StandardCharsets.UTF_8);
+        return find(b, 0, b.length);
+    }
+
+    public String get(int i) {
+        return new String(bytes, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Length in bytes of ID i.
+     */
+    public int length(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * Copies the bytes of ID i to dest at off.
+     *
+     * @return number of bytes copied
+     */
+    public int copy(int i, byte[] dest, int off) {
+        int len = offsets[i + 1] - offsets[i];
+        System.arraycopy(bytes, offsets[i], dest, off, len);
+        return len;
+    }
+
+    /**
+     * Adds all IDs of other, in order.
+     *
+     * @return ordinals in this dictionary of the IDs of other
+     */
+    public int[] addAll(IdDictionary other) {
+        int[] ordinals = new int[other.size];
+        for (int i = 0; i < other.size; i++) {
+            ordinals[i] = add(other.bytes, other.offsets[i], other.offsets[i + 1] - other.offsets[i]);
+        }
+        return ordinals;
+    }
+
+    private int append(byte[] b, int off, int len) {
+        if ((long) byteCount + len > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Node IDs larger than 2GB");
+        }
+        if (byteCount + len > bytes.length) {
+            bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(byteCount + len, 2L * bytes.length)));
+        }
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+        }
+        System.arraycopy(b, off, bytes, byteCount, len);
+        offsets[size] = byteCount;
+        byteCount += len;
+        offsets[size + 1] = byteCount;
+        return size++;
+    }
+
+    private boolean matches(int i, byte[] b, int off, int len) {
+        int start = offsets[i];
+        if (offsets[i + 1] - start != len) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (bytes[start + k] != b[off + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldTable = table;
+        int[] oldHashes = tableHashes;
+        table = new int[capacity];
+        tableHashes = new int[capacity];
+        Arrays.fill(table, -1);
+        int mask = capacity - 1;
+        for (int k = 0; k < oldTable.length; k++) {
+            if (oldTable[k] != -1) {
+                int slot = oldHashes[k] & mask;
+                while (table[slot] != -1) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = oldTable[k];
+                tableHashes[slot] = oldHashes[k];
+            }
+        }
+    }
+
+    // FNV-1a, then mixed so that low bits depend on all bytes
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0x811c9dc5;
+        for (int k = off, end = off + len; k < end; k++) {
+            h = (h ^ b[k]) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
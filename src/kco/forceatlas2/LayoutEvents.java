@@ -0,0 +1,202 @@
+package kco.forceatlas2;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events of a layout: one event per {@link ForceAtlas2#goAlgo()} iteration and one per {@link Phase},
+ * under the ForceAtlas2 category in JDK Mission Control, e.g. when started with -XX:StartFlightRecording. Events are
+ * cheap enough to leave on: when not recorded, each costs a small allocation and a check, and the shape of the Barnes
+ * Hut tree, the only field that takes a walk, is computed at most once per iteration and only for recorded events.
+ * <p>
+ * Needs jdk.jfr, in JDK 8u262 and later: {@link ForceAtlas2} only loads this class once it has checked that jdk.jfr
+ * is there. Iteration and phase events are begun and ended by the thread that runs the iteration, or worker 0 of the
+ * worker team, and are not thread safe.
+ */
+class LayoutEvents {
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final String[] PHASE_NAMES = new String[PHASES.length];
+
+    static {
+        for (Phase phase : PHASES) {
+            PHASE_NAMES[phase.ordinal()] = phase.camelCaseName();
+        }
+    }
+
+    private final ForceAtlas2 layout;
+    private IterationEvent iteration;
+    private PhaseEvent phase;
+    // Tree shape of step shapeStep: region count and depth
+    private int[] shape;
+    private int shapeStep = -1;
+
+    LayoutEvents(ForceAtlas2 layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Begins the events of the iteration and of its first phase.
+     */
+    void beginIteration() {
+        iteration = new IterationEvent();
+        iteration.begin();
+        phase = new PhaseEvent();
+        phase.begin();
+    }
+
+    /**
+     * Ends the event of the given phase, and begins the event of the next one.
+     */
+    void endPhase(Phase p) {
+        phase.end();
+        if (phase.shouldCommit()) {
+            phase.phase = PHASE_NAMES[p.ordinal()];
+            phase.step = layout.getStepCount();
+            phase.nodeCount = layout.getNodeCount();
+            phase.edgeCount = layout.getEdgeCount();
+            // The tree of this iteration is built in the Barnes Hut phase
+            if (p.ordinal() >= Phase.BARNES_HUT_REGIONS.ordinal()) {
+                int[] s = shape();
+                phase.regionCount = s[0];
+                phase.treeDepth = s[1];
+            }
+            phase.commit();
+        }
+        phase = new PhaseEvent();
+        phase.begin();
+    }
+
+    /**
+     * Ends the event of the iteration, once all phases are ended.
+     */
+    void endIteration() {
+        iteration.end();
+        if (iteration.shouldCommit()) {
+            IterationEvent e = iteration;
+            e.step = layout.getStepCount();
+            e.nodeCount = layout.getNodeCount();
+            e.edgeCount = layout.getEdgeCount();
+            e.threadCount = layout.getThreadsCount();
+            int[] s = shape();
+            e.regionCount = s[0];
+            e.treeDepth = s[1];
+            e.distance = layout.getDistance();
+            e.speed = layout.getSpeed();
+            e.speedEfficiency = layout.getSpeedEfficiency();
+            e.initLayoutData = layout.getPhaseTime(Phase.INIT_LAYOUT_DATA);
+            e.barnesHutRegions = layout.getPhaseTime(Phase.BARNES_HUT_REGIONS);
+            e.repulsionAndGravity = layout.getPhaseTime(Phase.REPULSION_AND_GRAVITY);
+            e.attraction = layout.getPhaseTime(Phase.ATTRACTION);
+            e.speedTime = layout.getPhaseTime(Phase.SPEED);
+            e.applyForces = layout.getPhaseTime(Phase.APPLY_FORCES);
+            e.commit();
+        }
+        iteration = null;
+        phase = null;
+    }
+
+    private int[] shape() {
+        int step = layout.getStepCount();
+        if (shape == null || shapeStep != step) {
+            shape = layout.getTreeShape();
+            shapeStep = step;
+        }
+        return shape;
+    }
+
+    @Name("kco.forceatlas2.Iteration")
+    @Label("Layout Iteration")
+    @Category("ForceAtlas2")
+    @Description("One goAlgo iteration, with the time of each phase")
+    @StackTrace(false)
+    static class IterationEvent extends Event {
+
+        @Label("Step")
+        int step;
+
+        @Label("Nodes")
+        int nodeCount;
+
+        @Label("Edges")
+        int edgeCount;
+
+        @Label("Threads")
+        int threadCount;
+
+        @Label("Barnes Hut Regions")
+        @Description("Number of regions of the Barnes Hut tree, 0 without Barnes Hut")
+        int regionCount;
+
+        @Label("Barnes Hut Depth")
+        @Description("Depth of the Barnes Hut tree, 1 for a single region, 0 without Barnes Hut")
+        int treeDepth;
+
+        @Label("Distance")
+        @Description("Total distance moved by nodes")
+        double distance;
+
+        @Label("Speed")
+        double speed;
+
+        @Label("Speed Efficiency")
+        double speedEfficiency;
+
+        @Label("Init Layout Data")
+        @Timespan(Timespan.NANOSECONDS)
+        long initLayoutData;
+
+        @Label("Barnes Hut Regions Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long barnesHutRegions;
+
+        @Label("Repulsion And Gravity")
+        @Timespan(Timespan.NANOSECONDS)
+        long repulsionAndGravity;
+
+        @Label("Attraction")
+        @Timespan(Timespan.NANOSECONDS)
+        long attraction;
+
+        @Label("Speed Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long speedTime;
+
+        @Label("Apply Forces")
+        @Timespan(Timespan.NANOSECONDS)
+        long applyForces;
+    }
+
+    @Name("kco.forceatlas2.Phase")
+    @Label("Layout Phase")
+    @Category("ForceAtlas2")
+    @Description("One phase of a goAlgo iteration")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Step")
+        int step;
+
+        @Label("Nodes")
+        int nodeCount;
+
+        @Label("Edges")
+        int edgeCount;
+
+        @Label("Barnes Hut Regions")
+        @Description("Number of regions of the Barnes Hut tree, 0 before it is built and without Barnes Hut")
+        int regionCount;
+
+        @Label("Barnes Hut Depth")
+        @Description("Depth of the Barnes Hut tree, 0 before it is built and without Barnes Hut")
+        int treeDepth;
+    }
+}
@@ -0,0 +1,225 @@
+package kco.forceatlas2;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MBean of a {@link ForceAtlas2} layout, registered as kco.forceatlas2:type=ForceAtlas2,id=n from
+ * {@link ForceAtlas2#initAlgo()} to {@link ForceAtlas2#endAlgo()}, so that a running layout can be watched and
+ * steered with JMX tools such as jconsole.
+ * <p>
+ * The layout thread publishes its state after each iteration through volatile fields, so that reading attributes
+ * never touches the layout itself, and picks up a new theta before the next iteration. Timings are exponentially
+ * weighted moving averages, each iteration weighing {@value #WEIGHT}. Iterations per second follow the time between
+ * the ends of iterations, including the work done by the caller between them.
+ */
+public class LayoutMonitor implements LayoutMonitorMBean {
+
+    private static final double WEIGHT = 0.1;
+    private static final Phase[] PHASES = Phase.values();
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final ForceAtlas2 layout;
+    private ObjectName name;
+    private final double[] phaseAverages = new double[PHASES.length];
+    private double averageIterationTime;
+    private long lastIterationEnd;
+    // Published after the averages, which are read after it
+    private volatile int stepCount;
+    private volatile double iterationsPerSecond;
+    private volatile double speed;
+    private volatile double speedEfficiency;
+    private volatile double distance;
+    private volatile double barnesHutTheta;
+    private volatile int threadCount;
+    private volatile int nodeCount;
+    private volatile double requestedTheta = Double.NaN;
+
+    public LayoutMonitor(ForceAtlas2 layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server, unless already registered. A failure is printed and the
+     * layout goes on unmonitored.
+     */
+    void register() {
+        if (name != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName n = new ObjectName("kco.forceatlas2:type=ForceAtlas2,id=" + ids.incrementAndGet());
+            server.registerMBean(this, n);
+            name = n;
+        } catch (JMException | SecurityException x) {
+            x.printStackTrace();
+        }
+    }
+
+    void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException | SecurityException x) {
+            x.printStackTrace();
+        }
+        name = null;
+    }
+
+    /**
+     * Resets the averages, and publishes the state of the layout before its first iteration.
+     */
+    void start() {
+        for (int p = 0; p < PHASES.length; p++) {
+            phaseAverages[p] = 0;
+        }
+        averageIterationTime = 0;
+        lastIterationEnd = System.nanoTime();
+        iterationsPerSecond = 0;
+        publish();
+    }
+
+    /**
+     * Called by the layout thread before each iteration: applies the theta set since the last one.
+     */
+    void beforeIteration() {
+        double theta = requestedTheta;
+        if (!Double.isNaN(theta)) {
+            requestedTheta = Double.NaN;
+            layout.setBarnesHutTheta(theta);
+        }
+    }
+
+    /**
+     * Called by the layout thread after each iteration: updates the averages and publishes the state of the layout.
+     */
+    void afterIteration() {
+        boolean first = averageIterationTime == 0;
+        for (int p = 0; p < PHASES.length; p++) {
+            double time = layout.getPhaseTime(PHASES[p]);
+            phaseAverages[p] = first ? time : phaseAverages[p] + WEIGHT * (time - phaseAverages[p]);
+        }
+        long end = System.nanoTime();
+        double time = Math.max(1, end - lastIterationEnd);
+        lastIterationEnd = end;
+        averageIterationTime = first ? time : averageIterationTime + WEIGHT * (time - averageIterationTime);
+        iterationsPerSecond = 1e9 / averageIterationTime;
+        publish();
+    }
+
+    private void publish() {
+        speed = layout.getSpeed();
+        speedEfficiency = layout.getSpeedEfficiency();
+        distance = layout.getDistance();
+        barnesHutTheta = layout.getBarnesHutTheta();
+        threadCount = layout.getThreadsCount();
+        nodeCount = layout.getNodeCount();
+        stepCount = layout.getStepCount();
+    }
+
+    private double averageMillis(Phase phase) {
+        // Reading stepCount first makes the averages of its iteration visible
+        return stepCount > 0 ? phaseAverages[phase.ordinal()] / 1e6 : 0;
+    }
+
+    @Override
+    public int getStepCount() {
+        return stepCount;
+    }
+
+    @Override
+    public double getIterationsPerSecond() {
+        return iterationsPerSecond;
+    }
+
+    @Override
+    public double getSpeed() {
+        return speed;
+    }
+
+    @Override
+    public double getSpeedEfficiency() {
+        return speedEfficiency;
+    }
+
+    @Override
+    public double getDistance() {
+        return distance;
+    }
+
+    @Override
+    public double getChangePerNode() {
+        int n = nodeCount;
+        return n > 0 ? distance / n : 0;
+    }
+
+    @Override
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public double getAverageInitLayoutDataMillis() {
+        return averageMillis(Phase.INIT_LAYOUT_DATA);
+    }
+
+    @Override
+    public double getAverageBarnesHutRegionsMillis() {
+        return averageMillis(Phase.BARNES_HUT_REGIONS);
+    }
+
+    @Override
+    public double getAverageRepulsionAndGravityMillis() {
+        return averageMillis(Phase.REPULSION_AND_GRAVITY);
+    }
+
+    @Override
+    public double getAverageAttractionMillis() {
+        return averageMillis(Phase.ATTRACTION);
+    }
+
+    @Override
+    public double getAverageSpeedMillis() {
+        return averageMillis(Phase.SPEED);
+    }
+
+    @Override
+    public double getAverageApplyForcesMillis() {
+        return averageMillis(Phase.APPLY_FORCES);
+    }
+
+    @Override
+    public double getBarnesHutTheta() {
+        double theta = requestedTheta;
+        return Double.isNaN(theta) ? barnesHutTheta : theta;
+    }
+
+    @Override
+    public void setBarnesHutTheta(double theta) {
+        if (!(theta > 0)) {
+            throw new IllegalArgumentException("barnesHutTheta must be > 0");
+        }
+        requestedTheta = theta;
+    }
+
+    @Override
+    public boolean isStopRequested() {
+        return layout.isStopRequested();
+    }
+
+    @Override
+    public void requestStop() {
+        layout.requestStop();
+    }
+}
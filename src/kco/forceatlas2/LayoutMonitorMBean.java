@@ -0,0 +1,50 @@
+package kco.forceatlas2;
+
+/**
+ * Management interface of {@link LayoutMonitor}, the live state and controls of a running {@link ForceAtlas2}
+ * layout. Values are those of the last iteration, timings are averages over the last iterations.
+ */
+public interface LayoutMonitorMBean {
+
+    int getStepCount();
+
+    double getIterationsPerSecond();
+
+    double getSpeed();
+
+    double getSpeedEfficiency();
+
+    double getDistance();
+
+    double getChangePerNode();
+
+    int getThreadCount();
+
+    int getNodeCount();
+
+    double getAverageInitLayoutDataMillis();
+
+    double getAverageBarnesHutRegionsMillis();
+
+    double getAverageRepulsionAndGravityMillis();
+
+    double getAverageAttractionMillis();
+
+    double getAverageSpeedMillis();
+
+    double getAverageApplyForcesMillis();
+
+    double getBarnesHutTheta();
+
+    /**
+     * Sets theta from the next iteration on.
+     */
+    void setBarnesHutTheta(double theta);
+
+    boolean isStopRequested();
+
+    /**
+     * Stops the layout once the current iteration is done.
+     */
+    void requestStop();
+}
@@ -0,0 +1,84 @@
+package kco.forceatlas2;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Lines starting in start to end of a memory-mapped file, so that a file split into chunks at arbitrary offsets is
+ * parsed in parallel, every line by the chunk it starts in. The mapping is copied to a block array a few lines at a
+ * time, and each line is handed to {@link #line} as bounds in the block, without its line end.
+ */
+abstract class LineChunk {
+
+    private static final int BLOCK = 1 << 20;
+    private static final int MAX_BLOCK = 1 << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long start;
+    private final long end;
+    byte[] block = new byte[BLOCK];
+
+    LineChunk(FileChannel channel, long fileSize, long start, long end) {
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Handles the line from start to end of the block.
+     *
+     * @param first whether the line is the first of the file
+     */
+    abstract void line(int start, int end, boolean first) throws IOException;
+
+    void parse() throws IOException {
+        if (start == end) {
+            return;
+        }
+        // Map from the byte before the chunk, to tell whether the chunk starts on a line
+        long mapStart = Math.max(0, start - 1);
+        int length = (int) Math.min(fileSize - mapStart, Integer.MAX_VALUE);
+        MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, length);
+        int limit = (int) (end - mapStart);
+        int pos = 0;
+        if (start > 0) {
+            while (pos < length && b.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+        boolean first = start == 0;
+        // pos is the start of the next line in the mapping, lines starting from limit belong to the next chunk
+        while (pos < limit) {
+            int count = Math.min(block.length, length - pos);
+            b.position(pos);
+            b.get(block, 0, count);
+            int lineStart = 0;
+            for (int i = 0; i < count; i++) {
+                if (block[i] == '\n') {
+                    line(lineStart, i > lineStart && block[i - 1] == '\r' ? i - 1 : i, first);
+                    first = false;
+                    lineStart = i + 1;
+                    if (pos + lineStart >= limit) {
+                        break;
+                    }
+                }
+            }
+            if (pos + count == length && lineStart < count && pos + lineStart < limit) {
+                // Last line of the file, without a line end
+                line(lineStart, block[count - 1] == '\r' ? count - 1 : count, first);
+                lineStart = count;
+            }
+            if (lineStart == 0) {
+                if (block.length == MAX_BLOCK) {
+                    throw new IOException("Line longer than " + MAX_BLOCK + " bytes at offset " + (mapStart + pos));
+                }
+                block = new byte[(int) Math.min(MAX_BLOCK, 2L * block.length)];
+            }
+            pos += lineStart;
+        }
+    }
+}
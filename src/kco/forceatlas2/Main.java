@@ -16,40 +16,84 @@ import org.openide.util.Lookup;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 
 public class Main {
 
     private static Map<String, Arg> argsMap = new LinkedHashMap<>();
 
-    private static void writeOutput(Graph g, boolean is3d, Set<String> formats, String output) {
-        try {
-            // ExporterCSV, ExporterDL, ExporterGDF, ExporterGEXF, ExporterGML, ExporterGraphML, ExporterPajek, ExporterVNA, PDFExporter, PNGExporter, SVGExporter
-            ExportController ec = Lookup.getDefault().lookup(ExportController.class);
-            for (String format : formats) {
-                if (format.equals("txt")) {
-                    PrintWriter pw = new PrintWriter(new FileWriter(output + (output.toLowerCase().endsWith("." + format) ? "" : "." + format)));
-                    pw.print("id\tx\ty" + (is3d ? "\tz" : "") + "\n");
-                    for (Node n : g.getNodes()) {
-                        pw.print(n.getId());
-                        pw.print("\t");
-                        pw.print(n.x());
-                        pw.print("\t");
-                        pw.print(n.y());
-                        if (is3d) {
-                            pw.print("\t");
-                            pw.print(n.z());
-                        }
-                        pw.print("\n");
-                    }
-                    pw.close();
-                } else {
-                    ec.exportFile(new File(output + (output.toLowerCase().endsWith("." + format) ? "" : "." + format)), ec.getExporter(format));
+    private static void writeOutput(Graph g, boolean is3d, Set<String> formats, String output, boolean gzip, boolean npyDouble, int threadCount) throws IOException {
+        // ExporterCSV, ExporterDL, ExporterGDF, ExporterGEXF, ExporterGML, ExporterGraphML, ExporterPajek, ExporterVNA, PDFExporter, PNGExporter, SVGExporter
+        ExportController ec = Lookup.getDefault().lookup(ExportController.class);
+        Map<String, File> streamed = new LinkedHashMap<>();
+        boolean streamable = GraphWriter.isStreamable(g.getModel());
+        for (String format : formats) {
+            // Dynamic graphs go through the Gephi exporters, which keep dynamic columns and timesets
+            if (GraphWriter.FORMATS.contains(format) && (streamable || format.equals("nodecsv"))) {
+                String extension = GraphWriter.extension(format);
+                streamed.put(format, new File(output + (output.toLowerCase().endsWith("." + extension) ? "" : "." + extension)));
+            } else if (format.equals("txt")) {
+                File f = new File(output + (output.toLowerCase().endsWith("." + format) ? "" : "." + format) + (gzip ? ".gz" : ""));
+                TxtWriter.write(f, g.getNodes().toArray(), is3d, gzip, threadCount);
+            } else if (format.equals("npy")) {
+                Node[] nodes = g.getNodes().toArray();
+                String base = output.toLowerCase().endsWith(".npy") ? output.substring(0, output.length() - 4) : output;
+                Npy.write(new File(base + ".npy"), nodes, is3d, npyDouble, threadCount);
+                TxtWriter.writeIds(new File(base + ".ids.txt"), nodes, threadCount);
+            } else if (format.equals("bin")) {
+                Node[] nodes = g.getNodes().toArray();
+                IdDictionary ids = new IdDictionary(nodes.length);
+                float[] coords = new float[3 * nodes.length];
+                for (Node n : nodes) {
+                    int i = ids.add(n.getId().toString());
+                    coords[3 * i] = n.x();
+                    coords[3 * i + 1] = n.y();
+                    coords[3 * i + 2] = n.z();
                 }
+                CoordsFile.writeBinary(new File(output + (output.toLowerCase().endsWith("." + format) ? "" : "." + format)), ids, coords, is3d ? 3 : 2);
+            } else {
+                ec.exportFile(new File(output + (output.toLowerCase().endsWith("." + format) ? "" : "." + format)), ec.getExporter(format));
             }
-        } catch (IOException x) {
-            x.printStackTrace();
-            System.exit(1);
+        }
+        if (!streamed.isEmpty()) {
+            GraphWriter.write(g.getNodes().toArray(), g.getEdges().toArray(), g.getModel().getNodeTable(), g.getModel().getEdgeTable(),
+                    is3d, g.isDirected(), streamed);
+        }
+    }
+
+    /**
+     * Writes positions of a graph loaded without Gephi, in the txt, bin, npy, gexf, graphml, nodecsv or gdf format.
+     */
+    private static void writeOutput(IdDictionary ids, NodeArrays a, EdgeArrays edges, boolean directed, boolean is3d, Set<String> formats, String output, boolean gzip, boolean npyDouble, int threadCount) throws IOException {
+        Map<String, File> streamed = new LinkedHashMap<>();
+        for (String format : formats) {
+            if (GraphWriter.FORMATS.contains(format)) {
+                String extension = GraphWriter.extension(format);
+                streamed.put(format, new File(output + (output.toLowerCase().endsWith("." + extension) ? "" : "." + extension)));
+                continue;
+            }
+            if (format.equals("npy")) {
+                String base = output.toLowerCase().endsWith(".npy") ? output.substring(0, output.length() - 4) : output;
+                Npy.write(new File(base + ".npy"), a, is3d, npyDouble, threadCount);
+                TxtWriter.writeIds(new File(base + ".ids.txt"), ids, threadCount);
+                continue;
+            }
+            if (format.equals("bin")) {
+                float[] coords = new float[3 * a.size()];
+                for (int i = 0; i < a.size(); i++) {
+                    coords[3 * i] = a.x(i);
+                    coords[3 * i + 1] = a.y(i);
+                    coords[3 * i + 2] = is3d ? a.z(i) : 0;
+                }
+                CoordsFile.writeBinary(new File(output + (output.toLowerCase().endsWith("." + format) ? "" : "." + format)), ids, coords, is3d ? 3 : 2);
+                continue;
+            }
+            File f = new File(output + (output.toLowerCase().endsWith("." + format) ? "" : "." + format) + (gzip ? ".gz" : ""));
+            TxtWriter.write(f, ids, a, is3d, gzip, threadCount);
+        }
+        if (!streamed.isEmpty()) {
+            GraphWriter.write(ids, a, edges, is3d, directed, streamed);
         }
     }
 
@@ -70,6 +114,9 @@ public class Main {
         long startTime = System.currentTimeMillis();
 
         addArg("input", "Input graph in one of Gephi input file formats https://gephi.org/users/supported-graph-formats/", true);
+        addArg("inputFormat", "How to read the input. gephi for Gephi input file formats, edgelist for a tab, comma or space separated edge list (source, target, optional weight) read by a parallel loader without Gephi, mtx for a MatrixMarket coordinate matrix, or csr for a scipy sparse matrix saved by save_npz or as a directory of indptr.npy, indices.npy and data.npy. Matrix rows and columns are nodes with IDs counted from 0. Formats other than gephi run the array engine and only write txt, bin, npy, gexf, graphml, nodecsv or gdf output. They keep edge weights as doubles, while Gephi imports store them as floats, so that layouts of a weighted graph can differ slightly from those of the same graph imported by Gephi", true, "gephi");
+        addArg("matrixMerge", "How edges of an edge list, or entries of a mtx or csr matrix, between the same pair of nodes, in either direction unless --directed, merge into one edge: sum, max, min or mean of their weights, or none to keep one edge per line or entry. An edge list merged with sum matches a Gephi import", true, "sum");
+        addArg("cache", "Binary graph cache file. Read instead of the input when it matches the input file, read with the same --inputFormat, --directed and --matrixMerge, otherwise written after reading the input. Only writes txt, bin, npy, gexf, graphml, nodecsv or gdf output, and only txt, bin or npy with --inputFormat gephi", true);
         addArg("output", "Output file", true);
         addArg("nsteps", "Number of iterations. Mutually exclusive with --targetChangePerNode", true);
         addArg("targetChangePerNode", "Maximum change per node to stop the algorithm. Mutually exclusive with --nsteps", true);
@@ -78,8 +125,10 @@ public class Main {
         addArg("useAltSpeed", "Use alternative speed calculation, which is documented in the ForceAtlas2 paper.", false, false);
         addArg("directed", "Whether input graph is undirected", false, false);
         addArg("nthreads", "Number of threads to use. If not specified will use all cores", true);
-        addArg("format", "Output file format. One of csv, gdf, gexf, gml, graphml, pajek, txt", true);
-        addArg("coords", "Tab separated file containing initial coordinates with headers id, x, y, and, z", true);
+        addArg("format", "Output file format, or comma separated formats. One of csv, gdf, gexf, gml, graphml, pajek, txt, bin, npy, nodecsv. csv is the adjacency matrix of the Gephi exporter, and nodecsv the node table in a .nodes.csv file. bin is a binary coordinates file, and npy a NumPy array of coordinates with the IDs of its rows in a .ids.txt file, both accepted by --coords. gexf, graphml, nodecsv and gdf are streamed together in one pass over the graph, with positions, sizes, edge IDs, labels and static attributes. gexf, graphml and gdf output of a dynamic graph, with dynamic attributes or timesets, is written by the Gephi exporters instead", true);
+        addArg("npyType", "Type of npy output, float32 or float64", true, "float32");
+        addArg("compress", "Compression of txt output, gzip or none. Compressed output gets a .gz suffix", true, "none");
+        addArg("coords", "Tab separated file containing initial coordinates with headers id, x, y, and, z, or a coordinates file written with --format bin or npy. Read in parallel", true);
         addArg("seed", "Seed for random number generation for initial node positions", true);
         addArg("barnesHutSplits", "Rounds of splits to use for Barnes-Hut tree building. Number of regions after splitting is 4^barnesHutSplits for 2D and 8^barnesHutSplits for 3D", true);
         addArg("barnesHutTheta", " Theta of the Barnes Hut optimization", true);
@@ -91,6 +140,20 @@ public class Main {
         addArg("gravity", "Attracts nodes to the center", true);
         addArg("strongGravityMode", "A stronger gravity law", true);
         addArg("outboundAttractionDistribution", "Distributes attraction along outbound edges. Hubs attract less and thus are pushed to the borders.", true);
+        addArg("arrayEngine", "Run the layout on primitive arrays instead of Gephi nodes. Faster and lighter on large graphs", false, false);
+        addArg("mortonOrderIter", "Renumber nodes in Z-order of their position every mortonOrderIter iterations for cache locality. Requires --arrayEngine, 0 to disable", true, 0);
+        addArg("attractionMode", "How the array engine accumulates attraction forces. One of synchronized, buffered, owner_computes", true, "synchronized");
+        addArg("singlePrecision", "Store per-node state, edge weights and Barnes-Hut cells of the array engine as floats to halve memory traffic. Requires --arrayEngine", false, false);
+        addArg("costZones", "Balance repulsion threads by the number of force evaluations per node in the previous iteration instead of by node count", false, false);
+        addArg("offHeap", "Store the node state, edges, Barnes-Hut tree and force buffers of the array engine off heap, in direct memory limited by -XX:MaxDirectMemorySize. Node IDs, the Gephi graph of a Gephi import and up to 28 bytes per node of renumbering and cost zone state stay on heap. Requires --arrayEngine", false, false);
+        addArg("offHeapFile", "Scratch file to map the off heap state from instead of direct memory, with edges, tree and force buffers in files next to it named with a suffix. Requires --offHeap", true);
+        addArg("workerTeam", "Run each iteration on long-lived worker threads synchronized by barriers instead of a task pool. Requires --arrayEngine", false, false);
+        addArg("checkpointEvery", "Write a checkpoint of the layout state every checkpointEvery iterations, in the background. Must be a multiple of --barnesHutUpdateIter. 0 to disable", true, 0);
+        addArg("checkpoint", "Checkpoint file written with --checkpointEvery and read with --resume. Output file with a .checkpoint suffix if not specified", true);
+        addArg("snapshotEvery", "Write intermediate positions every snapshotEvery iterations, in the background, to files named after the output file, a .snapshot suffix and the iteration. Snapshots are dropped rather than holding up the layout when the disk falls behind. 0 to disable", true, 0);
+        addArg("snapshotFormat", "Format of snapshots, npy, with the IDs of rows in a .snapshot.ids.txt file, or bin", true, "npy");
+        addArg("metricsFormat", "Format of the per-iteration metrics (distance, speed, speed efficiency, swinging, traction and phase times), tsv in a .distances.txt file or bin in a .distances.bin file, written in the background", true, "tsv");
+        addArg("resume", "Resume the layout from the checkpoint file, with the input and options of the interrupted run. Iterations are the same as if it had not stopped on one thread, or with the array engine and buffered or owner_computes attraction", false, false);
 
         for (int i = 0; i < args.length; i++) {
             Arg a = argsMap.get(args[i].toLowerCase());
@@ -118,10 +181,12 @@ public class Main {
         Double gravity = null;
         Boolean outboundAttractionDistribution = null;
         Integer barnesHutUpdateIter = null;
-        Set<String> formats = new HashSet<>();
+        Set<String> formats = new LinkedHashSet<>();
         File coordsFile = null;
         Boolean updateCenter = false;
         Integer barnesHutSplits = null;
+        boolean arrayEngine = false;
+        ForceAtlas2.AttractionMode attractionMode = null;
 
 
         File file = new File(getArg("input"));
@@ -192,7 +257,9 @@ public class Main {
         }
         
         if (getArg("format") != null) {
-            formats.add(getArg("format"));
+            for (String format : getArg("format").split(",")) {
+                formats.add(format.trim().toLowerCase());
+            }
         }
         
         if (getArg("barnesHutUpdateIter") != null) {
@@ -201,8 +268,38 @@ public class Main {
         
         updateCenter = getArg("updateCenter").equalsIgnoreCase("true");
 
+        int checkpointEvery = Integer.parseInt(getArg("checkpointEvery"));
+        File checkpointFile = new File(getArg("checkpoint") != null ? getArg("checkpoint") : output + ".checkpoint");
+        boolean resume = getArg("resume").equalsIgnoreCase("true");
+        if (checkpointEvery > 0 && barnesHutUpdateIter != null && checkpointEvery % barnesHutUpdateIter != 0) {
+            System.err.println("--checkpointEvery must be a multiple of --barnesHutUpdateIter");
+            System.exit(1);
+        }
+        int snapshotEvery = Integer.parseInt(getArg("snapshotEvery"));
+        String snapshotFormat = getArg("snapshotFormat").toLowerCase();
+        if (!snapshotFormat.equals("npy") && !snapshotFormat.equals("bin")) {
+            System.err.println("Unknown snapshot format " + snapshotFormat);
+            System.exit(1);
+        }
+        String metricsFormat = getArg("metricsFormat").toLowerCase();
+        if (!metricsFormat.equals("tsv") && !metricsFormat.equals("bin")) {
+            System.err.println("Unknown metrics format " + metricsFormat);
+            System.exit(1);
+        }
+        if (resume && !checkpointFile.exists()) {
+            System.err.println(checkpointFile + " not found.");
+            System.exit(1);
+        }
+
         is3d = !getArg("2d").equalsIgnoreCase("true");
         useAltSpeed = getArg("useAltSpeed").equalsIgnoreCase("true");
+        arrayEngine = getArg("arrayEngine").equalsIgnoreCase("true");
+        try {
+            attractionMode = ForceAtlas2.AttractionMode.valueOf(getArg("attractionMode").toUpperCase());
+        } catch (IllegalArgumentException x) {
+            System.err.println("Unknown attraction mode " + getArg("attractionMode"));
+            System.exit(1);
+        }
 
         if (getArg("coords") != null) {
             coordsFile = new File(getArg("coords"));
@@ -216,73 +313,150 @@ public class Main {
             formats.add("txt");
         }
 
-        ProjectController pc = Lookup.getDefault().lookup(ProjectController.class);
-        pc.newProject();
-        Workspace workspace = pc.getCurrentWorkspace();
-        ImportController importController = Lookup.getDefault().lookup(ImportController.class);
-        GraphModel graphModel = Lookup.getDefault().lookup(GraphController.class).getGraphModel();
-        Container container = importController.importFile(file);
-        Graph g;
-        if (!getArg("directed").equalsIgnoreCase("true")) {
-            container.getLoader().setEdgeDefault(EdgeDirectionDefault.UNDIRECTED);
-            g = graphModel.getUndirectedGraph();
-        } else {
-            container.getLoader().setEdgeDefault(EdgeDirectionDefault.DIRECTED);
-            g = graphModel.getDirectedGraph();
+        String compress = getArg("compress").toLowerCase();
+        if (!compress.equals("none") && !compress.equals("gzip")) {
+            System.err.println("Unknown compression " + compress);
+            System.exit(1);
+        }
+        boolean gzip = compress.equals("gzip");
+        String npyType = getArg("npyType").toLowerCase();
+        if (!npyType.equals("float32") && !npyType.equals("float64")) {
+            System.err.println("Unknown npy type " + npyType);
+            System.exit(1);
+        }
+        boolean npyDouble = npyType.equals("float64");
+
+        String inputFormat = getArg("inputFormat").toLowerCase();
+        if (!Arrays.asList("gephi", "edgelist", "mtx", "csr").contains(inputFormat)) {
+            System.err.println("Unknown input format " + inputFormat);
+            System.exit(1);
+        }
+        List<String> arrayFormats = new ArrayList<>(Arrays.asList("txt", "bin", "npy"));
+        arrayFormats.addAll(GraphWriter.FORMATS);
+        if (!inputFormat.equals("gephi") && !arrayFormats.containsAll(formats)) {
+            System.err.println("Only txt, bin, npy, gexf, graphml, nodecsv and gdf output are supported with --inputFormat " + inputFormat + ", csv needs the Gephi exporter");
+            System.exit(1);
         }
-        importController.process(container, new DefaultProcessor(), workspace);
+        File cacheFile = getArg("cache") != null ? new File(getArg("cache")) : null;
+        if (cacheFile != null && !arrayFormats.containsAll(formats)) {
+            System.err.println("Only txt, bin, npy, gexf, graphml, nodecsv and gdf output are supported with --cache, csv needs the Gephi exporter");
+            System.exit(1);
+        }
+        // The cache keeps IDs and edges only, so graph formats written from a cache hit would lose the labels,
+        // attributes, sizes and colours of a Gephi import
+        if (cacheFile != null && inputFormat.equals("gephi") && !Collections.disjoint(formats, GraphWriter.FORMATS)) {
+            System.err.println("Only txt, bin and npy output are supported with --cache and --inputFormat gephi, the cache does not keep labels and attributes");
+            System.exit(1);
+        }
+        boolean directed = getArg("directed").equalsIgnoreCase("true");
+        MatrixLoader.Merge matrixMerge = null;
+        try {
+            matrixMerge = MatrixLoader.Merge.valueOf(getArg("matrixMerge").toUpperCase());
+        } catch (IllegalArgumentException x) {
+            System.err.println("Unknown matrix merge " + getArg("matrixMerge"));
+            System.exit(1);
+        }
+
+        // The merge mode only changes inputs read without Gephi, so that caches of Gephi imports do not depend on it
+        MatrixLoader.Merge cacheMerge = !inputFormat.equals("gephi") ? matrixMerge : null;
+
         ForceAtlas2 layout = new ForceAtlas2(null, is3d, useAltSpeed);
-        layout.setGraphModel(graphModel);
         Random random = seed != null ? new Random(seed) : new Random();
-
+        Graph g = null;
+        IdDictionary ids = null;
+        NodeArrays nodeArrays = null;
         int num_nodes = 0;
-        for (Node node : g.getNodes()) {
-            ++num_nodes;
-            node.setX((float) ((0.01 + random.nextDouble()) * 1000) - 500);
-            node.setY((float) ((0.01 + random.nextDouble()) * 1000) - 500);
-            if (is3d) {
-                node.setZ((float) ((0.01 + random.nextDouble()) * 1000) - 500);
+
+        ArrayGraph arrayGraph = null;
+        if (cacheFile != null && GraphCache.isValid(cacheFile, file, directed, inputFormat, cacheMerge)) {
+            arrayGraph = GraphCache.read(cacheFile);
+        } else if (!inputFormat.equals("gephi")) {
+            if (inputFormat.equals("mtx")) {
+                arrayGraph = MatrixLoader.loadMatrixMarket(file, directed, matrixMerge, threadCount);
+            } else if (inputFormat.equals("csr")) {
+                arrayGraph = MatrixLoader.loadCsr(file, directed, matrixMerge, threadCount);
             } else {
-                node.setZ(0);
+                arrayGraph = EdgeListLoader.load(file, directed, matrixMerge, threadCount);
+            }
+            if (cacheFile != null) {
+                GraphCache.write(arrayGraph, file, directed, inputFormat, cacheMerge, cacheFile);
             }
         }
 
-        if (coordsFile != null) {
-            Map<Object, Node> idToNode = new HashMap<>();
-            for (Node n : g.getNodes()) {
-                idToNode.put(n.getId(), n);
-
+        if (arrayGraph != null) {
+            ids = arrayGraph.getIds();
+            boolean offHeap = getArg("offHeap").equalsIgnoreCase("true");
+            File offHeapFile = getArg("offHeapFile") != null ? new File(getArg("offHeapFile")) : null;
+            if (offHeap) {
+                // Drops the loaded edges, so that only the off heap copy is left
+                arrayGraph = new ArrayGraph(ids, arrayGraph.getEdges().offHeap(offHeapFile));
             }
-            BufferedReader br = new BufferedReader(new FileReader(coordsFile));
-            String sep = "\t";
-            String s = br.readLine();
-            for (String test : new String[]{"\t", ","}) {
-                if (s.indexOf(test) != -1) {
-                    sep = test;
-                    break;
+            nodeArrays = NodeArrays.fromEdges(arrayGraph.getEdges(), is3d, getArg("singlePrecision").equalsIgnoreCase("true"),
+                    offHeap, offHeapFile);
+            layout.setGraphArrays(nodeArrays, arrayGraph.getEdges());
+            num_nodes = nodeArrays.size();
+            for (int i = 0; i < num_nodes; i++) {
+                nodeArrays.setX(i, (float) ((0.01 + random.nextDouble()) * 1000) - 500);
+                nodeArrays.setY(i, (float) ((0.01 + random.nextDouble()) * 1000) - 500);
+                if (is3d) {
+                    nodeArrays.setZ(i, (float) ((0.01 + random.nextDouble()) * 1000) - 500);
                 }
             }
-            List<String> header = Arrays.asList(s.split(sep));
-            int idIndex = header.indexOf("id");
-            int xIndex = header.indexOf("x");
-            int yIndex = header.indexOf("y");
-            int zIndex = header.indexOf("z");
-            boolean setZ = zIndex != -1 && is3d;
-            while ((s = br.readLine()) != null) {
-                String[] tokens = s.split(sep);
-                String id = tokens[idIndex];
-                Node n = idToNode.get(id);
-                if (n != null) {
-                    n.setX(Float.parseFloat(tokens[xIndex]));
-                    n.setY(Float.parseFloat(tokens[yIndex]));
-                    if (setZ) {
-                        n.setZ(Float.parseFloat(tokens[zIndex]));
-                    }
+            if (coordsFile != null) {
+                readCoords(coordsFile, is3d, ids, nodeArrays, threadCount);
+            }
+        } else {
+            ProjectController pc = Lookup.getDefault().lookup(ProjectController.class);
+            pc.newProject();
+            Workspace workspace = pc.getCurrentWorkspace();
+            ImportController importController = Lookup.getDefault().lookup(ImportController.class);
+            GraphModel graphModel = Lookup.getDefault().lookup(GraphController.class).getGraphModel();
+            Container container = importController.importFile(file);
+            if (!directed) {
+                container.getLoader().setEdgeDefault(EdgeDirectionDefault.UNDIRECTED);
+                g = graphModel.getUndirectedGraph();
+            } else {
+                container.getLoader().setEdgeDefault(EdgeDirectionDefault.DIRECTED);
+                g = graphModel.getDirectedGraph();
+            }
+            importController.process(container, new DefaultProcessor(), workspace);
+            layout.setGraphModel(graphModel);
+            if (cacheFile != null) {
+                GraphCache.write(GraphCache.fromGraph(g.getNodes().toArray(), g.getEdges().toArray()), file, directed, inputFormat, cacheMerge, cacheFile);
+            }
+
+            for (Node node : g.getNodes()) {
+                ++num_nodes;
+                node.setX((float) ((0.01 + random.nextDouble()) * 1000) - 500);
+                node.setY((float) ((0.01 + random.nextDouble()) * 1000) - 500);
+                if (is3d) {
+                    node.setZ((float) ((0.01 + random.nextDouble()) * 1000) - 500);
                 } else {
-                    System.err.println(id + " not found");
+                    node.setZ(0);
+                }
+            }
+
+            if (coordsFile != null) {
+                Node[] nodes = g.getNodes().toArray();
+                IdDictionary nodeIds = new IdDictionary(nodes.length);
+                int[] ordinals = new int[nodes.length];
+                for (int i = 0; i < nodes.length; i++) {
+                    ordinals[i] = nodeIds.add(nodes[i].getId().toString());
+                }
+                float[] coords = CoordsFile.read(coordsFile, nodeIds, threadCount);
+                for (int i = 0; i < nodes.length; i++) {
+                    int k = 3 * ordinals[i];
+                    if (!Float.isNaN(coords[k])) {
+                        nodes[i].setX(coords[k]);
+                    }
+                    if (!Float.isNaN(coords[k + 1])) {
+                        nodes[i].setY(coords[k + 1]);
+                    }
+                    if (is3d && !Float.isNaN(coords[k + 2])) {
+                        nodes[i].setZ(coords[k + 2]);
+                    }
                 }
             }
-            br.close();
         }
 
         if (barnesHutTheta != null) {
@@ -316,76 +490,161 @@ public class Main {
         if (barnesHutSplits != null) {
             layout.setBarnesHutSplits(barnesHutSplits);
         }
+        layout.setArrayEngine(arrayEngine);
+        layout.setAttractionMode(attractionMode);
+        layout.setMortonOrderIter(Integer.parseInt(getArg("mortonOrderIter")));
+        layout.setSinglePrecision(getArg("singlePrecision").equalsIgnoreCase("true"));
+        layout.setCostZones(getArg("costZones").equalsIgnoreCase("true"));
+        layout.setWorkerTeam(getArg("workerTeam").equalsIgnoreCase("true"));
+        layout.setOffHeap(getArg("offHeap").equalsIgnoreCase("true"));
+        if (getArg("offHeapFile") != null) {
+            layout.setOffHeapFile(new File(getArg("offHeapFile")));
+        }
 
 
         layout.initAlgo();
-        
-        final Set<String> _formats = formats;
-        final String _output = output;
-        final Graph _g = g;
-        final Layout _layout = layout;
-        final boolean _is3d = is3d;
-        final PrintWriter distanceWriter = (nsteps > 0 ? new PrintWriter(new FileWriter(output + ".distances.txt")) : null);
 
-        if (nsteps > 0) distanceWriter.print("step\tdistance\n");
+        int startStep = 0;
+        if (resume) {
+            Checkpoint checkpoint = Checkpoint.read(checkpointFile);
+            try {
+                layout.restoreState(checkpoint);
+            } catch (IllegalArgumentException x) {
+                System.err.println(x.getMessage());
+                System.exit(1);
+            }
+            startStep = checkpoint.getStepCount();
+            System.out.println("Resuming from " + checkpointFile + " after " + startStep + " iterations");
+            if (!layout.isReproducible()) {
+                System.err.println("Warning: synchronized attraction on several threads is not reproducible, the resumed layout will differ from an uninterrupted run. Use --nthreads 1, or --arrayEngine with --attractionMode buffered or owner_computes");
+            }
+        }
+        final CheckpointWriter checkpointWriter = checkpointEvery > 0 ? new CheckpointWriter(layout, checkpointFile) : null;
+        SnapshotWriter snapshots = null;
+        if (snapshotEvery > 0) {
+            IdDictionary snapshotIds = ids;
+            if (snapshotIds == null) {
+                Node[] nodes = g.getNodes().toArray();
+                snapshotIds = new IdDictionary(nodes.length);
+                for (Node n : nodes) {
+                    snapshotIds.add(n.getId().toString());
+                }
+            }
+            snapshots = new SnapshotWriter(layout, snapshotIds, is3d, output + ".snapshot", snapshotFormat.equals("npy"), npyDouble);
+        }
+        final SnapshotWriter snapshotWriter = snapshots;
+
+        // A resumed run appends to the metrics of the interrupted run, up to the checkpoint
+        boolean metricsBinary = metricsFormat.equals("bin");
+        final MetricsSink metrics = new MetricsSink(new File(output + ".distances." + (metricsBinary ? "bin" : "txt")), metricsBinary, startStep);
 
+        // On a kill, the hook stops the layout after the current iteration and waits for this thread to write the
+        // output, so that the engine is never read or renumbered while an iteration runs
+        final ForceAtlas2 _layout = layout;
+        final CountDownLatch finished = new CountDownLatch(1);
         Thread shutdownThread = new Thread() {
             @Override
             public void run() {
-                _layout.endAlgo();
-                writeOutput(_g, _is3d, _formats, _output);
-                if (distanceWriter != null) distanceWriter.close();
+                _layout.requestStop();
+                try {
+                    finished.await();
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                }
             }
         };
         Runtime.getRuntime().addShutdownHook(shutdownThread);
 
-        if (nsteps > 0) {
-            int lastPercent = 0;
-            double distance;
-
-            for (int i = 0; i < nsteps; i++) {
-                layout.goAlgo();
-
-                distance = layout.getDistance();
-                distanceWriter.print(i);
-                distanceWriter.print("\t");
-                distanceWriter.print(distance);
-                distanceWriter.print("\n");
-                distanceWriter.flush();
-
-                int percent = (int) Math.floor(100 * (i + 1.0) / nsteps);
-                if (percent != lastPercent) {
-                    System.out.print("*");
-                    lastPercent = percent;
-                    if (percent % 25 == 0) {
-                        System.out.println(percent + "%");
+        try {
+            if (nsteps > 0) {
+                int lastPercent = (int) Math.floor(100.0 * startStep / nsteps);
+
+                for (int i = startStep; i < nsteps; i++) {
+                    layout.goAlgo();
+                    metrics.record(i, layout);
+                    if (checkpointWriter != null && (i + 1) % checkpointEvery == 0) {
+                        checkpointWriter.checkpoint();
+                    }
+                    if (snapshotWriter != null && (i + 1) % snapshotEvery == 0) {
+                        snapshotWriter.snapshot(i + 1);
+                    }
+                    if (!layout.canAlgo()) {
+                        System.out.println();
+                        System.out.println("Stopped after " + (i + 1) + " iterations");
+                        break;
                     }
-                }
-            }            
-        } else {
-            nsteps = 0;
-            double changePerNode;
 
-            do {
-                ++nsteps;
-                layout.goAlgo();
-                changePerNode = layout.getDistance() / num_nodes;
-                if (nsteps % 100 == 0) System.out.println(nsteps + " iterations, change_per_node = " + changePerNode);
-            } while (nsteps == 1 || changePerNode > targetChangePerNode && nsteps < targetSteps);
+                    int percent = (int) Math.floor(100 * (i + 1.0) / nsteps);
+                    if (percent != lastPercent) {
+                        System.out.print("*");
+                        lastPercent = percent;
+                        if (percent % 25 == 0) {
+                            System.out.println(percent + "%");
+                        }
+                    }
+                }            
+            } else {
+                nsteps = startStep;
+                double changePerNode;
+
+                do {
+                    ++nsteps;
+                    layout.goAlgo();
+                    metrics.record(nsteps - 1, layout);
+                    if (checkpointWriter != null && nsteps % checkpointEvery == 0) {
+                        checkpointWriter.checkpoint();
+                    }
+                    if (snapshotWriter != null && nsteps % snapshotEvery == 0) {
+                        snapshotWriter.snapshot(nsteps);
+                    }
+                    changePerNode = layout.getDistance() / num_nodes;
+                    if (nsteps % 100 == 0) System.out.println(nsteps + " iterations, change_per_node = " + changePerNode);
+                } while (layout.canAlgo() && (nsteps == 1 || changePerNode > targetChangePerNode && nsteps < targetSteps));
 
-            System.out.println("Finished in " + nsteps + " iterations, change_per_node = " + changePerNode);
-        }
+                System.out.println("Finished in " + nsteps + " iterations, change_per_node = " + changePerNode);
+            }
 
-        Runtime.getRuntime().removeShutdownHook(shutdownThread);
+            if (checkpointWriter != null) checkpointWriter.close();
+            if (snapshotWriter != null) snapshotWriter.close();
 
-        layout.endAlgo();
-        writeOutput(g, is3d, formats, output);
-        if (distanceWriter != null) distanceWriter.close();
+            layout.endAlgo();
+            if (g != null) {
+                writeOutput(g, is3d, formats, output, gzip, npyDouble, threadCount);
+            } else {
+                writeOutput(ids, nodeArrays, arrayGraph.getEdges(), directed, is3d, formats, output, gzip, npyDouble, threadCount);
+            }
+            metrics.close();
+        } finally {
+            finished.countDown();
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownThread);
+        } catch (IllegalStateException x) {
+            // Shutting down: the hook was waiting for the output
+        }
 
         long endTime = System.currentTimeMillis();
         System.out.println("Time = " + (endTime - startTime) / 1000.0 + "s");
     }
 
+    /**
+     * Reads initial coordinates of a graph loaded without Gephi, same format as for Gephi nodes.
+     */
+    private static void readCoords(File coordsFile, boolean is3d, IdDictionary ids, NodeArrays a, int threadCount) throws IOException {
+        float[] coords = CoordsFile.read(coordsFile, ids, threadCount);
+        for (int n = 0; n < a.size(); n++) {
+            if (!Float.isNaN(coords[3 * n])) {
+                a.setX(n, coords[3 * n]);
+            }
+            if (!Float.isNaN(coords[3 * n + 1])) {
+                a.setY(n, coords[3 * n + 1]);
+            }
+            if (is3d && !Float.isNaN(coords[3 * n + 2])) {
+                a.setZ(n, coords[3 * n + 2]);
+            }
+        }
+    }
+
     private static class Arg {
         String flag;
         String description;
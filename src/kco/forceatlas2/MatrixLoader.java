@@ -0,0 +1,498 @@
+package kco.forceatlas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Loads a sparse adjacency matrix, such as the kNN connectivities of scanpy or Seurat, straight into the arrays of
+ * the array engine. Reads MatrixMarket coordinate files, and CSR or CSC matrices saved by scipy.sparse.save_npz or
+ * as a directory holding their indptr.npy, indices.npy and data.npy. Row and column i are node i, whose ID is i
+ * counted from 0.
+ * <p>
+ * Entries are streamed into edge arrays. Unless the merge is {@link Merge#NONE}, entries of the same pair of nodes,
+ * in either direction when the graph is undirected, are then merged into one edge, so that a symmetric matrix gives
+ * one edge per pair as a Gephi import of the same graph would. A MatrixMarket file with symmetric storage gives one
+ * edge per stored entry when undirected, and both directions when directed.
+ */
+public class MatrixLoader {
+
+    public enum Merge {
+        /**
+         * One edge per entry.
+         */
+        NONE,
+        /**
+         * Sum of the weights, or number of entries without weights.
+         */
+        SUM,
+        MAX,
+        MIN,
+        MEAN
+    }
+
+    private static final int BLOCK = 1 << 20;
+    private static final int MAX_BLOCK = 1 << 30;
+
+    private MatrixLoader() {
+    }
+
+    public static ArrayGraph loadMatrixMarket(File file, boolean directed, Merge merge, int threadCount) throws IOException {
+        MatrixMarket m = new MatrixMarket();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte[] block = new byte[BLOCK];
+            int length = 0;
+            int scanned = 0;
+            while (true) {
+                int read = channel.read(ByteBuffer.wrap(block, length, block.length - length));
+                if (read < 0) {
+                    if (length > 0) {
+                        m.line(block, 0, length);
+                    }
+                    break;
+                }
+                length += read;
+                int lineStart = 0;
+                for (int i = scanned; i < length; i++) {
+                    if (block[i] == '\n') {
+                        m.line(block, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (lineStart == 0 && length == block.length) {
+                    if (block.length == MAX_BLOCK) {
+                        throw new IOException("Line longer than " + MAX_BLOCK + " bytes in " + file);
+                    }
+                    block = Arrays.copyOf(block, (int) Math.min(MAX_BLOCK, 2L * block.length));
+                }
+                System.arraycopy(block, lineStart, block, 0, length - lineStart);
+                length -= lineStart;
+                scanned = length;
+            }
+        }
+        if (m.source == null) {
+            throw new IOException("Missing MatrixMarket size line in " + file);
+        }
+        if (m.count != m.source.length) {
+            throw new IOException("Expected " + m.source.length + " entries, found " + m.count + " in " + file);
+        }
+
+        int[] source = m.source;
+        int[] target = m.target;
+        double[] weight = m.weight;
+        if (m.symmetric && directed) {
+            int offDiagonal = 0;
+            for (int i = 0; i < m.count; i++) {
+                offDiagonal += source[i] != target[i] ? 1 : 0;
+            }
+            source = Arrays.copyOf(source, m.count + offDiagonal);
+            target = Arrays.copyOf(target, m.count + offDiagonal);
+            weight = weight != null ? Arrays.copyOf(weight, m.count + offDiagonal) : null;
+            for (int i = 0, k = m.count; i < m.count; i++) {
+                if (source[i] != target[i]) {
+                    source[k] = target[i];
+                    target[k] = source[i];
+                    if (weight != null) {
+                        weight[k] = weight[i];
+                    }
+                    k++;
+                }
+            }
+        }
+        int nodeCount = Math.max(m.rows, m.columns);
+        EdgeArrays edges = merge == Merge.NONE ? EdgeArrays.fromArrays(nodeCount, source, target, weight)
+                : merge(nodeCount, source, target, weight, directed, merge, threadCount);
+        return new ArrayGraph(indexIds(nodeCount), edges);
+    }
+
+    /**
+     * @param file scipy .npz file, or directory of .npy files
+     */
+    public static ArrayGraph loadCsr(File file, boolean directed, Merge merge, int threadCount) throws IOException {
+        if (file.isDirectory()) {
+            return loadCsr(file, null, directed, merge, threadCount);
+        }
+        try (ZipFile zip = new ZipFile(file)) {
+            return loadCsr(file, zip, directed, merge, threadCount);
+        }
+    }
+
+    private static ArrayGraph loadCsr(File file, ZipFile zip, boolean directed, Merge merge, int threadCount) throws IOException {
+        String format = format(file, zip);
+        if (!format.equals("csr") && !format.equals("csc")) {
+            throw new IOException("Unsupported sparse matrix format " + format + " in " + file + ", only csr and csc are read");
+        }
+        int[] offsets = readInts(file, zip, "indptr.npy");
+        int[] indices = readInts(file, zip, "indices.npy");
+        double[] data = readDoubles(file, zip, "data.npy");
+        int[] shape = null;
+        try (ReadableByteChannel channel = open(file, zip, "shape.npy")) {
+            if (channel != null) {
+                shape = Npy.readHeader(channel).readInts(channel);
+            }
+        }
+        int edgeCount = offsets[offsets.length - 1];
+        if (indices.length < edgeCount || data.length < edgeCount) {
+            throw new IOException("Fewer indices or data than indptr counts in " + file);
+        }
+        indices = indices.length > edgeCount ? Arrays.copyOf(indices, edgeCount) : indices;
+        data = data.length > edgeCount ? Arrays.copyOf(data, edgeCount) : data;
+
+        int nodeCount = offsets.length - 1;
+        if (shape != null) {
+            nodeCount = Math.max(shape[0], shape[1]);
+        } else {
+            for (int index : indices) {
+                nodeCount = Math.max(nodeCount, index + 1);
+            }
+        }
+        for (int index : indices) {
+            if (index < 0 || index >= nodeCount) {
+                throw new IOException("Index " + index + " out of " + nodeCount + " nodes in " + file);
+            }
+        }
+        if (offsets.length - 1 < nodeCount) {
+            // Rows past the end of a short indptr are empty
+            int rows = offsets.length - 1;
+            offsets = Arrays.copyOf(offsets, nodeCount + 1);
+            Arrays.fill(offsets, rows + 1, nodeCount + 1, edgeCount);
+        }
+        if (format.equals("csr") && merge == Merge.NONE) {
+            return new ArrayGraph(indexIds(nodeCount), EdgeArrays.fromCsr(offsets, indices, data));
+        }
+        int[] major = new int[edgeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            Arrays.fill(major, offsets[n], offsets[n + 1], n);
+        }
+        // Rows of a CSR matrix are sources, columns of a CSC matrix are targets
+        int[] source = format.equals("csr") ? major : indices;
+        int[] target = format.equals("csr") ? indices : major;
+        EdgeArrays edges = merge == Merge.NONE ? EdgeArrays.fromArrays(nodeCount, source, target, data)
+                : merge(nodeCount, source, target, data, directed, merge, threadCount);
+        return new ArrayGraph(indexIds(nodeCount), edges);
+    }
+
+    // Opens a member of the .npz file, or a file of the directory, null if absent
+    private static ReadableByteChannel open(File file, ZipFile zip, String name) throws IOException {
+        if (zip != null) {
+            ZipEntry entry = zip.getEntry(name);
+            return entry != null ? Channels.newChannel(zip.getInputStream(entry)) : null;
+        }
+        File f = new File(file, name);
+        return f.isFile() ? FileChannel.open(f.toPath(), StandardOpenOption.READ) : null;
+    }
+
+    private static int[] readInts(File file, ZipFile zip, String name) throws IOException {
+        try (ReadableByteChannel channel = open(file, zip, name)) {
+            if (channel == null) {
+                throw new IOException("Missing " + name + " in " + file);
+            }
+            return Npy.readHeader(channel).readInts(channel);
+        }
+    }
+
+    private static double[] readDoubles(File file, ZipFile zip, String name) throws IOException {
+        try (ReadableByteChannel channel = open(file, zip, name)) {
+            if (channel == null) {
+                throw new IOException("Missing " + name + " in " + file);
+            }
+            return Npy.readHeader(channel).readDoubles(channel);
+        }
+    }
+
+    // format.npy holds the format name as a byte or UTF-32 string after the header line, csr if absent
+    private static String format(File file, ZipFile zip) throws IOException {
+        try (ReadableByteChannel channel = open(file, zip, "format.npy")) {
+            if (channel == null) {
+                return "csr";
+            }
+            ByteBuffer b = ByteBuffer.allocate(1 << 16);
+            while (b.hasRemaining()) {
+                if (channel.read(b) < 0) {
+                    break;
+                }
+            }
+            String s = new String(b.array(), 0, b.position(), StandardCharsets.ISO_8859_1);
+            return s.substring(s.lastIndexOf('\n') + 1).replace("\0", "").trim().toLowerCase();
+        }
+    }
+
+    // IDs "0" to nodeCount - 1, written straight to dictionary storage
+    private static IdDictionary indexIds(int nodeCount) {
+        int[] offsets = new int[nodeCount + 1];
+        long byteCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            byteCount += digits(i);
+            offsets[i + 1] = (int) byteCount;
+        }
+        byte[] bytes = new byte[(int) byteCount];
+        for (int i = 0; i < nodeCount; i++) {
+            for (int k = offsets[i + 1] - 1, v = i; k >= offsets[i]; k--, v /= 10) {
+                bytes[k] = (byte) ('0' + v % 10);
+            }
+        }
+        return new IdDictionary(bytes, offsets, nodeCount);
+    }
+
+    private static int digits(int v) {
+        int digits = 1;
+        for (; v >= 10; v /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Edges with one edge per pair of nodes, in either direction if undirected, merging the weights of the entries
+     * of the pair. Entries are sorted by source, then each source's entries by target, in parallel over sources.
+     */
+    private static EdgeArrays merge(int nodeCount, int[] source, int[] target, double[] weight, boolean directed,
+                                    final Merge merge, int threadCount) throws IOException {
+        if (!directed) {
+            for (int i = 0; i < source.length; i++) {
+                if (source[i] > target[i]) {
+                    int s = source[i];
+                    source[i] = target[i];
+                    target[i] = s;
+                }
+            }
+        }
+        final EdgeArrays sorted = EdgeArrays.fromArrays(nodeCount, source, target, weight);
+        final int[] offsets = sorted.offsets;
+        final int[] sortedTarget = sorted.target;
+        final double[] sortedWeight = sorted.rawWeight;
+        final int[] mergedOffsets = new int[nodeCount + 1];
+
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 1; t <= threadCount; t++) {
+                final int from = (int) Math.floor((long) nodeCount * (t - 1) / threadCount);
+                final int to = (int) Math.floor((long) nodeCount * t / threadCount);
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        long[] keys = new long[16];
+                        double[] rowWeight = new double[16];
+                        for (int n = from; n < to; n++) {
+                            int start = offsets[n];
+                            int length = offsets[n + 1] - start;
+                            if (length > keys.length) {
+                                keys = new long[Math.max(length, 2 * keys.length)];
+                                rowWeight = new double[keys.length];
+                            }
+                            // Target in the high bits, position in the row in the low bits
+                            for (int k = 0; k < length; k++) {
+                                keys[k] = (long) sortedTarget[start + k] << 32 | k;
+                            }
+                            Arrays.sort(keys, 0, length);
+                            if (sortedWeight != null) {
+                                System.arraycopy(sortedWeight, start, rowWeight, 0, length);
+                            }
+                            int distinct = 0;
+                            for (int k = 0; k < length; k++) {
+                                sortedTarget[start + k] = (int) (keys[k] >>> 32);
+                                if (sortedWeight != null) {
+                                    sortedWeight[start + k] = rowWeight[(int) keys[k]];
+                                }
+                                distinct += k == 0 || sortedTarget[start + k] != sortedTarget[start + k - 1] ? 1 : 0;
+                            }
+                            mergedOffsets[n + 1] = distinct;
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                get(f);
+            }
+            for (int n = 0; n < nodeCount; n++) {
+                mergedOffsets[n + 1] += mergedOffsets[n];
+            }
+
+            final int[] mergedTarget = new int[mergedOffsets[nodeCount]];
+            final double[] mergedWeight = sortedWeight != null || merge == Merge.SUM ? new double[mergedTarget.length] : null;
+            futures.clear();
+            for (int t = 1; t <= threadCount; t++) {
+                final int from = (int) Math.floor((long) nodeCount * (t - 1) / threadCount);
+                final int to = (int) Math.floor((long) nodeCount * t / threadCount);
+                futures.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int n = from; n < to; n++) {
+                            int out = mergedOffsets[n];
+                            for (int k = offsets[n], end = offsets[n + 1]; k < end; out++) {
+                                int neighbor = sortedTarget[k];
+                                double sum = 0;
+                                double max = Double.NEGATIVE_INFINITY;
+                                double min = Double.POSITIVE_INFINITY;
+                                int count = 0;
+                                for (; k < end && sortedTarget[k] == neighbor; k++, count++) {
+                                    double w = sortedWeight != null ? sortedWeight[k] : 1;
+                                    sum += w;
+                                    max = Math.max(max, w);
+                                    min = Math.min(min, w);
+                                }
+                                mergedTarget[out] = neighbor;
+                                if (mergedWeight != null) {
+                                    switch (merge) {
+                                        case MAX:
+                                            mergedWeight[out] = max;
+                                            break;
+                                        case MIN:
+                                            mergedWeight[out] = min;
+                                            break;
+                                        case MEAN:
+                                            mergedWeight[out] = sum / count;
+                                            break;
+                                        default:
+                                            mergedWeight[out] = sum;
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                get(f);
+            }
+            return EdgeArrays.fromCsr(mergedOffsets, mergedTarget, mergedWeight);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException x) {
+            throw new IOException(x);
+        } catch (ExecutionException x) {
+            throw new IOException(x.getCause());
+        }
+    }
+
+    /**
+     * Parser of the lines of a MatrixMarket coordinate file, storing entries with indices counted from 0.
+     */
+    private static class MatrixMarket {
+
+        boolean banner;
+        boolean pattern;
+        boolean symmetric;
+        int rows;
+        int columns;
+        int count;
+        int[] source;
+        int[] target;
+        double[] weight;
+        private final int[] tokens = new int[6];
+
+        void line(byte[] b, int pos, int end) throws IOException {
+            if (end > pos && b[end - 1] == '\r') {
+                end--;
+            }
+            if (!banner) {
+                banner(Numbers.toString(b, pos, end));
+                return;
+            }
+            if (pos == end || b[pos] == '%') {
+                return;
+            }
+            int tokenCount = split(b, pos, end);
+            if (tokenCount == 0) {
+                return;
+            }
+            try {
+                if (source == null) {
+                    if (tokenCount < 3) {
+                        throw new IOException("Invalid MatrixMarket size line: " + Numbers.toString(b, pos, end));
+                    }
+                    rows = Numbers.parseInt(b, tokens[0], tokens[1]);
+                    columns = Numbers.parseInt(b, tokens[2], tokens[3]);
+                    int size = Numbers.parseInt(b, tokens[4], tokens[5]);
+                    if (size > Integer.MAX_VALUE - 8) {
+                        throw new IOException("More than " + (Integer.MAX_VALUE - 8) + " entries");
+                    }
+                    source = new int[size];
+                    target = new int[size];
+                    weight = pattern ? null : new double[size];
+                    return;
+                }
+                if (tokenCount < (pattern ? 2 : 3)) {
+                    throw new IOException("Invalid MatrixMarket entry: " + Numbers.toString(b, pos, end));
+                }
+                if (count == source.length) {
+                    throw new IOException("More than the " + source.length + " entries of the size line");
+                }
+                int i = Numbers.parseInt(b, tokens[0], tokens[1]) - 1;
+                int j = Numbers.parseInt(b, tokens[2], tokens[3]) - 1;
+                if (i < 0 || i >= rows || j < 0 || j >= columns) {
+                    throw new IOException("Entry out of the matrix: " + Numbers.toString(b, pos, end));
+                }
+                source[count] = i;
+                target[count] = j;
+                if (!pattern) {
+                    weight[count] = Numbers.parseDouble(b, tokens[4], tokens[5]);
+                }
+                count++;
+            } catch (NumberFormatException x) {
+                throw new IOException("Invalid MatrixMarket line: " + Numbers.toString(b, pos, end));
+            }
+        }
+
+        private void banner(String line) throws IOException {
+            String[] words = line.trim().toLowerCase().split("\\s+");
+            if (words.length < 5 || !words[0].equals("%%matrixmarket") || !words[1].equals("matrix")) {
+                throw new IOException("Not a MatrixMarket matrix: " + line);
+            }
+            if (!words[2].equals("coordinate")) {
+                throw new IOException("Only coordinate MatrixMarket matrices are read, not " + words[2]);
+            }
+            if (!words[3].equals("real") && !words[3].equals("double") && !words[3].equals("integer") && !words[3].equals("pattern")) {
+                throw new IOException("Unsupported MatrixMarket field " + words[3]);
+            }
+            if (!words[4].equals("general") && !words[4].equals("symmetric")) {
+                throw new IOException("Unsupported MatrixMarket symmetry " + words[4]);
+            }
+            pattern = words[3].equals("pattern");
+            symmetric = words[4].equals("symmetric");
+            banner = true;
+        }
+
+        // Bounds of the first three blank separated tokens, returns their number
+        private int split(byte[] b, int pos, int end) {
+            int tokenCount = 0;
+            int i = pos;
+            while (tokenCount < 3) {
+                while (i < end && (b[i] == ' ' || b[i] == '\t')) {
+                    i++;
+                }
+                if (i == end) {
+                    break;
+                }
+                tokens[2 * tokenCount] = i;
+                while (i < end && b[i] != ' ' && b[i] != '\t') {
+                    i++;
+                }
+                tokens[2 * tokenCount + 1] = i;
+                tokenCount++;
+            }
+            return tokenCount;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package kco.forceatlas2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Per-iteration metrics of a layout, written in the background. {@link #record(int, ForceAtlas2)} copies the
+ * distance, speed, speed efficiency, total swinging and traction and the phase times of the last iteration into a
+ * preallocated ring of primitive arrays, and a drain thread writes the recorded rows every so often, so that
+ * iterations make no system call. The layout only waits when the ring is full.
+ * <p>
+ * Rows are written as TSV with a header line, or as binary, little endian:
+ * <pre>
+ * int magic, int version, int column count, padding to 64 bytes
+ * rows of double step, distance, speed, speedEfficiency, swinging, traction, then the time in nanoseconds of each
+ * {@link Phase}
+ * </pre>
+ */
+public class MetricsSink {
+
+    private static final int MAGIC = 0x4641324D;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int CAPACITY = 1 << 12;
+    private static final int VALUES = 5;
+    private static final Phase[] PHASES = Phase.values();
+    private static final int COLUMNS = 1 + VALUES + PHASES.length;
+    private static final long DRAIN_INTERVAL = 200000000L;
+
+    private final boolean binary;
+    private final FileChannel channel;
+    private final int[] steps = new int[CAPACITY];
+    private final double[] values = new double[CAPACITY * VALUES];
+    private final long[] times = new long[CAPACITY * PHASES.length];
+    private final ByteBuffer buffer = ByteBuffer.allocate(CAPACITY * COLUMNS * 8).order(ByteOrder.LITTLE_ENDIAN);
+    private final StringBuilder text = new StringBuilder();
+    private final Thread drainer;
+    // Rows from tail to head are recorded and not written yet
+    private volatile long head;
+    private volatile long tail;
+    private volatile boolean closed;
+
+    /**
+     * Writes to file, keeping the rows of the first keptSteps iterations when the file exists and keptSteps is not 0,
+     * e.g. when resuming a layout, and starting a new file otherwise.
+     */
+    public MetricsSink(File file, boolean binary, int keptSteps) throws IOException {
+        this.binary = binary;
+        boolean append = keptSteps > 0 && file.exists();
+        long keptBytes = append ? keptBytes(file, binary, keptSteps) : 0;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(keptBytes);
+        channel.position(keptBytes);
+        if (!append) {
+            if (binary) {
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(COLUMNS);
+                buffer.position(HEADER);
+            } else {
+                text.append("step\tdistance\tspeed\tspeedEfficiency\tswinging\ttraction");
+                for (Phase phase : PHASES) {
+                    text.append('\t').append(phase.camelCaseName()).append("Ns");
+                }
+                text.append('\n');
+            }
+            write();
+        }
+        drainer = new Thread("metrics drain") {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // Length of the header and the rows of the first steps iterations
+    private static long keptBytes(File file, boolean binary, int steps) throws IOException {
+        if (binary) {
+            return Math.min(file.length(), HEADER + (long) steps * COLUMNS * 8);
+        }
+        long length = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            for (int lines = 0; lines <= steps && (line = reader.readLine()) != null; lines++) {
+                length += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            }
+        }
+        return Math.min(file.length(), length);
+    }
+
+    /**
+     * Records the metrics of the last iteration of layout as the given step.
+     */
+    public void record(int step, ForceAtlas2 layout) {
+        long h = head;
+        while (h - tail >= CAPACITY) {
+            // Full ring: the drain thread is behind
+            LockSupport.unpark(drainer);
+            LockSupport.parkNanos(100000L);
+        }
+        int slot = (int) (h & (CAPACITY - 1));
+        steps[slot] = step;
+        values[slot * VALUES] = layout.getDistance();
+        values[slot * VALUES + 1] = layout.getSpeed();
+        values[slot * VALUES + 2] = layout.getSpeedEfficiency();
+        values[slot * VALUES + 3] = layout.getTotalSwinging();
+        values[slot * VALUES + 4] = layout.getTotalEffectiveTraction();
+        for (int p = 0; p < PHASES.length; p++) {
+            times[slot * PHASES.length + p] = layout.getPhaseTime(PHASES[p]);
+        }
+        head = h + 1;
+        if (h + 1 - tail >= CAPACITY / 2) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    /**
+     * Writes the recorded rows, then stops the drain thread and closes the file.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException x) {
+            x.printStackTrace();
+        }
+    }
+
+    private void drain() {
+        boolean failed = false;
+        while (true) {
+            // Rows recorded before close() are visible once closed is
+            boolean last = closed;
+            long h = head;
+            for (long row = tail; row < h; row++) {
+                int slot = (int) (row & (CAPACITY - 1));
+                if (binary) {
+                    buffer.putDouble(steps[slot]);
+                    for (int v = 0; v < VALUES; v++) {
+                        buffer.putDouble(values[slot * VALUES + v]);
+                    }
+                    for (int p = 0; p < PHASES.length; p++) {
+                        buffer.putDouble(times[slot * PHASES.length + p]);
+                    }
+                } else {
+                    text.append(steps[slot]);
+                    for (int v = 0; v < VALUES; v++) {
+                        text.append('\t').append(values[slot * VALUES + v]);
+                    }
+                    for (int p = 0; p < PHASES.length; p++) {
+                        text.append('\t').append(times[slot * PHASES.length + p]);
+                    }
+                    text.append('\n');
+                }
+            }
+            tail = h;
+            try {
+                if (!failed) {
+                    write();
+                }
+            } catch (IOException x) {
+                x.printStackTrace();
+                failed = true;
+            }
+            buffer.clear();
+            text.setLength(0);
+            if (last) {
+                return;
+            }
+            LockSupport.parkNanos(DRAIN_INTERVAL);
+        }
+    }
+
+    private void write() throws IOException {
+        ByteBuffer b = buffer;
+        if (!binary) {
+            b = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            b.flip();
+        }
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+        buffer.clear();
+        text.setLength(0);
+    }
+}
@@ -0,0 +1,95 @@
+package kco.forceatlas2;
+
+import java.util.Arrays;
+
+/**
+ * Z-order (Morton) ordering of nodes by position, used to renumber nodes so that nodes close in space are close in
+ * memory and in thread ranges.
+ */
+public class MortonOrder {
+
+    private MortonOrder() {
+    }
+
+    /**
+     * Returns the node ordinals sorted by the Morton code of their current position.
+     * <p>
+     * Codes and ordinals are packed in one long per node, ordinal in the low bits, so a single primitive parallel sort
+     * does the job. The code gets whatever bits the ordinal leaves, split evenly between dimensions.
+     */
+    public static int[] order(NodeArrays a) {
+        int[] order = new int[a.size];
+        order(a, new long[a.size], order);
+        return order;
+    }
+
+    /**
+     * Same as {@link #order(NodeArrays)}, into the given order array, through the given keys, both of a.size()
+     * elements, so that periodic renumbering reuses them.
+     */
+    public static void order(NodeArrays a, long[] keys, int[] order) {
+        int n = a.size;
+        if (n == 0) {
+            return;
+        }
+        int dims = a.is3d ? 3 : 2;
+        int indexBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(n - 1));
+        int bitsPerDim = Math.min(21, (63 - indexBits) / dims);
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, a.x(i));
+            maxX = Math.max(maxX, a.x(i));
+            minY = Math.min(minY, a.y(i));
+            maxY = Math.max(maxY, a.y(i));
+            if (a.is3d) {
+                minZ = Math.min(minZ, a.z(i));
+                maxZ = Math.max(maxZ, a.z(i));
+            }
+        }
+        long maxCell = (1L << bitsPerDim) - 1;
+        double scaleX = maxX > minX ? maxCell / ((double) maxX - minX) : 0;
+        double scaleY = maxY > minY ? maxCell / ((double) maxY - minY) : 0;
+        double scaleZ = maxZ > minZ ? maxCell / ((double) maxZ - minZ) : 0;
+
+        for (int i = 0; i < n; i++) {
+            long code = 0;
+            long qx = Math.min(maxCell, (long) (((double) a.x(i) - minX) * scaleX));
+            long qy = Math.min(maxCell, (long) (((double) a.y(i) - minY) * scaleY));
+            long qz = a.is3d ? Math.min(maxCell, (long) (((double) a.z(i) - minZ) * scaleZ)) : 0;
+            for (int bit = bitsPerDim - 1; bit >= 0; bit--) {
+                code = (code << 1) | ((qx >>> bit) & 1);
+                code = (code << 1) | ((qy >>> bit) & 1);
+                if (a.is3d) {
+                    code = (code << 1) | ((qz >>> bit) & 1);
+                }
+            }
+            keys[i] = (code << indexBits) | i;
+        }
+        Arrays.parallelSort(keys);
+
+        long indexMask = (1L << indexBits) - 1;
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (keys[i] & indexMask);
+        }
+    }
+
+    /**
+     * @return inverse of the given permutation: inverse[order[i]] = i
+     */
+    public static int[] inverse(int[] order) {
+        int[] inverse = new int[order.length];
+        inverse(order, inverse);
+        return inverse;
+    }
+
+    /**
+     * Writes the inverse of the given permutation to inverse, of the same length.
+     */
+    public static void inverse(int[] order, int[] inverse) {
+        for (int i = 0; i < order.length; i++) {
+            inverse[order[i]] = i;
+        }
+    }
+}
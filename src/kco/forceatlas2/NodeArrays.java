@@ -0,0 +1,611 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Graph;
+import org.gephi.graph.api.Node;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-node state of the array engine, stored as parallel primitive arrays indexed by node ordinal.
+ * Positions are kept as floats, like Gephi stores them, and forces as doubles. Masses (1 + degree) are integers, kept
+ * exactly as floats up to degree 2^24.
+ * The z arrays are only allocated for 3d layouts.
+ * <p>
+ * In single precision, forces of the current and previous iterations are stored as floats, in the dx32 and oldDx32
+ * arrays instead of the dx and oldDx ones, to halve the memory traffic of the force, speed and apply phases. Each
+ * addition is computed in double and rounded to float when stored, and the Barnes Hut repulsion of a node is summed
+ * in double before being added, see {@link BarnesHutTree#applyForce}. The global speed and swinging sums of
+ * {@link ForceAtlas2} stay in double.
+ * <p>
+ * Off heap, positions, forces, old forces, masses, sizes and fixed flags are stored in direct buffers, or in buffers
+ * mapped from a scratch file, instead of arrays, and the {@link EdgeArrays}, {@link BarnesHutTree} and
+ * {@link ForceBuffer}s of the layout are stored the same way, by an {@link Allocator} each. The heap then only grows
+ * with the graph by the loaded node order, 4 bytes per node, the Morton renumbering scratch, 16 bytes per node, and
+ * cost zones, 8 bytes per node, besides node IDs, and the Gephi graph of a Gephi import. Direct buffers count against
+ * -XX:MaxDirectMemorySize, which defaults to the maximum heap size, while mapped buffers are paged by the operating
+ * system. Each buffer is limited to 2GB, that is 134 million nodes for the cells of a double precision tree, and 268
+ * million edges with double weights. Accessors read either storage, the heap arrays being null off heap. The first
+ * {@link #permute} allocates a scratch buffer of 8 bytes per node the same way, next to the scratch file if any, or
+ * scratch arrays on heap, and later ones reuse them, so that periodic renumbering does not allocate.
+ */
+public class NodeArrays {
+
+    private static final int LOCK_STRIPES = 4096;
+
+    final int size;
+    final boolean is3d;
+    final float[] x;
+    final float[] y;
+    final float[] z;
+    final double[] dx;
+    final double[] dy;
+    final double[] dz;
+    final float[] dx32;
+    final float[] dy32;
+    final float[] dz32;
+    final double[] oldDx;
+    final double[] oldDy;
+    final double[] oldDz;
+    final float[] oldDx32;
+    final float[] oldDy32;
+    final float[] oldDz32;
+    final boolean singlePrecision;
+    final float[] mass;
+    final boolean offHeap;
+    private final FloatBuffer xBuffer;
+    private final FloatBuffer yBuffer;
+    private final FloatBuffer zBuffer;
+    private final DoubleBuffer dxBuffer;
+    private final DoubleBuffer dyBuffer;
+    private final DoubleBuffer dzBuffer;
+    private final FloatBuffer dx32Buffer;
+    private final FloatBuffer dy32Buffer;
+    private final FloatBuffer dz32Buffer;
+    private final DoubleBuffer oldDxBuffer;
+    private final DoubleBuffer oldDyBuffer;
+    private final DoubleBuffer oldDzBuffer;
+    private final FloatBuffer oldDx32Buffer;
+    private final FloatBuffer oldDy32Buffer;
+    private final FloatBuffer oldDz32Buffer;
+    private final FloatBuffer massBuffer;
+    private final FloatBuffer nodeSizeBuffer;
+    private final ByteBuffer fixedBuffer;
+    final File file;
+    private ByteBuffer permuteBuffer;
+    private float[] permuteFloats;
+    private double[] permuteDoubles;
+    final float[] nodeSize;
+    final boolean[] fixed;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public NodeArrays(int size, boolean is3d) {
+        this(size, is3d, false);
+    }
+
+    public NodeArrays(int size, boolean is3d, boolean singlePrecision) {
+        this(size, is3d, singlePrecision, false, null);
+    }
+
+    /**
+     * @param offHeap store the node state off heap
+     * @param file    scratch file to map the off heap state to, deleted on exit, or null for direct buffers
+     * @throws UncheckedIOException if the file cannot be mapped
+     */
+    public NodeArrays(int size, boolean is3d, boolean singlePrecision, boolean offHeap, File file) {
+        this.size = size;
+        this.is3d = is3d;
+        this.singlePrecision = singlePrecision;
+        this.offHeap = offHeap;
+        this.file = file;
+        boolean heap = !offHeap;
+        x = heap ? new float[size] : null;
+        y = heap ? new float[size] : null;
+        z = heap && is3d ? new float[size] : null;
+        dx = heap && !singlePrecision ? new double[size] : null;
+        dy = heap && !singlePrecision ? new double[size] : null;
+        dz = heap && is3d && !singlePrecision ? new double[size] : null;
+        dx32 = heap && singlePrecision ? new float[size] : null;
+        dy32 = heap && singlePrecision ? new float[size] : null;
+        dz32 = heap && is3d && singlePrecision ? new float[size] : null;
+        oldDx = heap && !singlePrecision ? new double[size] : null;
+        oldDy = heap && !singlePrecision ? new double[size] : null;
+        oldDz = heap && is3d && !singlePrecision ? new double[size] : null;
+        oldDx32 = heap && singlePrecision ? new float[size] : null;
+        oldDy32 = heap && singlePrecision ? new float[size] : null;
+        oldDz32 = heap && is3d && singlePrecision ? new float[size] : null;
+        mass = heap ? new float[size] : null;
+        nodeSize = heap ? new float[size] : null;
+        fixed = heap ? new boolean[size] : null;
+        if (offHeap) {
+            Allocator allocator = new Allocator(file);
+            try {
+                xBuffer = allocator.floats(size);
+                yBuffer = allocator.floats(size);
+                zBuffer = is3d ? allocator.floats(size) : null;
+                dxBuffer = !singlePrecision ? allocator.doubles(size) : null;
+                dyBuffer = !singlePrecision ? allocator.doubles(size) : null;
+                dzBuffer = is3d && !singlePrecision ? allocator.doubles(size) : null;
+                dx32Buffer = singlePrecision ? allocator.floats(size) : null;
+                dy32Buffer = singlePrecision ? allocator.floats(size) : null;
+                dz32Buffer = is3d && singlePrecision ? allocator.floats(size) : null;
+                oldDxBuffer = !singlePrecision ? allocator.doubles(size) : null;
+                oldDyBuffer = !singlePrecision ? allocator.doubles(size) : null;
+                oldDzBuffer = is3d && !singlePrecision ? allocator.doubles(size) : null;
+                oldDx32Buffer = singlePrecision ? allocator.floats(size) : null;
+                oldDy32Buffer = singlePrecision ? allocator.floats(size) : null;
+                oldDz32Buffer = is3d && singlePrecision ? allocator.floats(size) : null;
+                massBuffer = allocator.floats(size);
+                nodeSizeBuffer = allocator.floats(size);
+                fixedBuffer = allocator.allocate(size);
+            } finally {
+                allocator.close();
+            }
+        } else {
+            xBuffer = null;
+            yBuffer = null;
+            zBuffer = null;
+            dxBuffer = null;
+            dyBuffer = null;
+            dzBuffer = null;
+            dx32Buffer = null;
+            dy32Buffer = null;
+            dz32Buffer = null;
+            oldDxBuffer = null;
+            oldDyBuffer = null;
+            oldDzBuffer = null;
+            oldDx32Buffer = null;
+            oldDy32Buffer = null;
+            oldDz32Buffer = null;
+            massBuffer = null;
+            nodeSizeBuffer = null;
+            fixedBuffer = null;
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Copies positions, sizes and masses (1 + degree) of the given nodes, in order.
+     */
+    public static NodeArrays fromNodes(Node[] nodes, Graph graph, boolean is3d) {
+        return fromNodes(nodes, graph, is3d, false);
+    }
+
+    public static NodeArrays fromNodes(Node[] nodes, Graph graph, boolean is3d, boolean singlePrecision) {
+        return fromNodes(nodes, graph, is3d, singlePrecision, false, null);
+    }
+
+    public static NodeArrays fromNodes(Node[] nodes, Graph graph, boolean is3d, boolean singlePrecision, boolean offHeap, File file) {
+        NodeArrays a = new NodeArrays(nodes.length, is3d, singlePrecision, offHeap, file);
+        for (int i = 0; i < nodes.length; i++) {
+            Node n = nodes[i];
+            a.setX(i, n.x());
+            a.setY(i, n.y());
+            if (is3d) {
+                a.setZ(i, n.z());
+            }
+            a.setMass(i, 1 + graph.getDegree(n));
+            a.setNodeSize(i, n.size());
+            a.setFixed(i, n.isFixed());
+        }
+        return a;
+    }
+
+    /**
+     * Node arrays for edges loaded without Gephi: masses are 1 + degree, sizes 1 and positions 0.
+     */
+    public static NodeArrays fromEdges(EdgeArrays edges, boolean is3d, boolean singlePrecision, boolean offHeap, File file) {
+        NodeArrays a = new NodeArrays(edges.nodeCount(), is3d, singlePrecision, offHeap, file);
+        int[] degree = edges.degrees();
+        for (int i = 0; i < a.size; i++) {
+            a.setMass(i, 1 + degree[i]);
+            a.setNodeSize(i, 1);
+        }
+        return a;
+    }
+
+    /**
+     * Writes positions back to the given nodes, in order.
+     */
+    public void writePositions(Node[] nodes) {
+        for (int i = 0; i < nodes.length; i++) {
+            Node n = nodes[i];
+            n.setX(x(i));
+            n.setY(y(i));
+            if (is3d) {
+                n.setZ(z(i));
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean is3d() {
+        return is3d;
+    }
+
+    public float x(int i) {
+        return x != null ? x[i] : xBuffer.get(i);
+    }
+
+    public float y(int i) {
+        return y != null ? y[i] : yBuffer.get(i);
+    }
+
+    public float z(int i) {
+        return !is3d ? 0 : z != null ? z[i] : zBuffer.get(i);
+    }
+
+    public void setX(int i, float value) {
+        if (x != null) {
+            x[i] = value;
+        } else {
+            xBuffer.put(i, value);
+        }
+    }
+
+    public void setY(int i, float value) {
+        if (y != null) {
+            y[i] = value;
+        } else {
+            yBuffer.put(i, value);
+        }
+    }
+
+    public void setZ(int i, float value) {
+        if (z != null) {
+            z[i] = value;
+        } else {
+            zBuffer.put(i, value);
+        }
+    }
+
+    float mass(int i) {
+        return mass != null ? mass[i] : massBuffer.get(i);
+    }
+
+    private void setMass(int i, float value) {
+        if (mass != null) {
+            mass[i] = value;
+        } else {
+            massBuffer.put(i, value);
+        }
+    }
+
+    float nodeSize(int i) {
+        return nodeSize != null ? nodeSize[i] : nodeSizeBuffer.get(i);
+    }
+
+    private void setNodeSize(int i, float value) {
+        if (nodeSize != null) {
+            nodeSize[i] = value;
+        } else {
+            nodeSizeBuffer.put(i, value);
+        }
+    }
+
+    boolean isFixed(int i) {
+        return fixed != null ? fixed[i] : fixedBuffer.get(i) != 0;
+    }
+
+    private void setFixed(int i, boolean value) {
+        if (fixed != null) {
+            fixed[i] = value;
+        } else {
+            fixedBuffer.put(i, (byte) (value ? 1 : 0));
+        }
+    }
+
+    double dx(int n) {
+        if (dx != null) {
+            return dx[n];
+        }
+        if (dx32 != null) {
+            return dx32[n];
+        }
+        return singlePrecision ? dx32Buffer.get(n) : dxBuffer.get(n);
+    }
+
+    double dy(int n) {
+        if (dy != null) {
+            return dy[n];
+        }
+        if (dy32 != null) {
+            return dy32[n];
+        }
+        return singlePrecision ? dy32Buffer.get(n) : dyBuffer.get(n);
+    }
+
+    double dz(int n) {
+        if (dz != null) {
+            return dz[n];
+        }
+        if (dz32 != null) {
+            return dz32[n];
+        }
+        return singlePrecision ? dz32Buffer.get(n) : dzBuffer.get(n);
+    }
+
+    void addDx(int n, double value) {
+        if (dx != null) {
+            dx[n] += value;
+        } else if (dx32 != null) {
+            dx32[n] += value;
+        } else if (singlePrecision) {
+            dx32Buffer.put(n, (float) (dx32Buffer.get(n) + value));
+        } else {
+            dxBuffer.put(n, dxBuffer.get(n) + value);
+        }
+    }
+
+    void addDy(int n, double value) {
+        if (dy != null) {
+            dy[n] += value;
+        } else if (dy32 != null) {
+            dy32[n] += value;
+        } else if (singlePrecision) {
+            dy32Buffer.put(n, (float) (dy32Buffer.get(n) + value));
+        } else {
+            dyBuffer.put(n, dyBuffer.get(n) + value);
+        }
+    }
+
+    void addDz(int n, double value) {
+        if (dz != null) {
+            dz[n] += value;
+        } else if (dz32 != null) {
+            dz32[n] += value;
+        } else if (singlePrecision) {
+            dz32Buffer.put(n, (float) (dz32Buffer.get(n) + value));
+        } else {
+            dzBuffer.put(n, dzBuffer.get(n) + value);
+        }
+    }
+
+    /**
+     * Sets the forces of node n, e.g. when restoring a {@link Checkpoint}.
+     */
+    void setForce(int n, double dx, double dy, double dz) {
+        if (singlePrecision) {
+            setForce32(n, (float) dx, (float) dy, (float) dz);
+        } else if (offHeap) {
+            dxBuffer.put(n, dx);
+            dyBuffer.put(n, dy);
+            if (is3d) {
+                dzBuffer.put(n, dz);
+            }
+        } else {
+            this.dx[n] = dx;
+            this.dy[n] = dy;
+            if (is3d) {
+                this.dz[n] = dz;
+            }
+        }
+    }
+
+    private void setForce32(int n, float dx, float dy, float dz) {
+        if (offHeap) {
+            dx32Buffer.put(n, dx);
+            dy32Buffer.put(n, dy);
+            if (is3d) {
+                dz32Buffer.put(n, dz);
+            }
+        } else {
+            dx32[n] = dx;
+            dy32[n] = dy;
+            if (is3d) {
+                dz32[n] = dz;
+            }
+        }
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    double oldDx(int n) {
+        if (offHeap) {
+            return singlePrecision ? oldDx32Buffer.get(n) : oldDxBuffer.get(n);
+        }
+        return singlePrecision ? oldDx32[n] : oldDx[n];
+    }
+
+    double oldDy(int n) {
+        if (offHeap) {
+            return singlePrecision ? oldDy32Buffer.get(n) : oldDyBuffer.get(n);
+        }
+        return singlePrecision ? oldDy32[n] : oldDy[n];
+    }
+
+    double oldDz(int n) {
+        if (!is3d) {
+            return 0;
+        }
+        if (offHeap) {
+            return singlePrecision ? oldDz32Buffer.get(n) : oldDzBuffer.get(n);
+        }
+        return singlePrecision ? oldDz32[n] : oldDz[n];
+    }
+
+    /**
+     * Moves forces of nodes from to to into the old forces, and clears them.
+     */
+    void saveForces(int from, int to) {
+        if (offHeap) {
+            saveBuffers(from, to);
+            return;
+        }
+        if (singlePrecision) {
+            System.arraycopy(dx32, from, oldDx32, from, to - from);
+            System.arraycopy(dy32, from, oldDy32, from, to - from);
+            Arrays.fill(dx32, from, to, 0);
+            Arrays.fill(dy32, from, to, 0);
+            if (is3d) {
+                System.arraycopy(dz32, from, oldDz32, from, to - from);
+                Arrays.fill(dz32, from, to, 0);
+            }
+            return;
+        }
+        System.arraycopy(dx, from, oldDx, from, to - from);
+        System.arraycopy(dy, from, oldDy, from, to - from);
+        if (is3d) {
+            System.arraycopy(dz, from, oldDz, from, to - from);
+        }
+        Arrays.fill(dx, from, to, 0);
+        Arrays.fill(dy, from, to, 0);
+        if (is3d) {
+            Arrays.fill(dz, from, to, 0);
+        }
+    }
+
+    private void saveBuffers(int from, int to) {
+        for (int n = from; n < to; n++) {
+            if (singlePrecision) {
+                oldDx32Buffer.put(n, dx32Buffer.get(n));
+                oldDy32Buffer.put(n, dy32Buffer.get(n));
+                dx32Buffer.put(n, 0);
+                dy32Buffer.put(n, 0);
+                if (is3d) {
+                    oldDz32Buffer.put(n, dz32Buffer.get(n));
+                    dz32Buffer.put(n, 0);
+                }
+            } else {
+                oldDxBuffer.put(n, dxBuffer.get(n));
+                oldDyBuffer.put(n, dyBuffer.get(n));
+                dxBuffer.put(n, 0);
+                dyBuffer.put(n, 0);
+                if (is3d) {
+                    oldDzBuffer.put(n, dzBuffer.get(n));
+                    dzBuffer.put(n, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Renumbers nodes so that node i becomes the former node order[i].
+     */
+    public void permute(int[] order) {
+        if (offHeap) {
+            permuteBuffers(order);
+            return;
+        }
+        if (permuteFloats == null) {
+            permuteFloats = new float[size];
+            permuteDoubles = new double[size];
+        }
+        float[] floats = permuteFloats;
+        double[] doubles = permuteDoubles;
+        permute(order, x, floats);
+        permute(order, y, floats);
+        permute(order, nodeSize, floats);
+        permute(order, mass, floats);
+        if (singlePrecision) {
+            permute(order, dx32, floats);
+            permute(order, dy32, floats);
+            permute(order, oldDx32, floats);
+            permute(order, oldDy32, floats);
+        } else {
+            permute(order, dx, doubles);
+            permute(order, dy, doubles);
+            permute(order, oldDx, doubles);
+            permute(order, oldDy, doubles);
+        }
+        if (is3d) {
+            permute(order, z, floats);
+            if (singlePrecision) {
+                permute(order, dz32, floats);
+                permute(order, oldDz32, floats);
+            } else {
+                permute(order, dz, doubles);
+                permute(order, oldDz, doubles);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            floats[i] = fixed[order[i]] ? 1 : 0;
+        }
+        for (int i = 0; i < size; i++) {
+            fixed[i] = floats[i] != 0;
+        }
+    }
+
+    // Off heap, each buffer is gathered into the scratch buffer, then copied back
+    private void permuteBuffers(int[] order) {
+        if (permuteBuffer == null) {
+            Allocator allocator = new Allocator(file, ".permute");
+            try {
+                permuteBuffer = allocator.allocate(8L * size);
+            } finally {
+                allocator.close();
+            }
+        }
+        FloatBuffer floats = permuteBuffer.asFloatBuffer();
+        DoubleBuffer doubles = permuteBuffer.asDoubleBuffer();
+        FloatBuffer[] floatBuffers = {xBuffer, yBuffer, zBuffer, massBuffer, nodeSizeBuffer, dx32Buffer, dy32Buffer,
+                dz32Buffer, oldDx32Buffer, oldDy32Buffer, oldDz32Buffer};
+        DoubleBuffer[] doubleBuffers = {dxBuffer, dyBuffer, dzBuffer, oldDxBuffer, oldDyBuffer, oldDzBuffer};
+        for (FloatBuffer values : floatBuffers) {
+            if (values != null) {
+                for (int i = 0; i < size; i++) {
+                    floats.put(i, values.get(order[i]));
+                }
+                for (int i = 0; i < size; i++) {
+                    values.put(i, floats.get(i));
+                }
+            }
+        }
+        for (DoubleBuffer values : doubleBuffers) {
+            if (values != null) {
+                for (int i = 0; i < size; i++) {
+                    doubles.put(i, values.get(order[i]));
+                }
+                for (int i = 0; i < size; i++) {
+                    values.put(i, doubles.get(i));
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            permuteBuffer.put(i, fixedBuffer.get(order[i]));
+        }
+        for (int i = 0; i < size; i++) {
+            fixedBuffer.put(i, permuteBuffer.get(i));
+        }
+    }
+
+    private static void permute(int[] order, float[] values, float[] buffer) {
+        for (int i = 0; i < order.length; i++) {
+            buffer[i] = values[order[i]];
+        }
+        System.arraycopy(buffer, 0, values, 0, order.length);
+    }
+
+    private static void permute(int[] order, double[] values, double[] buffer) {
+        for (int i = 0; i < order.length; i++) {
+            buffer[i] = values[order[i]];
+        }
+        System.arraycopy(buffer, 0, values, 0, order.length);
+    }
+
+    // synchronized augment function, only used for updating attraction force
+    void augment(int i, double ddx, double ddy, double ddz) {
+        synchronized (locks[i & (LOCK_STRIPES - 1)]) {
+            addDx(i, ddx);
+            addDy(i, ddy);
+            if (is3d) {
+                addDz(i, ddz);
+            }
+        }
+    }
+}
@@ -59,6 +59,7 @@ public class NodesThread implements Runnable {
     private double gravity;
     private ForceFactory.RepulsionForce GravityForce;
     private double scaling;
+    private CostZones costZones;
 
     public NodesThread(Node[] nodes, int from, int to, boolean barnesHutOptimize, double barnesHutTheta, double gravity, ForceFactory.RepulsionForce GravityForce, double scaling, Region rootRegion, ForceFactory.RepulsionForce Repulsion) {
         this.nodes = nodes;
@@ -73,13 +74,24 @@ public class NodesThread implements Runnable {
         this.scaling = scaling;
     }
 
+    /**
+     * Also records the number of force evaluations of each node in the given cost zones.
+     */
+    public NodesThread(Node[] nodes, int from, int to, boolean barnesHutOptimize, double barnesHutTheta, double gravity, ForceFactory.RepulsionForce GravityForce, double scaling, Region rootRegion, ForceFactory.RepulsionForce Repulsion, CostZones costZones) {
+        this(nodes, from, to, barnesHutOptimize, barnesHutTheta, gravity, GravityForce, scaling, rootRegion, Repulsion);
+        this.costZones = costZones;
+    }
+
     @Override
     public void run() {
         // Repulsion
         if (barnesHutOptimize) {
             for (int nIndex = from; nIndex < to; nIndex++) {
                 Node n = nodes[nIndex];
-                rootRegion.applyForce(n, Repulsion, barnesHutTheta);
+                int cost = rootRegion.applyForce(n, Repulsion, barnesHutTheta);
+                if (costZones != null) {
+                    costZones.set(nIndex, cost + 1);
+                }
             }
         } else {
             for (int n1Index = from; n1Index < to; n1Index++) {
@@ -88,6 +100,9 @@ public class NodesThread implements Runnable {
                     Node n2 = nodes[n2Index];
                     Repulsion.apply(n1, n2);
                 }
+                if (costZones != null) {
+                    costZones.set(n1Index, n1Index + 1);
+                }
             }
         }
         // Gravity
@@ -0,0 +1,354 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Node;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Header of a NumPy .npy array, and streaming conversion of the data that follows it to Java arrays. Integer,
+ * unsigned and floating point types of any size and byte order are read, a block at a time, so that the array is
+ * never held in its file type as well.
+ * <p>
+ * Positions are written as n by 2 or 3 arrays of float32 or float64, filled in parallel straight from the positions
+ * through memory mappings of the file.
+ */
+public class Npy {
+
+    private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y'};
+    private static final int BLOCK = 1 << 20;
+    private static final int WINDOW = 1 << 30;
+    private static final Pattern DESCR = Pattern.compile("'descr'\\s*:\\s*'([<>|=])([iuf])(\\d+)'");
+    private static final Pattern FORTRAN = Pattern.compile("'fortran_order'\\s*:\\s*(True|False)");
+    private static final Pattern SHAPE = Pattern.compile("'shape'\\s*:\\s*\\(([^)]*)\\)");
+
+    private final char kind;
+    private final int itemSize;
+    private final ByteOrder order;
+    private final boolean fortranOrder;
+    private final long[] shape;
+
+    private Npy(char kind, int itemSize, ByteOrder order, boolean fortranOrder, long[] shape) {
+        this.kind = kind;
+        this.itemSize = itemSize;
+        this.order = order;
+        this.fortranOrder = fortranOrder;
+        this.shape = shape;
+    }
+
+    /**
+     * Reads the header from channel, which is left at the start of the data.
+     */
+    public static Npy readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, prefix);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (prefix.get(i) != MAGIC[i]) {
+                throw new IOException("Not a .npy array");
+            }
+        }
+        int major = prefix.get(6);
+        int headerLength;
+        if (major == 1) {
+            headerLength = prefix.getShort(8) & 0xffff;
+        } else {
+            // Versions 2 and 3 have a 4 byte header length
+            ByteBuffer rest = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, rest);
+            headerLength = (prefix.getShort(8) & 0xffff) | (rest.getShort(0) & 0xffff) << 16;
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerLength);
+        readFully(channel, header);
+        String dict = new String(header.array(), major >= 3 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+
+        Matcher descr = DESCR.matcher(dict);
+        Matcher fortran = FORTRAN.matcher(dict);
+        Matcher shape = SHAPE.matcher(dict);
+        if (!descr.find() || !fortran.find() || !shape.find()) {
+            throw new IOException("Unsupported .npy header " + dict.trim());
+        }
+        char kind = descr.group(2).charAt(0);
+        int itemSize = Integer.parseInt(descr.group(3));
+        if (kind == 'f' ? itemSize != 4 && itemSize != 8 : itemSize != 1 && itemSize != 2 && itemSize != 4 && itemSize != 8) {
+            throw new IOException("Unsupported .npy type " + descr.group());
+        }
+        ByteOrder order = descr.group(1).equals(">") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        String[] dims = shape.group(1).split(",");
+        int count = 0;
+        long[] sizes = new long[dims.length];
+        for (String d : dims) {
+            if (!d.trim().isEmpty()) {
+                sizes[count++] = Long.parseLong(d.trim());
+            }
+        }
+        long[] s = new long[count];
+        System.arraycopy(sizes, 0, s, 0, count);
+        return new Npy(kind, itemSize, order, fortran.group(1).equals("True"), s);
+    }
+
+    public long[] getShape() {
+        return shape;
+    }
+
+    public boolean isFortranOrder() {
+        return fortranOrder;
+    }
+
+    /**
+     * Number of items in the array.
+     */
+    public long length() {
+        long length = 1;
+        for (long s : shape) {
+            length *= s;
+        }
+        return length;
+    }
+
+    /**
+     * Reads the data from channel as ints.
+     *
+     * @throws IOException if a value is not an int
+     */
+    public int[] readInts(ReadableByteChannel channel) throws IOException {
+        int[] values = new int[arrayLength()];
+        ByteBuffer b = buffer();
+        for (int i = 0; i < values.length; ) {
+            int count = fill(channel, b, values.length - i);
+            for (int k = 0; k < count; k++) {
+                long v = longValue(b);
+                if (v != (int) v) {
+                    throw new IOException("Value " + v + " out of int range");
+                }
+                values[i++] = (int) v;
+            }
+            b.compact();
+        }
+        return values;
+    }
+
+    /**
+     * Reads the data from channel as floats.
+     */
+    public float[] readFloats(ReadableByteChannel channel) throws IOException {
+        float[] values = new float[arrayLength()];
+        ByteBuffer b = buffer();
+        for (int i = 0; i < values.length; ) {
+            int count = fill(channel, b, values.length - i);
+            for (int k = 0; k < count; k++) {
+                values[i++] = (float) doubleValue(b);
+            }
+            b.compact();
+        }
+        return values;
+    }
+
+    /**
+     * Reads the data from channel as doubles.
+     */
+    public double[] readDoubles(ReadableByteChannel channel) throws IOException {
+        double[] values = new double[arrayLength()];
+        ByteBuffer b = buffer();
+        for (int i = 0; i < values.length; ) {
+            int count = fill(channel, b, values.length - i);
+            for (int k = 0; k < count; k++) {
+                values[i++] = doubleValue(b);
+            }
+            b.compact();
+        }
+        return values;
+    }
+
+    private int arrayLength() throws IOException {
+        long length = length();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("More than " + (Integer.MAX_VALUE - 8) + " values in .npy array");
+        }
+        return (int) length;
+    }
+
+    private ByteBuffer buffer() {
+        return ByteBuffer.allocate(BLOCK).order(order);
+    }
+
+    // Reads into b until it holds at most max whole items, flips it and returns their number
+    private int fill(ReadableByteChannel channel, ByteBuffer b, int max) throws IOException {
+        long wanted = Math.min((long) max * itemSize, b.capacity() - b.capacity() % itemSize);
+        while (b.position() < wanted) {
+            if (channel.read(b) < 0) {
+                throw new EOFException("Truncated .npy array");
+            }
+        }
+        b.flip();
+        return Math.min(max, b.remaining() / itemSize);
+    }
+
+    private long longValue(ByteBuffer b) {
+        if (kind == 'f') {
+            double v = doubleValue(b);
+            return v == (long) v ? (long) v : Long.MIN_VALUE;
+        }
+        switch (itemSize) {
+            case 1:
+                return kind == 'u' ? b.get() & 0xff : b.get();
+            case 2:
+                return kind == 'u' ? b.getShort() & 0xffff : b.getShort();
+            case 4:
+                return kind == 'u' ? b.getInt() & 0xffffffffL : b.getInt();
+            default:
+                long v = b.getLong();
+                return kind == 'u' && v < 0 ? Long.MIN_VALUE : v;
+        }
+    }
+
+    private double doubleValue(ByteBuffer b) {
+        if (kind == 'f') {
+            return itemSize == 4 ? b.getFloat() : b.getDouble();
+        }
+        return longValue(b);
+    }
+
+    /**
+     * Writes the positions of a, to a temporary file renamed to file once complete.
+     */
+    public static void write(File file, final NodeArrays a, boolean is3d, boolean doublePrecision, int threadCount) throws IOException {
+        write(file, new Positions(a.size(), is3d ? 3 : 2) {
+            @Override
+            float get(int i, int d) {
+                return d == 0 ? a.x(i) : d == 1 ? a.y(i) : a.z(i);
+            }
+        }, doublePrecision, threadCount);
+    }
+
+    /**
+     * Writes the positions of nodes, to a temporary file renamed to file once complete.
+     */
+    public static void write(File file, final Node[] nodes, boolean is3d, boolean doublePrecision, int threadCount) throws IOException {
+        write(file, new Positions(nodes.length, is3d ? 3 : 2) {
+            @Override
+            float get(int i, int d) {
+                return d == 0 ? nodes[i].x() : d == 1 ? nodes[i].y() : nodes[i].z();
+            }
+        }, doublePrecision, threadCount);
+    }
+
+    /**
+     * Writes positions stored 3 per node, x, y and z of node i at 3 * i, keeping the first dimensions, to a temporary
+     * file renamed to file once complete.
+     */
+    public static void write(File file, final float[] coords, int dimensions, boolean doublePrecision, int threadCount) throws IOException {
+        write(file, new Positions(coords.length / 3, dimensions) {
+            @Override
+            float get(int i, int d) {
+                return coords[3 * i + d];
+            }
+        }, doublePrecision, threadCount);
+    }
+
+    private static void write(File file, final Positions p, final boolean doublePrecision, int threadCount) throws IOException {
+        String dict = "{'descr': '" + (doublePrecision ? "<f8" : "<f4") + "', 'fortran_order': False, 'shape': (" + p.size + ", " + p.dimensions + "), }";
+        // Spaces and a line end pad the header to a multiple of 64 bytes
+        int headerLength = (MAGIC.length + 4 + dict.length() + 1 + 63) / 64 * 64;
+        StringBuilder header = new StringBuilder(dict);
+        while (MAGIC.length + 4 + header.length() + 1 < headerLength) {
+            header.append(' ');
+        }
+        header.append('\n');
+        ByteBuffer prefix = ByteBuffer.allocate(headerLength).order(ByteOrder.LITTLE_ENDIAN);
+        prefix.put(MAGIC).put((byte) 1).put((byte) 0).putShort((short) header.length());
+        prefix.put(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+        prefix.flip();
+
+        final long dataStart = headerLength;
+        final int rowBytes = p.dimensions * (doublePrecision ? 8 : 4);
+        File tmp = new File(file.getPath() + ".tmp");
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try (final FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (prefix.hasRemaining()) {
+                channel.write(prefix, prefix.position());
+            }
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 1; t <= threadCount; t++) {
+                final int from = (int) Math.floor((long) p.size * (t - 1) / threadCount);
+                final int to = (int) Math.floor((long) p.size * t / threadCount);
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int start = from; start < to; ) {
+                            int end = (int) Math.min(to, start + (long) (WINDOW / rowBytes));
+                            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, dataStart + (long) start * rowBytes, (long) (end - start) * rowBytes);
+                            b.order(ByteOrder.LITTLE_ENDIAN);
+                            for (int i = start; i < end; i++) {
+                                for (int d = 0; d < p.dimensions; d++) {
+                                    if (doublePrecision) {
+                                        b.putDouble(p.get(i, d));
+                                    } else {
+                                        b.putFloat(p.get(i, d));
+                                    }
+                                }
+                            }
+                            start = end;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (InterruptedException x) {
+                    throw new IOException(x);
+                } catch (ExecutionException x) {
+                    throw new IOException(x.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private abstract static class Positions {
+
+        final int size;
+        final int dimensions;
+
+        Positions(int size, int dimensions) {
+            this.size = size;
+            this.dimensions = dimensions;
+        }
+
+        /**
+         * Coordinate d of node i.
+         */
+        abstract float get(int i, int d);
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b) < 0) {
+                throw new EOFException("Truncated .npy header");
+            }
+        }
+    }
+}
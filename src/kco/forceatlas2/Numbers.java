@@ -0,0 +1,333 @@
+package kco.forceatlas2;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses decimal numbers straight from ASCII bytes, without creating Strings. Numbers with at most 15 significant
+ * digits and a decimal exponent within 22 are converted with a single correctly rounded operation, so they match
+ * {@link Double#parseDouble}, which parses all others.
+ * <p>
+ * Floats are also formatted straight to ASCII bytes, with the shortest digits that read back as the same float, by
+ * the Schubfach algorithm of Raffaello Giulietti, as {@link Float#toString} does since JDK 19.
+ */
+public class Numbers {
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    private static final int[] INT_POWERS_OF_TEN = {
+            1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+
+    // Float significand and exponent: a float is c 2^q, with C_MIN <= c < 2 C_MIN unless subnormal
+    private static final int P = 24;
+    private static final int Q_MIN = -149;
+    private static final int C_MIN = 1 << (P - 1);
+    private static final int C_TINY = 8;
+    // Most significant 63 bits of floor(10^-k 2^(125 - floor(log2(10^-k)))) + 1, for k from G_K_MIN
+    private static final int G_K_MIN = -45;
+    private static final long[] G = {
+            0x59AEDFC10D7279C5L, 0x47BF19673DF52E37L, 0x72CB5BD86321E38CL,
+            0x5BD5E313828182D6L, 0x4977E8DC68679BDFL, 0x758CA7C70D7292FEL,
+            0x5E0A1FD271287598L, 0x4B3B4CA85A86C47AL, 0x785EE10D5DA46D90L,
+            0x604BE73DE4838AD9L, 0x4D0985CB1D3608AEL, 0x7B426FAB61F00DE3L,
+            0x629B8C891B267182L, 0x4EE2D6D415B85ACEL, 0x7E37BE2022C0914BL,
+            0x64F964E68233A76FL, 0x50C783EB9B5C85F2L, 0x409F9CBC7C4A04C2L,
+            0x6765C793FA10079DL, 0x52B7D2DCC80CD2E4L, 0x422CA8B0A00A4250L,
+            0x69E10DE76676D080L, 0x54B40B1F852BDA00L, 0x43C33C1937564800L,
+            0x6C6B935B8BBD4000L, 0x56BC75E2D6310000L, 0x4563918244F40000L,
+            0x6F05B59D3B200000L, 0x58D15E1762800000L, 0x470DE4DF82000000L,
+            0x71AFD498D0000000L, 0x5AF3107A40000000L, 0x48C2739500000000L,
+            0x746A528800000000L, 0x5D21DBA000000000L, 0x4A817C8000000000L,
+            0x7735940000000000L, 0x5F5E100000000000L, 0x4C4B400000000000L,
+            0x7A12000000000000L, 0x61A8000000000000L, 0x4E20000000000000L,
+            0x7D00000000000000L, 0x6400000000000000L, 0x5000000000000000L,
+            0x4000000000000000L, 0x6666666666666666L, 0x51EB851EB851EB85L,
+            0x4189374BC6A7EF9DL, 0x68DB8BAC710CB295L, 0x53E2D6238DA3C211L,
+            0x431BDE82D7B634DAL, 0x6B5FCA6AF2BD215EL, 0x55E63B88C230E77EL,
+            0x44B82FA09B5A52CBL, 0x6DF37F675EF6EADFL, 0x57F5FF85E592557FL,
+            0x465E6604B7A84465L, 0x709709A125DA0709L, 0x5A126E1A84AE6C07L,
+            0x480EBE7B9D58566CL, 0x734ACA5F6226F0ADL, 0x5C3BD5191B525A24L,
+            0x49C97747490EAE83L, 0x760F253EDB4AB0D2L, 0x5E72843249088D75L,
+            0x4B8ED0283A6D3DF7L, 0x78E480405D7B9658L, 0x60B6CD004AC94513L,
+            0x4D5F0A66A23A9DA9L, 0x7BCB43D769F762A8L, 0x63090312BB2C4EEDL,
+            0x4F3A68DBC8F03F24L, 0x7EC3DAF941806506L, 0x65697BFA9ACD1D9FL,
+            0x51212FFBAF0A7E18L, 0x40E7599625A1FE7AL
+    };
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private Numbers() {
+    }
+
+    /**
+     * @throws NumberFormatException if bytes start to end are not a number
+     */
+    public static double parseDouble(byte[] b, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        for (; i < end && isDigit(b[i]); i++) {
+            int d = b[i] - '0';
+            if (digits < 19) {
+                mantissa = mantissa * 10 + d;
+            } else {
+                exponent++;
+            }
+            digits += mantissa != 0 ? 1 : 0;
+            any = true;
+        }
+        if (i < end && b[i] == '.') {
+            for (i++; i < end && isDigit(b[i]); i++) {
+                int d = b[i] - '0';
+                if (digits < 19) {
+                    mantissa = mantissa * 10 + d;
+                    exponent--;
+                }
+                digits += mantissa != 0 ? 1 : 0;
+                any = true;
+            }
+        }
+        if (any && i < end && (b[i] == 'e' || b[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (b[i] == '-' || b[i] == '+')) {
+                negativeExponent = b[i] == '-';
+                i++;
+            }
+            int e = 0;
+            boolean anyExponent = false;
+            for (; i < end && isDigit(b[i]); i++) {
+                e = Math.min(e * 10 + b[i] - '0', 100000);
+                anyExponent = true;
+            }
+            any = anyExponent;
+            exponent += negativeExponent ? -e : e;
+        }
+        if (any && i == end && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(toString(b, start, end));
+    }
+
+    /**
+     * Same as {@link Float#parseFloat} of the bytes.
+     *
+     * @throws NumberFormatException if bytes start to end are not a number
+     */
+    public static float parseFloat(byte[] b, int start, int end) {
+        double d = parseDouble(b, start, end);
+        // Rounding the double to float only differs from rounding the number to float when the double is halfway
+        // between two floats, or subnormal as a float
+        long bits = Double.doubleToRawLongBits(d);
+        if ((bits & 0x1fffffffL) == 0x10000000L || d != 0 && Math.abs(d) < Float.MIN_NORMAL) {
+            return Float.parseFloat(toString(b, start, end));
+        }
+        return (float) d;
+    }
+
+    /**
+     * Writes v to b from pos, as {@link Float#toString} of JDK 19 and later, and returns the position after it. Needs
+     * room for 15 bytes.
+     */
+    public static int formatFloat(float v, byte[] b, int pos) {
+        int bits = Float.floatToRawIntBits(v);
+        int t = bits & (C_MIN - 1);
+        int bq = (bits >>> (P - 1)) & 0xff;
+        if (bq == 0xff) {
+            return ascii(t != 0 ? "NaN" : bits < 0 ? "-Infinity" : "Infinity", b, pos);
+        }
+        if (bits < 0) {
+            b[pos++] = '-';
+        }
+        if (bq != 0) {
+            int mq = -Q_MIN + 1 - bq;
+            int c = C_MIN | t;
+            if (0 < mq && mq < P) {
+                // Integers below 2^24
+                int f = c >> mq;
+                if (f << mq == c) {
+                    return decimal(f, 0, b, pos);
+                }
+            }
+            return shortest(-mq, c, 0, b, pos);
+        }
+        if (t != 0) {
+            return t < C_TINY ? shortest(Q_MIN, 10 * t, -1, b, pos) : shortest(Q_MIN, t, 0, b, pos);
+        }
+        return ascii("0.0", b, pos);
+    }
+
+    // Shortest decimal in the rounding interval of c 2^q, the closest to it on ties, times 10^dk
+    private static int shortest(int q, int c, int dk, byte[] b, int pos) {
+        int out = c & 1;
+        long cb = (long) c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // Closer lower neighbor at powers of two
+            cbl = cb - 1;
+            k = (int) (q * 661971961083L - 274743187321L >> 41);
+        }
+        int h = q + flog2pow10(-k) + 33;
+        long g = G[k - G_K_MIN] + 1;
+        int vb = roundOdd(g, cb << h);
+        int vbl = roundOdd(g, cbl << h);
+        int vbr = roundOdd(g, cbr << h);
+        int s = vb >> 2;
+        if (s >= 100) {
+            int sp10 = 10 * (int) (s * 1717986919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return decimal(upin ? sp10 : tp10, k, b, pos);
+            }
+        }
+        int t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return decimal(uin ? s : t, k + dk, b, pos);
+        }
+        int cmp = vb - (s + t << 1);
+        return decimal(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, b, pos);
+    }
+
+    // g cp / 2^95, rounded to odd, with g < 2^63 and 0 < cp < 2^63
+    private static int roundOdd(long g, long cp) {
+        long x1 = multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int) (vbp | (x1 & 0xffffffffL) + 0xffffffffL >>> 32);
+    }
+
+    // High 64 bits of the product of non negative x and y, Math.multiplyHigh of Java 9
+    private static long multiplyHigh(long x, long y) {
+        long x1 = x >>> 32;
+        long x0 = x & 0xffffffffL;
+        long y1 = y >>> 32;
+        long y0 = y & 0xffffffffL;
+        long w0 = x0 * y0;
+        long t = x1 * y0 + (w0 >>> 32);
+        long w1 = (t & 0xffffffffL) + x0 * y1;
+        return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+    }
+
+    private static int flog10pow2(int e) {
+        return (int) (e * 661971961083L >> 41);
+    }
+
+    private static int flog2pow10(int e) {
+        return (int) (e * 913124641741L >> 38);
+    }
+
+    // f 10^e, plain between 10^-3 and 10^7, in computerized scientific notation otherwise
+    private static int decimal(int f, int e, byte[] b, int pos) {
+        int len = flog10pow2(Integer.SIZE - Integer.numberOfLeadingZeros(f));
+        if (f >= INT_POWERS_OF_TEN[len]) {
+            len++;
+        }
+        // 9 digits, d.dddddddd 10^(e - 1)
+        f *= INT_POWERS_OF_TEN[9 - len];
+        e += len;
+        if (0 < e && e <= 7) {
+            pos = appendDigits(f, 0, e, b, pos);
+            b[pos++] = '.';
+            return trimZeros(b, appendDigits(f, e, 9, b, pos));
+        }
+        if (-3 < e && e <= 0) {
+            b[pos++] = '0';
+            b[pos++] = '.';
+            for (; e < 0; e++) {
+                b[pos++] = '0';
+            }
+            return trimZeros(b, appendDigits(f, 0, 9, b, pos));
+        }
+        pos = appendDigits(f, 0, 1, b, pos);
+        b[pos++] = '.';
+        pos = trimZeros(b, appendDigits(f, 1, 9, b, pos));
+        b[pos++] = 'E';
+        int exponent = e - 1;
+        if (exponent < 0) {
+            b[pos++] = '-';
+            exponent = -exponent;
+        }
+        if (exponent >= 10) {
+            b[pos++] = (byte) ('0' + exponent / 10);
+        }
+        b[pos++] = (byte) ('0' + exponent % 10);
+        return pos;
+    }
+
+    // Digits from to to of the 9 digits of f
+    private static int appendDigits(int f, int from, int to, byte[] b, int pos) {
+        for (int i = from; i < to; i++) {
+            b[pos++] = (byte) ('0' + f / INT_POWERS_OF_TEN[8 - i] % 10);
+        }
+        return pos;
+    }
+
+    // Drops trailing zeros, keeping one digit after the point
+    private static int trimZeros(byte[] b, int pos) {
+        while (b[pos - 1] == '0') {
+            pos--;
+        }
+        return b[pos - 1] == '.' ? pos + 1 : pos;
+    }
+
+    private static int ascii(String s, byte[] b, int pos) {
+        for (int k = 0; k < s.length(); k++) {
+            b[pos++] = (byte) s.charAt(k);
+        }
+        return pos;
+    }
+
+    /**
+     * @throws NumberFormatException if bytes start to end are not an int
+     */
+    public static int parseInt(byte[] b, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (b[i] == '-' || b[i] == '+')) {
+            negative = b[i] == '-';
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            throw new NumberFormatException(toString(b, start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            if (!isDigit(b[i])) {
+                throw new NumberFormatException(toString(b, start, end));
+            }
+            value = value * 10 + b[i] - '0';
+        }
+        value = negative ? -value : value;
+        if (value != (int) value) {
+            throw new NumberFormatException(toString(b, start, end));
+        }
+        return (int) value;
+    }
+
+    static String toString(byte[] b, int start, int end) {
+        return new String(b, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,24 @@
+package kco.forceatlas2;
+
+/**
+ * Phases of a {@link ForceAtlas2#goAlgo()} iteration, in execution order.
+ */
+public enum Phase {
+    INIT_LAYOUT_DATA,
+    BARNES_HUT_REGIONS,
+    REPULSION_AND_GRAVITY,
+    ATTRACTION,
+    SPEED,
+    APPLY_FORCES;
+
+    /**
+     * @return name in lower camel case, e.g. repulsionAndGravity
+     */
+    public String camelCaseName() {
+        StringBuilder name = new StringBuilder();
+        for (String word : name().toLowerCase().split("_")) {
+            name.append(name.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        return name.toString();
+    }
+}
@@ -114,6 +114,47 @@ public class Region {
         }
     }
 
+    /**
+     * Recomputes mass, mass center and size bottom-up from the subregions, keeping the subdivision, after refitting
+     * the subregions first if recursive. The size is the smallest sphere around the new mass center holding the
+     * subregions' spheres, an upper bound of the size computed from the nodes.
+     */
+    public void refit(boolean recursive) {
+        if (nodes.size() < 2) {
+            Node n = nodes.get(0);
+            ForceAtlas2LayoutData nLayout = n.getLayoutData();
+            mass = nLayout.getMass();
+            massCenterX = n.x();
+            massCenterY = n.y();
+            massCenterZ = is3d ? n.z() : 0;
+            size = 0;
+            return;
+        }
+        mass = 0;
+        double massSumX = 0;
+        double massSumY = 0;
+        double massSumZ = 0;
+        for (Region subregion : subregions) {
+            if (recursive) {
+                subregion.refit(true);
+            }
+            mass += subregion.mass;
+            massSumX += subregion.massCenterX * subregion.mass;
+            massSumY += subregion.massCenterY * subregion.mass;
+            massSumZ += subregion.massCenterZ * subregion.mass;
+        }
+        massCenterX = massSumX / mass;
+        massCenterY = massSumY / mass;
+        massCenterZ = is3d ? massSumZ / mass : 0;
+        size = Double.MIN_VALUE;
+        for (Region subregion : subregions) {
+            double xDist = subregion.massCenterX - massCenterX;
+            double yDist = subregion.massCenterY - massCenterY;
+            double zDist = subregion.massCenterZ - massCenterZ;
+            size = Math.max(size, 2 * Math.sqrt(xDist * xDist + yDist * yDist + zDist * zDist) + subregion.size);
+        }
+    }
+
     private List<ArrayList<Node>> partitionZ(ArrayList<Node> nodesToAdd) {
         ArrayList<Node> frontNodes = new ArrayList<>();
         ArrayList<Node> backNodes = new ArrayList<>();
@@ -226,22 +267,45 @@ public class Region {
         }
     }
 
-    public void applyForce(Node n, ForceFactory.RepulsionForce Force, double theta) {
+    /**
+     * @return number of force evaluations, a measure of the cost for n
+     */
+    public int applyForce(Node n, ForceFactory.RepulsionForce Force, double theta) {
         if (nodes.size() < 2) {
             Node regionNode = nodes.get(0);
             Force.apply_BH(n, regionNode);
+            return 1;
         } else {
             double distance = Math.sqrt((n.x() - massCenterX) * (n.x() - massCenterX) + (n.y() - massCenterY) * (n.y() - massCenterY) + (n.z() - massCenterZ) * (n.z() - massCenterZ));
             if (distance * theta > size) {
                 Force.apply(n, this);
+                return 1;
             } else {
+                int count = 0;
                 for (Region subregion : subregions) {
-                    subregion.applyForce(n, Force, theta);
+                    count += subregion.applyForce(n, Force, theta);
                 }
+                return count;
             }
         }
     }
 
+    /**
+     * Walks the whole subtree.
+     *
+     * @return number of regions, and depth of the subtree, 1 for a single region
+     */
+    public int[] getShape() {
+        int count = 1;
+        int depth = 0;
+        for (Region subregion : subregions) {
+            int[] shape = subregion.getShape();
+            count += shape[0];
+            depth = Math.max(depth, shape[1]);
+        }
+        return new int[]{count, depth + 1};
+    }
+
     public List<Region> getSubregions() {
         return subregions;
     }
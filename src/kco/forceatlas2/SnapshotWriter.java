@@ -0,0 +1,148 @@
+package kco.forceatlas2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Writes intermediate positions of a layout in the background, one file per snapshot, as npy arrays with the IDs of
+ * their rows in one .ids.txt file, or as binary coordinates files accepted by --coords. {@link #snapshot(int)}
+ * copies the positions into a frame of a small ring of reused buffers between two iterations, and a writer thread
+ * writes frames in order while the layout goes on. When all frames are full, the newest frame not yet being written
+ * is overwritten, so that a slow disk drops intermediate snapshots instead of holding up iterations.
+ */
+public class SnapshotWriter {
+
+    private static final int RING = 3;
+
+    private final ForceAtlas2 layout;
+    private final IdDictionary ids;
+    private final int nodeCount;
+    private final int dimensions;
+    private final String prefix;
+    private final boolean npy;
+    private final boolean npyDouble;
+    private final Deque<Frame> free = new ArrayDeque<>();
+    private final Deque<Frame> pending = new ArrayDeque<>();
+    private final Thread writer;
+    private int frameCount;
+    private int dropped;
+    private boolean closed;
+
+    /**
+     * @param prefix path that file names start with, followed by the step count and the file type
+     * @param npy    whether to write npy arrays, binary coordinates files otherwise
+     */
+    public SnapshotWriter(ForceAtlas2 layout, IdDictionary ids, boolean is3d, String prefix, boolean npy, boolean npyDouble) {
+        this.layout = layout;
+        this.ids = ids;
+        this.nodeCount = ids.size();
+        this.dimensions = is3d ? 3 : 2;
+        this.prefix = prefix;
+        this.npy = npy;
+        this.npyDouble = npyDouble;
+        this.writer = new Thread("snapshot writer") {
+            @Override
+            public void run() {
+                write();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Copies the current positions of the layout, to be written as the snapshot of the given step.
+     */
+    public void snapshot(int step) {
+        Frame frame;
+        synchronized (this) {
+            frame = free.poll();
+            if (frame == null && frameCount < RING) {
+                frame = new Frame(nodeCount);
+                frameCount++;
+            }
+            if (frame == null) {
+                // The writer is behind: replace the newest waiting snapshot
+                frame = pending.pollLast();
+                dropped++;
+            }
+        }
+        frame.step = step;
+        layout.copyPositions(frame.coords);
+        synchronized (this) {
+            pending.add(frame);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Writes the waiting snapshots, then stops the writer thread.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+        if (dropped > 0) {
+            System.out.println(dropped + " snapshots dropped while the writer was behind");
+        }
+    }
+
+    private void write() {
+        if (npy) {
+            try {
+                TxtWriter.writeIds(new File(prefix + ".ids.txt"), ids, 1);
+            } catch (IOException x) {
+                x.printStackTrace();
+            }
+        }
+        while (true) {
+            Frame frame;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException x) {
+                        return;
+                    }
+                }
+                frame = pending.poll();
+                if (frame == null) {
+                    return;
+                }
+            }
+            try {
+                if (npy) {
+                    Npy.write(new File(prefix + "." + frame.step + ".npy"), frame.coords, dimensions, npyDouble, 1);
+                } else {
+                    CoordsFile.writeBinary(new File(prefix + "." + frame.step + ".bin"), ids, frame.coords, dimensions);
+                }
+            } catch (IOException x) {
+                x.printStackTrace();
+            }
+            synchronized (this) {
+                free.add(frame);
+            }
+        }
+    }
+
+    /**
+     * Positions of one snapshot, 3 per node.
+     */
+    private static class Frame {
+
+        final float[] coords;
+        int step;
+
+        Frame(int nodeCount) {
+            coords = new float[3 * nodeCount];
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package kco.forceatlas2;
+
+import org.gephi.graph.api.Node;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes positions in the txt format: a header line, then the ID and coordinates of each node, tab separated, or
+ * the IDs alone, one per line, to go with positions written by {@link Npy}. Chunks
+ * of rows are formatted in parallel into reusable byte buffers, then written in order through a FileChannel. With
+ * gzip, each chunk is compressed in parallel too, as a member of a multi-member gzip file, which gzip readers read
+ * as one stream.
+ * <p>
+ * The file is written to a temporary file renamed once complete, so that an interrupted write never leaves a
+ * truncated file, and the temporary file is deleted when formatting or writing fails.
+ */
+public class TxtWriter {
+
+    private static final int CHUNK = 1 << 16;
+    private static final int BUFFER = 1 << 21;
+
+    private TxtWriter() {
+    }
+
+    public static void write(File file, final IdDictionary ids, final NodeArrays a, boolean is3d, boolean gzip, int threadCount) throws IOException {
+        write(file, new Rows(a.size()) {
+            @Override
+            void append(int i, Chunk out) {
+                out.ensure(ids.length(i) + 64);
+                out.length += ids.copy(i, out.text, out.length);
+                out.coordinate(a.x(i));
+                out.coordinate(a.y(i));
+                if (is3d) {
+                    out.coordinate(a.z(i));
+                }
+                out.text[out.length++] = '\n';
+            }
+        }, header(is3d), gzip, threadCount);
+    }
+
+    public static void write(File file, final Node[] nodes, boolean is3d, boolean gzip, int threadCount) throws IOException {
+        write(file, new Rows(nodes.length) {
+            @Override
+            void append(int i, Chunk out) {
+                byte[] id = nodes[i].getId().toString().getBytes(StandardCharsets.UTF_8);
+                out.ensure(id.length + 64);
+                System.arraycopy(id, 0, out.text, out.length, id.length);
+                out.length += id.length;
+                out.coordinate(nodes[i].x());
+                out.coordinate(nodes[i].y());
+                if (is3d) {
+                    out.coordinate(nodes[i].z());
+                }
+                out.text[out.length++] = '\n';
+            }
+        }, header(is3d), gzip, threadCount);
+    }
+
+    /**
+     * Writes the IDs of ids, one per line, in order.
+     */
+    public static void writeIds(File file, final IdDictionary ids, int threadCount) throws IOException {
+        write(file, new Rows(ids.size()) {
+            @Override
+            void append(int i, Chunk out) {
+                out.ensure(ids.length(i) + 64);
+                out.length += ids.copy(i, out.text, out.length);
+                out.text[out.length++] = '\n';
+            }
+        }, null, false, threadCount);
+    }
+
+    /**
+     * Writes the IDs of nodes, one per line, in order.
+     */
+    public static void writeIds(File file, final Node[] nodes, int threadCount) throws IOException {
+        write(file, new Rows(nodes.length) {
+            @Override
+            void append(int i, Chunk out) {
+                byte[] id = nodes[i].getId().toString().getBytes(StandardCharsets.UTF_8);
+                out.ensure(id.length + 64);
+                System.arraycopy(id, 0, out.text, out.length, id.length);
+                out.length += id.length;
+                out.text[out.length++] = '\n';
+            }
+        }, null, false, threadCount);
+    }
+
+    private static byte[] header(boolean is3d) {
+        return ("id\tx\ty" + (is3d ? "\tz" : "") + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param header first line with its line end, or null
+     */
+    private static void write(File file, final Rows rows, final byte[] header, final boolean gzip, int threadCount) throws IOException {
+        int chunkCount = Math.max(1, (rows.size + CHUNK - 1) / CHUNK);
+        final Queue<Chunk> free = new ConcurrentLinkedQueue<>();
+        File tmp = new File(file.getPath() + ".tmp");
+        ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // At most two chunks per thread formatted ahead of the writes
+                Deque<Future<Chunk>> pending = new ArrayDeque<>();
+                for (int next = 0; next < chunkCount || !pending.isEmpty(); ) {
+                    while (next < chunkCount && pending.size() < 2 * threadCount) {
+                        final int from = (int) Math.min(rows.size, (long) CHUNK * next);
+                        final int to = (int) Math.min(rows.size, (long) CHUNK * (next + 1));
+                        final boolean first = next == 0;
+                        pending.add(pool.submit(new Callable<Chunk>() {
+                            @Override
+                            public Chunk call() throws IOException {
+                                Chunk chunk = free.poll();
+                                if (chunk == null) {
+                                    chunk = new Chunk();
+                                }
+                                chunk.length = 0;
+                                if (first && header != null) {
+                                    chunk.ensure(header.length);
+                                    System.arraycopy(header, 0, chunk.text, 0, header.length);
+                                    chunk.length = header.length;
+                                }
+                                for (int i = from; i < to; i++) {
+                                    rows.append(i, chunk);
+                                }
+                                if (gzip) {
+                                    chunk.compress();
+                                }
+                                return chunk;
+                            }
+                        }));
+                        next++;
+                    }
+                    Chunk chunk = get(pending.poll());
+                    if (gzip) {
+                        write(channel, ByteBuffer.wrap(chunk.compressed.buffer(), 0, chunk.compressed.size()));
+                    } else {
+                        write(channel, ByteBuffer.wrap(chunk.text, 0, chunk.length));
+                    }
+                    free.add(chunk);
+                }
+            } finally {
+                pool.shutdown();
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException x) {
+            // No partial file left behind when formatting or writing fails
+            Files.deleteIfExists(tmp.toPath());
+            throw x;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException x) {
+            throw new IOException(x);
+        } catch (ExecutionException x) {
+            if (x.getCause() instanceof IOException) {
+                throw (IOException) x.getCause();
+            }
+            throw new IOException(x.getCause());
+        }
+    }
+
+    private abstract static class Rows {
+
+        final int size;
+
+        Rows(int size) {
+            this.size = size;
+        }
+
+        /**
+         * Appends the row of node i, with room for its ID and 64 more bytes ensured first.
+         */
+        abstract void append(int i, Chunk out);
+    }
+
+    /**
+     * Text of a chunk of rows, and its compressed form, reused across chunks.
+     */
+    private static class Chunk {
+
+        byte[] text = new byte[BUFFER];
+        int length;
+        Compressed compressed;
+
+        void ensure(int capacity) {
+            if (length + capacity > text.length) {
+                text = Arrays.copyOf(text, Math.max(length + capacity, 2 * text.length));
+            }
+        }
+
+        /**
+         * Appends a tab and v, with the digits of Float.toString, without creating a String. Below 10^-3 and from
+         * 10^7, these are the shortest digits of JDK 19 and later, where older JDKs sometimes print more.
+         */
+        void coordinate(float v) {
+            text[length++] = '\t';
+            length = Numbers.formatFloat(v, text, length);
+        }
+
+        void compress() throws IOException {
+            if (compressed == null) {
+                compressed = new Compressed();
+            }
+            compressed.reset();
+            // Fastest level: compression is the slowest stage, and higher levels only shrink coordinates by about 10%
+            GZIPOutputStream out = new GZIPOutputStream(compressed, 1 << 16) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+            out.write(text, 0, length);
+            out.close();
+        }
+    }
+
+    /**
+     * Byte array output stream whose buffer is written without a copy.
+     */
+    private static class Compressed extends ByteArrayOutputStream {
+
+        Compressed() {
+            super(BUFFER);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
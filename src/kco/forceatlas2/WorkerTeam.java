@@ -0,0 +1,117 @@
+package kco.forceatlas2;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * A fixed team of long-lived worker threads running iterations in lockstep. The thread calling
+ * {@link #runIteration()} takes part as worker 0, the others are daemon threads waiting for the next iteration.
+ * Within an iteration, workers separate phases with {@link #sync()}, and anything serial is done by worker 0 between
+ * two syncs.
+ */
+public class WorkerTeam {
+
+    /**
+     * Work of one worker for one iteration.
+     */
+    public interface Body {
+        void run(int worker) throws Exception;
+    }
+
+    private final int size;
+    private final Body body;
+    private final CyclicBarrier barrier;
+    private final Thread[] threads;
+    private volatile boolean shutdown;
+    private volatile boolean failed;
+
+    public WorkerTeam(int size, Body body) {
+        this.size = size;
+        this.body = body;
+        this.barrier = new CyclicBarrier(size);
+        this.threads = new Thread[size - 1];
+        for (int w = 1; w < size; w++) {
+            final int worker = w;
+            Thread t = new Thread("ForceAtlas2-worker-" + w) {
+                @Override
+                public void run() {
+                    work(worker);
+                }
+            };
+            t.setDaemon(true);
+            threads[w - 1] = t;
+            t.start();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void work(int worker) {
+        try {
+            while (true) {
+                barrier.await();
+                if (shutdown) {
+                    return;
+                }
+                runBody(worker);
+            }
+        } catch (InterruptedException | BrokenBarrierException x) {
+            // Team shut down, or failed
+            failed |= !shutdown;
+        }
+    }
+
+    private void runBody(int worker) throws InterruptedException, BrokenBarrierException {
+        try {
+            body.run(worker);
+        } catch (InterruptedException | BrokenBarrierException x) {
+            throw x;
+        } catch (Exception x) {
+            x.printStackTrace();
+            failed = true;
+            barrier.reset();
+            throw new BrokenBarrierException();
+        }
+        // End of iteration
+        barrier.await();
+    }
+
+    /**
+     * Runs one iteration on all workers, the calling thread being worker 0, and returns once all workers are done.
+     */
+    public void runIteration() {
+        if (failed) {
+            throw new IllegalStateException("Worker team failed");
+        }
+        try {
+            barrier.await();
+            runBody(0);
+        } catch (InterruptedException | BrokenBarrierException x) {
+            failed = true;
+            throw new IllegalStateException("Worker team failed", x);
+        }
+    }
+
+    /**
+     * Waits for all workers to reach the same point of the iteration.
+     */
+    public void sync() throws InterruptedException, BrokenBarrierException {
+        barrier.await();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        try {
+            if (!failed && !barrier.isBroken()) {
+                barrier.await();
+            }
+        } catch (InterruptedException | BrokenBarrierException x) {
+            // Workers already gone
+        }
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+    }
+}